@@ -0,0 +1,26 @@
+package reuiot2015.smartwatch;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/** Runs the JMH benchmarks of the sensors and persistence hot paths.
+ *
+ * Every benchmark reports its throughput together with the GC profiler, so each result comes
+ * with gc.alloc.rate.norm, the bytes allocated per operation; an allocation regression shows
+ * up as clearly as a slowdown. Arguments are the usual JMH command line, such as a benchmark
+ * name pattern or "-p model=path/to/fallsvmmodel.model"; with none, every benchmark runs.
+ *
+ * The benchmarks run on a desktop JVM and use only the public API of the app; see the README
+ * of this source root for what they need on the classpath. */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .mode(Mode.Throughput)
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,98 @@
+package reuiot2015.smartwatch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.util.Random;
+
+import reuiot2015.smartwatch.fall_detection.FallClassifier;
+import reuiot2015.smartwatch.fall_detection.FallFeatureExtractor;
+import reuiot2015.smartwatch.fall_detection.InferenceWorker;
+import reuiot2015.smartwatch.platform.Log;
+
+/** Measures predicting feature vectors with the trained fall model, through Weka and through
+ * the flat model it exports to, the way the app does: one vector through FallClassifier.isFall(),
+ * and one vector from InferenceWorker.submit() to its decision, which adds the queue and the
+ * handoff to the worker thread. The model is read from the file given by the "model"
+ * parameter, a copy of the fallsvmmodel.model asset, and the flat model is verified against
+ * the feature vectors in the file given by the "fixture" parameter, such as the fixture of
+ * the unit tests (test/smartwatch/fall_detection/fallfeatures.csv), so nothing depends on
+ * what the machine has lying around. Logging is silenced. */
+@State(Scope.Thread)
+public class PredictionBenchmark {
+    @Param({"fallsvmmodel.model"})
+    public String model;
+
+    @Param({"fallfeatures.csv"})
+    public String fixture;
+
+    @Param({"false", "true"})
+    public boolean flat;
+
+    private final static Log.Sink SILENT = new Log.Sink() {
+        @Override
+        public void d(String tag, String message) { /** Nothing to do here. */ }
+
+        @Override
+        public void e(String tag, String message) { /** Nothing to do here. */ }
+    };
+
+    private Log.Sink sink;
+    private FallClassifier classifier;
+    private InferenceWorker worker;
+    private double[] features;
+
+    // The number of decisions made by the worker, guarded by itself.
+    private final long[] decisions = new long[1];
+
+    @Setup
+    public void setUp() throws Exception {
+        this.sink = Log.getSink();
+        this.classifier = FallClassifier.fromFile(new File(this.model));
+        if (this.flat && !this.classifier.enableFlatModel(
+                FallClassifier.readFeatureRows(new File(this.fixture), FallClassifier.FIXTURE_LIMIT)))
+            throw new IllegalStateException("The model can't be exported to a flat model.");
+        Log.setSink(SILENT);
+
+        Random random = new Random(1);
+        this.features = new double[FallFeatureExtractor.FEATURE_LABELS.length];
+        for (int i = 0; i < this.features.length; ++i) this.features[i] = Math.abs(random.nextGaussian());
+
+        this.worker = new InferenceWorker(this.classifier, new InferenceWorker.DecisionListener() {
+            @Override
+            public void onDecision(double[] features, boolean fall, long windowTime, long originNanos, long latencyNanos) {
+                synchronized (decisions) {
+                    ++decisions[0];
+                    decisions.notifyAll();
+                }
+            }
+        }, 1);
+        this.worker.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.worker.shutdown();
+        Log.setSink(this.sink);
+    }
+
+    @Benchmark
+    public boolean isFall() throws Exception {
+        return this.classifier.isFall(this.features);
+    }
+
+    @Benchmark
+    public long decide() throws InterruptedException {
+        synchronized (this.decisions) {
+            long expected = this.decisions[0] + 1;
+            this.worker.submit(this.features, expected);
+            while (this.decisions[0] < expected) this.decisions.wait();
+            return this.decisions[0];
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package reuiot2015.smartwatch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import reuiot2015.smartwatch.sensors.BenchmarkSensor;
+import reuiot2015.smartwatch.sensors.SampleFrame;
+
+/** Measures formatting a collected frame as strings, with the label column the service adds. */
+@State(Scope.Thread)
+public class SampleStringBenchmark {
+    @Param({"1", "4", "16"})
+    public int sensors;
+
+    private SampleFrame frame;
+
+    @Setup
+    public void setUp() {
+        this.frame = BenchmarkSensor.filledFrame(this.sensors);
+    }
+
+    @Benchmark
+    public String[] generateSampleString() {
+        return SensorService.generateSampleString(this.frame, "notfall");
+    }
+}
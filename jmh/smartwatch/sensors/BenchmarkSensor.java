@@ -0,0 +1,37 @@
+package reuiot2015.smartwatch.sensors;
+
+/** A three axis Float sensor fed directly by the benchmarks, like the band accelerometer. */
+public class BenchmarkSensor extends Sensor {
+    /** Constructs a benchmark sensor.
+     *
+     * @param mainLabel The main label of the sensor.
+     */
+    public BenchmarkSensor(String mainLabel) {
+        super(mainLabel, new String[] {"x", "y", "z"}, new Types[] {Types.Float, Types.Float, Types.Float});
+    }
+
+    /** Feeds an event the way a band callback does. */
+    public void push(long eventTime, float x, float y, float z) { updateAt(eventTime, x, y, z); }
+
+    /** Collects into frame columns, as the Collector does on every tick. */
+    public void collectInto(SampleFrame frame, int offset) { collect(frame, offset); }
+
+    /** Builds a frame holding the collected values of some sensors, with every column set.
+     *
+     * @param sensors The number of three axis sensors in the frame.
+     * @return The frame.
+     */
+    public static SampleFrame filledFrame(int sensors) {
+        BenchmarkSensor[] s = new BenchmarkSensor[sensors];
+        Sensor.SensorMetaData[] meta = new Sensor.SensorMetaData[sensors];
+        for (int i = 0; i < sensors; ++i) {
+            s[i] = new BenchmarkSensor("bench_" + i);
+            s[i].push(i, 0.01f * i, -0.98f, 0.12f);
+            meta[i] = s[i].getMetaData();
+        }
+        SampleFrame frame = new SampleFrame(meta);
+        for (int i = 0; i < sensors; ++i) s[i].collectInto(frame, frame.getOffset(i));
+        frame.setTimestamp(System.currentTimeMillis());
+        return frame;
+    }
+}
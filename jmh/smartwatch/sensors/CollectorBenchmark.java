@@ -0,0 +1,51 @@
+package reuiot2015.smartwatch.sensors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/** Measures one Collector collection as the number of sensors grows. The collector is never
+ * begun; each call goes through collectAt(), which collects every sensor, stamps the frame and
+ * offers it to the listeners, as a tick does, without the schedule of the collector thread. */
+@State(Scope.Thread)
+public class CollectorBenchmark {
+    @Param({"1", "8", "64", "256"})
+    public int sensors;
+
+    @Param({"1", "16"})
+    public int window;
+
+    @Param({"false", "true"})
+    public boolean listening;
+
+    private Collector collector;
+    private final Collector.SampleListener listener = new Collector.SampleListener() {
+        @Override
+        public void onSampleReceived(SampleFrame frame) { /** Nothing to do here. */ }
+    };
+
+    @Setup
+    public void setUp() {
+        this.collector = new Collector(4f);
+        for (int i = 0; i < this.sensors; ++i) {
+            BenchmarkSensor s = new BenchmarkSensor("bench_" + i);
+            s.setAveraging(this.window, Sensor.AverageWeighting.EQUAL);
+            for (int j = 0; j < this.window; ++j) s.push(j, 0.1f * i, -0.9f, 0.3f);
+            this.collector.addSensor(s);
+        }
+        if (this.listening) this.collector.addListener(this.listener, 64, Collector.OverflowPolicy.COALESCE_LATEST);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.collector.removeListener(this.listener); // Stops its worker thread.
+    }
+
+    @Benchmark
+    public void collect() {
+        this.collector.collectAt(System.currentTimeMillis());
+    }
+}
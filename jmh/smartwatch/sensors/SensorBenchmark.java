@@ -0,0 +1,52 @@
+package reuiot2015.smartwatch.sensors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Measures a sensor event and a collection, for each averaging weighting and window size.
+ * A window of 1 is the raw path, where no RunningAverage is kept. */
+@State(Scope.Thread)
+public class SensorBenchmark {
+    @Param({"EQUAL", "LINEAR", "EXPONENTIAL"})
+    public String weighting;
+
+    @Param({"1", "16", "64"})
+    public int window;
+
+    private BenchmarkSensor sensor;
+    private SampleFrame frame;
+    private long time;
+    private float phase;
+
+    @Setup
+    public void setUp() {
+        this.sensor = new BenchmarkSensor("ms_accelerometer");
+        this.sensor.setAveraging(this.window, Sensor.AverageWeighting.valueOf(this.weighting));
+        for (int i = 0; i < this.window; ++i) this.sensor.push(i, 0.1f, -0.9f, 0.3f); // Fill the window.
+        this.time = this.window;
+        this.frame = new SampleFrame(new Sensor.SensorMetaData[] {this.sensor.getMetaData()});
+    }
+
+    /** One band event, as fed by a callback. */
+    @Benchmark
+    public void update() {
+        float p = this.phase = (this.phase + 0.01f) % 1.0f;
+        this.sensor.push(++this.time, p, -0.9f + p, 0.3f - p);
+    }
+
+    /** One collection straight into the frame, as done by the Collector. */
+    @Benchmark
+    public SampleFrame collectIntoFrame() {
+        this.sensor.collectInto(this.frame, 0);
+        return this.frame;
+    }
+
+    /** One collection boxed into an array, as done by the public collect(). */
+    @Benchmark
+    public Object[] collectBoxed() {
+        return this.sensor.collect();
+    }
+}
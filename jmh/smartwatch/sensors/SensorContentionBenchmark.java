@@ -0,0 +1,54 @@
+package reuiot2015.smartwatch.sensors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Measures the window of a sensor under contention: a band callback adding events while the
+ * collector reads the window and its aggregates, both through the sensor data lock. The window
+ * is a set of WindowLanes with a RunningAverage and aggregators on top, so this covers what a
+ * sliding window queue add and peek used to. */
+@State(Scope.Group)
+public class SensorContentionBenchmark {
+    @Param({"16", "64"})
+    public int window;
+
+    @Param({"false", "true"})
+    public boolean aggregators;
+
+    private BenchmarkSensor sensor;
+    private SampleFrame frame;
+    private long time;
+
+    @Setup
+    public void setUp() {
+        this.sensor = new BenchmarkSensor("ms_accelerometer");
+        this.sensor.setAveraging(this.window, Sensor.AverageWeighting.EQUAL);
+        if (this.aggregators) for (int d = 0; d < 3; ++d) {
+            this.sensor.addAggregator(d, this.window, WindowAggregators.min());
+            this.sensor.addAggregator(d, this.window, WindowAggregators.max());
+            this.sensor.addAggregator(d, this.window, WindowAggregators.standardDeviation());
+        }
+        this.frame = new SampleFrame(new Sensor.SensorMetaData[] {this.sensor.getMetaData()});
+    }
+
+    @Benchmark
+    @Group("window")
+    @GroupThreads(1)
+    public void add() {
+        long t = ++this.time; // Only this thread writes it.
+        this.sensor.push(t, (t & 15) * 0.1f, -0.9f, 0.3f);
+    }
+
+    @Benchmark
+    @Group("window")
+    @GroupThreads(1)
+    public SampleFrame peek() {
+        this.sensor.collectInto(this.frame, 0); // Only this thread uses the frame.
+        return this.frame;
+    }
+}
@@ -0,0 +1,45 @@
+package reuiot2015.smartwatch.sensors_persistence;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.Writer;
+import java.util.Random;
+
+import reuiot2015.smartwatch.fall_detection.FallFeatureExtractor;
+
+/** Measures writing a batch of fall feature rows, as a SampleAccumulator hands them over. The
+ * output is discarded, so this is the cost of formatting, not of the storage. */
+@State(Scope.Thread)
+public class CSVSampleWriterBenchmark {
+    @Param({"1", "25", "256"})
+    public int batch;
+
+    private CSVSampleWriter writer;
+    private String[][] samples;
+
+    @Setup
+    public void setUp() {
+        this.writer = new CSVSampleWriter(FallFeatureExtractor.FEATURE_LABELS, new NullWriter());
+        Random random = new Random(1);
+        this.samples = new String[this.batch][FallFeatureExtractor.FEATURE_LABELS.length];
+        for (String[] row : this.samples)
+            for (int i = 0; i < row.length; ++i) row[i] = Double.toString(random.nextGaussian());
+    }
+
+    @Benchmark
+    public boolean receiveAccumulatedSamples() {
+        return this.writer.receiveAccumulatedSamples(this.samples);
+    }
+
+    /** Discards everything written to it. */
+    static class NullWriter extends Writer {
+        @Override public void write(char[] buffer, int offset, int length) { /** Nothing to do here. */ }
+        @Override public void write(String s, int offset, int length) { /** Nothing to do here. */ }
+        @Override public void flush() { /** Nothing to do here. */ }
+        @Override public void close() { /** Nothing to do here. */ }
+    }
+}
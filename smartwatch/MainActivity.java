@@ -36,8 +36,9 @@ import java.util.Date;
 import java.util.HashMap;
 
 import reuiot2015.smartwatch.sensors.Collector;
+import reuiot2015.smartwatch.sensors.SampleFrame;
 import reuiot2015.smartwatch.sensors.Sensor;
-import reuiot2015.smartwatch.sensors.Types;
+import reuiot2015.smartwatch.sensors_persistence.SegmentLog;
 import reuiot2015.smartwatch.sensors_persistence.SmartWatchValues;
 
 
@@ -54,7 +55,7 @@ public class MainActivity extends Activity implements Collector.SampleListener,
     private ServiceBACPosterThread bacPoster; // Post the bac to the service when ready.
 
     private Sensor.SensorMetaData[] sensorMetaData;
-    private Object[] sample;
+    private SampleFrame sample; // A copy of the last collected frame.
     private final Object sampleLock = new Object();
 
     private final String[] consoleMessages = new String[5];
@@ -120,8 +121,8 @@ public class MainActivity extends Activity implements Collector.SampleListener,
 
             service.setConsentActivity(MainActivity.this);
 
-            // Monitor the collected samples.
-            service.addCollectorSampleListener(MainActivity.this);
+            // Monitor the collected samples, the UI only needs the latest one.
+            service.addCollectorSampleListener(MainActivity.this, 1, Collector.OverflowPolicy.COALESCE_LATEST);
 
             // Monitor the connection status of the service.
             service.addConnectionStatusListener(connectionStatusListener);
@@ -277,11 +278,18 @@ public class MainActivity extends Activity implements Collector.SampleListener,
                     updateConsole("Must set subject information first!");
                 else {
                     File publicDirectory = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOCUMENTS), SmartWatchValues.ALBUM_NAME + "/data");
+                    String saved = subInfo.uuid.substring(0, 8) + FILENAME_SUFFIX.format(new Date(System.currentTimeMillis()));
                     File current = new File(publicDirectory, "default.csv");
-                    File future = new File(publicDirectory, subInfo.uuid.substring(0, 8) + FILENAME_SUFFIX.format(new Date(System.currentTimeMillis()))  +".csv");
+                    File future = new File(publicDirectory, saved  +".csv");
 
                     if (current.renameTo(future)) updateConsole("Saved to " + future.getName());
                     else updateConsole("Failed to save new file.");
+
+                    // Keep the recorded frames with the features.
+                    File[] segments = SegmentLog.listSegments(publicDirectory, "default");
+                    for (int i = 0; i < segments.length; ++i)
+                        if (!segments[i].renameTo(new File(publicDirectory, SegmentLog.segmentName(saved, i))))
+                            updateConsole("Failed to save " + segments[i].getName());
                 }
 
             } else updateConsole("Cannot get information from service!");
@@ -405,10 +413,11 @@ public class MainActivity extends Activity implements Collector.SampleListener,
     }
 
     @Override
-    public void onSampleReceived(Object[] sample, Sensor.SensorMetaData[] metaData, final long timestamp) {
+    public void onSampleReceived(SampleFrame frame) {
+        final long timestamp = frame.getTimestamp();
         synchronized (sampleLock) {
-            this.sensorMetaData = metaData;
-            this.sample = sample;
+            this.sensorMetaData = frame.getMeta();
+            this.sample = frame.copyInto(this.sample); // The frame is reused by the collector.
         }
 
         this.timestamp.post(new Runnable() {
@@ -423,7 +432,7 @@ public class MainActivity extends Activity implements Collector.SampleListener,
             @Override
             public void run() {
                 ListAdapter adapter; if ((adapter = sensorList.getAdapter()) == null) {
-                    Object[] sizing = new Object[MainActivity.this.sample.length + MainActivity.this.sensorMetaData.length];
+                    Object[] sizing = new Object[MainActivity.this.sample.getColumnCount() + MainActivity.this.sensorMetaData.length];
                     adapter = new SensorListAdapter(MainActivity.this, sizing);
                     sensorList.setAdapter(adapter);
                 }
@@ -505,11 +514,10 @@ public class MainActivity extends Activity implements Collector.SampleListener,
                 TextView data = (TextView) views.get(position).findViewById(R.id.attribute_data);
 
                 int d = dataMap.get(position);
-                Types type = smd.getDimensionTypes()[dimsMap.get(position)];
 
-                if (sample != null && d < sample.length && d >= 0){
-                    if (sample[d] == null) data.setText("---");
-                    data.setText(type.asString(sample[d]));
+                if (sample != null && d < sample.getColumnCount() && d >= 0){
+                    if (sample.isNull(d)) data.setText("---");
+                    data.setText(sample.asString(d));
                 } else {
                     data.setText("");
                 }
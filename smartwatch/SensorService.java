@@ -4,6 +4,7 @@ import android.app.Activity;
 import android.app.Notification;
 import android.app.PendingIntent;
 import android.app.Service;
+import android.content.Context;
 import android.content.Intent;
 import android.os.Binder;
 import android.os.Environment;
@@ -20,13 +21,23 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.UUID;
 
+import reuiot2015.smartwatch.fall_detection.FallAlertLane;
+import reuiot2015.smartwatch.fall_detection.FallClassifier;
+import reuiot2015.smartwatch.fall_detection.FallDetector;
+import reuiot2015.smartwatch.fall_detection.FallFeatureExtractor;
+import reuiot2015.smartwatch.fall_detection.InferenceWorker;
+import reuiot2015.smartwatch.metrics.Gauge;
+import reuiot2015.smartwatch.metrics.Histogram;
+import reuiot2015.smartwatch.metrics.MetricsRegistry;
+import reuiot2015.smartwatch.metrics.MetricsSnapshot;
+import reuiot2015.smartwatch.sensors.SampleFrame;
 import reuiot2015.smartwatch.sensors.Sensor;
-import reuiot2015.smartwatch.sensors.Types;
 import reuiot2015.smartwatch.sensors_local.ButtonTouchSensor;
 import reuiot2015.smartwatch.sensors_local.LocationSensor;
 import reuiot2015.smartwatch.sensors_msband.MSBandLinker;
@@ -34,6 +45,8 @@ import reuiot2015.smartwatch.sensors.Collector;
 import reuiot2015.smartwatch.sensors_persistence.CSVSampleWriter;
 import reuiot2015.smartwatch.sensors_persistence.JSONSampleWriter;
 import reuiot2015.smartwatch.sensors_persistence.SampleAccumulator;
+import reuiot2015.smartwatch.sensors_persistence.SampleJournal;
+import reuiot2015.smartwatch.sensors_persistence.SegmentLogWriter;
 import reuiot2015.smartwatch.sensors_persistence.SmartWatchValues;
 
 /** This service maintains connections with sensors and does the data collection.
@@ -46,6 +59,7 @@ public class SensorService extends Service {
     // Specific to Service methodology.
     private final IBinder binder = new LocalBinder();
     private final static boolean allowRebind = true; // Allow activities to unbind and re-bind.
+    private final static int ALERT_CAPTURE_CAPACITY = 1024; // Raw accelerometer events waiting to be traced.
 
     // Used for monitoring of the connection status.
     private final Set<ConnectionStatusListener> connectionStatusListeners = Collections.synchronizedSet(new HashSet<ConnectionStatusListener>());
@@ -62,9 +76,16 @@ public class SensorService extends Service {
 
     // This is used to maintain connection with the sensors.
     private SensorCollectorThread thread = null;
+    private volatile FallAlertLane fallAlertLane; // Detects falls straight from the samples while collecting.
+    private final FallDetector fallDetector = new FallDetector(
+            FallDetector.DEFAULT_MIN_RUN, FallDetector.DEFAULT_MAX_RUN, 10000); // One fall per 10 seconds.
+    private static FallClassifier fallClassifier; // Loaded on first use by getFallClassifier().
 
     private final Object collectionMonitor = new Object();
 
+    // Per stage metrics of the pipeline, see registerMetrics().
+    private final MetricsRegistry metrics = new MetricsRegistry();
+
     @Override
     public void onCreate() {
         // Set up a notification to keep the service in the foreground.
@@ -85,6 +106,38 @@ public class SensorService extends Service {
 
         //**this.locationSensor = new LocationSensor(SensorService.this);
         //**this.isDrinkingSensor = new ButtonTouchSensor("is_drinking");
+
+        registerMetrics();
+    }
+
+    /** Registers the metrics that live as long as the service. The band sensors, the
+     * accumulator and the sinks register theirs when collection starts. */
+    private void registerMetrics() {
+        this.metrics.register("collector.collect", new MetricsRegistry.HistogramReader() {
+            @Override
+            public Histogram read() { return collector.getCollectDuration(); }
+        });
+        this.metrics.register("collector.overruns", new Gauge() {
+            @Override
+            public long read() { return collector.getSchedulerStats().getOverruns(); }
+        });
+        this.metrics.register("inference.latency", new MetricsRegistry.HistogramReader() {
+            @Override
+            public Histogram read() { return getInferenceLatency(); }
+        });
+        this.metrics.register("fall.alert_latency", new MetricsRegistry.HistogramReader() {
+            @Override
+            public Histogram read() { return getFallAlertLatency(); }
+        });
+    }
+
+    /** Reads the metrics of every stage of the pipeline, from the band events to the sinks.
+     * Cheap enough to poll every second or so.
+     *
+     * @return The snapshot.
+     */
+    public MetricsSnapshot getMetrics() {
+        return this.metrics.snapshot();
     }
 
     @Override
@@ -154,7 +207,8 @@ public class SensorService extends Service {
         this.connectionStatusListeners.remove(listener);
     }
 
-    /** Registers a CollectorSampleListener for monitoring collected samples.
+    /** Registers a CollectorSampleListener for monitoring collected samples. A listener that
+     * falls behind loses its oldest samples rather than hold up the collection.
      *
      * @param listener The listener to add.
      */
@@ -162,6 +216,17 @@ public class SensorService extends Service {
         this.collector.addListener(listener);
     }
 
+    /** Registers a CollectorSampleListener for monitoring collected samples, with its own queue.
+     *
+     * @param listener The listener to add.
+     * @param capacity The number of samples queued for the listener.
+     * @param policy What to do with new samples when the listener falls behind.
+     */
+    public void addCollectorSampleListener(Collector.SampleListener listener, int capacity,
+                                           Collector.OverflowPolicy policy) {
+        this.collector.addListener(listener, capacity, policy);
+    }
+
     /** Unregisters a ConnectionStatusListener.
      *
      * @param listener The listener to remove.
@@ -195,6 +260,59 @@ public class SensorService extends Service {
      */
     public float getCurrentBac() { return this.currentBac; }
 
+    /** Grabs the time from extracting fall features to their classification.
+     *
+     * @return A snapshot of the latency histogram in nanoseconds, or null if not collecting.
+     */
+    public Histogram getInferenceLatency() {
+        FallAlertLane lane = this.fallAlertLane;
+        return (lane != null) ? lane.getInferenceWorker().getLatency() : null;
+    }
+
+    /** Grabs the time from the impact of the detected falls to their alert.
+     *
+     * @return A snapshot of the latency histogram in nanoseconds, or null if not collecting.
+     */
+    public Histogram getFallAlertLatency() {
+        FallAlertLane lane = this.fallAlertLane;
+        return (lane != null) ? lane.getAlertLatency() : null;
+    }
+
+    /** Reports the p50, p99 and p999 latency of each stage from the band event of a sample
+     * to the fall decision, for the current collection.
+     *
+     * @return The report, one stage per line, or null if not collecting.
+     */
+    public String getLatencyReport() {
+        FallAlertLane lane = this.fallAlertLane;
+        return (lane != null) ? lane.getTrace().report() : null;
+    }
+
+    /** Registers a FallListener for monitoring detected falls.
+     *
+     * @param listener The listener to add.
+     */
+    public void addFallListener(FallDetector.FallListener listener) {
+        this.fallDetector.addListener(listener);
+    }
+
+    /** Unregisters a FallListener.
+     *
+     * @param listener The listener to remove.
+     */
+    public void removeFallListener(FallDetector.FallListener listener) {
+        this.fallDetector.removeListener(listener);
+    }
+
+    /** Grabs the fall inference worker.
+     *
+     * @return The worker, or null if not collecting or the fall model couldn't be loaded.
+     */
+    public InferenceWorker getInferenceWorker() {
+        FallAlertLane lane = this.fallAlertLane;
+        return (lane != null) ? lane.getInferenceWorker() : null;
+    }
+
     /** Generates a list of names for each column in a sample of data.
      *
      * @param additional Additional dimensions to include.
@@ -217,18 +335,16 @@ public class SensorService extends Service {
 
     /** Generates a sample given data from a collected sample.
      *
-     * @param data The sensor sample data.
-     * @param meta The respective sensor meta data.
+     * @param frame The collected sample frame.
      * @param additional Additional values to use.
      *
      * @return The generated sample string.
      */
-    public String[] generateSampleString(Object[] data, Sensor.SensorMetaData[] meta, String... additional) {
-        String[] result = new String[data.length + additional.length];
+    public static String[] generateSampleString(SampleFrame frame, String... additional) {
+        String[] result = new String[frame.getColumnCount() + additional.length];
 
         // Set the sensor values (convert to string by appropriate type).
-        int i = 0; for (Sensor.SensorMetaData m : meta)
-            for (Types t :  m.getDimensionTypes()) { result[i] = t.asString(data[i]); ++i; }
+        int i = 0; for (; i < frame.getColumnCount(); ++i) result[i] = frame.asString(i);
 
         // Set the additional values.
         for (String s : additional) result[i++] = s;
@@ -236,6 +352,26 @@ public class SensorService extends Service {
         return result;
     }
 
+    /** Grabs the fall classifier shared by the application, loading the model from the assets
+     * on first use, and the flat model if it agrees with Weka on random probe vectors.
+     *
+     * @param context The context to read the assets from.
+     * @return The classifier, or null if the model could not be loaded.
+     */
+    private static synchronized FallClassifier getFallClassifier(Context context) {
+        if (fallClassifier != null) return fallClassifier;
+        try {
+            InputStream is = context.getAssets().open(FallClassifier.MODEL_ASSET);
+            try { fallClassifier = FallClassifier.fromStream(is);
+            } finally { is.close(); }
+        } catch (Exception e) {
+            Log.e("SensorService", "Could not load model: " + e.getMessage());
+            return null;
+        }
+        fallClassifier.enableFlatModel();
+        return fallClassifier;
+    }
+
     /** Grabs the SubjectInformation object in use.
      *
      * @return The current SubjectInformation object.
@@ -256,6 +392,11 @@ public class SensorService extends Service {
         public SensorService getService() {
             return SensorService.this;
         }
+
+        /** Reads the pipeline metrics without going through the service, see getMetrics(). */
+        public MetricsSnapshot getMetrics() {
+            return SensorService.this.getMetrics();
+        }
     }
 
     /** This thread creates and attempts to maintain connection with MS Band smartwatch. */
@@ -275,8 +416,10 @@ public class SensorService extends Service {
                     } catch (InterruptedException e) { /** Nothing to do here. */ }
                 }
 
-                // Add the sensors to the data collector.
+                // Add the sensors to the data collector, counting their events.
                 collector.addSensors(linker);
+                for (Sensor s : linker.getSensors())
+                    metrics.register("band.events." + s.getMetaData().getMainLabel(), s.getEventCounter());
                 //***collector.addSensor(locationSensor);
                 collector.addSensor(isDrinkingSensor);
 
@@ -292,29 +435,83 @@ public class SensorService extends Service {
                 // Notify that collection was started.
                 for (ConnectionStatusListener l : connectionStatusListeners) l.onCollectionStarted();
 
-                String[] header = generateSampleHeader("timestamp", "bac_observed");
+                // Load the fall model, verifying the flat model against probe vectors.
+                FallClassifier fallClassifier = getFallClassifier(SensorService.this);
+
+                // Journal the queued samples, so the ones a killed process leaves behind are saved first.
+                SampleJournal sampleJournal = null;
+                try {
+                    sampleJournal = new SampleJournal(new File(SmartWatchValues.getDataDirectory(), "default.journal"),
+                            SampleJournal.DEFAULT_COMMIT_INTERVAL);
+                } catch (IOException e) { Log.e("SensorService", "Could not open sample journal: " + e.getMessage()); }
 
-                // Construct a CSVSampleWriter to use for saving the samples to .csv file.
+                // Construct a CSVSampleWriter to use for saving the fall features to .csv file,
+                // continuing the file of a killed process.
                 final CSVSampleWriter csvSampleWriter = new CSVSampleWriter(
-                        header, "default.csv"
+                        FallFeatureExtractor.FEATURE_LABELS, "default.csv", sampleJournal != null && sampleJournal.wasInterrupted()
                 );
 
+                // Record every collected frame to a binary segment log, next to the fall features.
+                // A slow disk never holds up the tick: the log queues over four minutes of frames,
+                // then drops the oldest, counted in the sink.segments.dropped metric.
+                final SegmentLogWriter segmentLogWriter = new SegmentLogWriter("default");
+                collector.addListener(segmentLogWriter, 1024, Collector.OverflowPolicy.DROP_OLDEST);
+
                 // Setup the sample accumulator.
                 SampleAccumulator.StorageConfig storageConfig = new SampleAccumulator.StorageConfig(
-                        SampleAccumulator.StorageConfig.TriggerType.NUM_SAMPLES, 25
+                        25, 10000 // 25 samples, or 10 seconds after the oldest, whichever comes first.
                 );
-                final SampleAccumulator sampleAccumulator = new SampleAccumulator(storageConfig);
+                final SampleAccumulator sampleAccumulator = new SampleAccumulator(
+                        storageConfig, 1024, SampleAccumulator.SheddingPolicy.DROP_OLDEST);
+                sampleAccumulator.setWatermarkListener(768, new SampleAccumulator.WatermarkListener() {
+                    @Override
+                    public void onHighWatermark(int depth, int capacity) {
+                        Log.e("SensorService", "Storage is falling behind, " + depth + "/" + capacity + " samples queued.");
+                    }
+                });
                 sampleAccumulator.addSampleAccumulationListener(csvSampleWriter);
+                if (sampleJournal != null) sampleAccumulator.setJournal(sampleJournal);
                 sampleAccumulator.start();
+                registerStorageMetrics(sampleAccumulator, sampleJournal, csvSampleWriter, segmentLogWriter);
+
+                // Detect falls on their own lane, straight from the 4 Hz frames the model and the
+                // 2 to 5 run rule were fit on, as the SessionScorer does; the SampleAccumulator
+                // batches are only for writing to disk. The raw accelerometer events are captured
+                // for the latency trace only. A lane that falls behind drops its oldest frames
+                // rather than hold up the tick.
+                final FallAlertLane lane = (fallClassifier == null) ? null : new FallAlertLane(
+                        fallClassifier, fallDetector, FallFeatureExtractor.DEFAULT_WINDOW_SIZE, 32);
+                final Sensor accelerometer = findSensor(FallAlertLane.ACCELEROMETER);
+                final boolean capturing = lane != null && accelerometer != null
+                        && accelerometer.enableCapture(ALERT_CAPTURE_CAPACITY);
+                fallDetector.reset();
+                if (lane != null) {
+                    lane.getTrace().registerWith(metrics, "trace.alert");
+                    lane.start();
+                    collector.addListener(lane, 64, Collector.OverflowPolicy.DROP_OLDEST);
+                    if (capturing) collector.addCaptureListener(lane);
+                }
+                fallAlertLane = lane;
 
-                // Set a Collector.SampleListener to send new samples to the SampleAccumulator.
+                // Set a Collector.SampleListener to extract the fall features from the accelerometer
+                // samples, and send them to the SampleAccumulator to be saved.
                 Collector.SampleListener sampleListener = new Collector.SampleListener() {
+                    private final FallFeatureExtractor extractor = new FallFeatureExtractor();
+                    private final double[] features = new double[FallFeatureExtractor.FEATURE_LABELS.length];
+
                     @Override
-                    public void onSampleReceived(Object[] sample, Sensor.SensorMetaData[] metaData, long timestamp) {
-                        sampleAccumulator.enqueueSample(generateSampleString(sample, metaData, timestamp+"", getCurrentBac()+""));
+                    public void onSampleReceived(SampleFrame frame) {
+                        int x = frame.findColumn("ms_accelerometer", "x");
+                        if (x < 0 || frame.isNull(x)) return; // No accelerometer data yet.
+                        if (!this.extractor.add(frame.getDouble(x), frame.getDouble(x + 1), frame.getDouble(x + 2))) return;
+
+                        this.extractor.getFeatures(this.features);
+                        String[] row = new String[this.features.length];
+                        for (int i = 0; i < row.length; ++i) row[i] = String.valueOf(this.features[i]);
+                        sampleAccumulator.enqueueSample(row, frame.getTickNanos());
                     }
                 };
-                collector.addListener(sampleListener);
+                collector.addListener(sampleListener, 256, Collector.OverflowPolicy.DROP_OLDEST);
 
                 // Observe the linker connection.
                 try {
@@ -323,10 +520,27 @@ public class SensorService extends Service {
                     for (ConnectionStatusListener l : connectionStatusListeners) l.onCollectionDisrupted();
                 } catch (InterruptedException e) { /** Nothing to do here. */ }
 
-                sampleAccumulator.stopStorage(); // Kill the saving of the samples.
+                // Hand the frames still queued for the listeners over before stopping the storage.
+                collector.removeListener(sampleListener, true);
+                collector.removeListener(segmentLogWriter, true);
+                unregisterStorageMetrics();
+                sampleAccumulator.stopStorage(); // Kill the saving of the samples, once the queued ones are saved.
+                try { sampleAccumulator.join(5000);
+                } catch (InterruptedException e) { /** Nothing to do here. */ }
+                if (sampleJournal != null) sampleJournal.close();
                 csvSampleWriter.release();
-
-                collector.removeListener(sampleListener);
+                segmentLogWriter.release();
+                if (capturing) {
+                    collector.removeCaptureListener(lane);
+                    accelerometer.disableCapture();
+                }
+                if (lane != null) {
+                    collector.removeListener(lane);
+                    lane.stop();
+                    Log.d("SensorService", "Alert latency by stage:\n" + lane.getTrace().report());
+                    lane.getTrace().unregisterFrom(metrics, "trace.alert");
+                }
+                fallAlertLane = null;
                 collector.clearSensors(); // Clear the sensors from the collector.
                 locationSensor.unsubscribe(); // TODO: should be part of collector.
                 isDrinkingSensor.unsubscribe();
@@ -336,6 +550,59 @@ public class SensorService extends Service {
             for (ConnectionStatusListener l : connectionStatusListeners) l.onCollectionStopped();
         }
 
+        /** Finds a band sensor by its main label, or null if the band doesn't have it. */
+        private Sensor findSensor(String mainLabel) {
+            for (Sensor s : linker.getSensors()) if (mainLabel.equals(s.getMetaData().getMainLabel())) return s;
+            return null;
+        }
+
+        /** Registers the metrics of the storage of one collection. */
+        private void registerStorageMetrics(final SampleAccumulator accumulator, final SampleJournal journal,
+                                            final CSVSampleWriter csv, final SegmentLogWriter segments) {
+            metrics.register("accumulator.depth", new Gauge() {
+                @Override
+                public long read() { return accumulator.getQueueDepth(); }
+            });
+            metrics.register("accumulator.dropped", new Gauge() {
+                @Override
+                public long read() { return accumulator.getDropped(); }
+            });
+            metrics.register("accumulator.flush", new MetricsRegistry.HistogramReader() {
+                @Override
+                public Histogram read() { return accumulator.getFlushDuration(); }
+            });
+            metrics.register("trace.storage.tick_to_saved", new MetricsRegistry.HistogramReader() {
+                @Override
+                public Histogram read() { return accumulator.getSampleLatency(); }
+            });
+            metrics.register("sink.csv.bytes", new Gauge() {
+                @Override
+                public long read() { return csv.getBytesWritten(); }
+            });
+            metrics.register("sink.segments.bytes", new Gauge() {
+                @Override
+                public long read() { return segments.getBytesWritten(); }
+            });
+            metrics.register("sink.segments.dropped", new Gauge() {
+                @Override
+                public long read() {
+                    Collector.ListenerStats stats = collector.getListenerStats(segments);
+                    return (stats != null) ? stats.getDropped() : 0;
+                }
+            });
+            if (journal != null) metrics.register("sink.journal.bytes", new Gauge() {
+                @Override
+                public long read() { return journal.getBytesCommitted(); }
+            });
+        }
+
+        /** Removes the metrics of the storage, before it is torn down. */
+        private void unregisterStorageMetrics() {
+            for (String name : new String[] {"accumulator.depth", "accumulator.dropped", "accumulator.flush", "trace.storage.tick_to_saved",
+                    "sink.csv.bytes", "sink.segments.bytes", "sink.segments.dropped", "sink.journal.bytes"})
+                metrics.remove(name);
+        }
+
         /** Checks if the thread is currently trying to collect data.
          *
          * @return True if collection thread is running, false otherwise.
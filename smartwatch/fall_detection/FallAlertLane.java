@@ -0,0 +1,140 @@
+package reuiot2015.smartwatch.fall_detection;
+
+import reuiot2015.smartwatch.metrics.Histogram;
+import reuiot2015.smartwatch.metrics.LatencyTrace;
+import reuiot2015.smartwatch.sensors.CaptureBatch;
+import reuiot2015.smartwatch.sensors.Collector;
+import reuiot2015.smartwatch.sensors.SampleFrame;
+
+/** The low latency path from accelerometer samples to fall alerts.
+ *
+ * Every sample is turned into features as soon as the lane receives it, the features are
+ * classified on an InferenceWorker, and the decisions go straight to a FallDetector; nothing
+ * waits for persistence batches. The lane is fed with collected frames (register it as a
+ * Collector.SampleListener), the rate the fall model and the FallDetector run rule were fit
+ * at, the same as the SessionScorer. It may also be registered as a Collector.CaptureListener;
+ * the raw events are then only traced (BAND_TO_CAPTURE), never classified, since a window of
+ * raw events spans a small part of the time of a window of frames. The time from impact to
+ * alert of each detected fall is kept in a histogram.
+ *
+ * Every decision is also traced from the band event of its newest sample, through the stages
+ * below, into a LatencyTrace. The band event time is on the wall clock in milliseconds, so
+ * it is carried over to the nanosecond clock of the later stages through the frame timestamp.
+ * The windows are timed by the band event of their newest sample, and the decisions by the
+ * wall clock, so the lane only suits live sensors, not replays on a session clock. */
+public class FallAlertLane implements Collector.SampleListener, Collector.CaptureListener {
+    /** The main label of the sensor the features are extracted from. */
+    public final static String ACCELEROMETER = "ms_accelerometer";
+
+    /** The stages of the trace: band event to Collector tick, tick to the lane (the listener
+     * queue), feature extraction, waiting to be classified, classification, the detector
+     * update, the whole path from the band event to the decision, and apart from the path,
+     * the time from a raw band event to its capture batch. */
+    public final static int BAND_TO_TICK = 0, TICK_TO_LANE = 1, FEATURES = 2, INFERENCE_QUEUE = 3,
+            CLASSIFY = 4, DECISION = 5, END_TO_END = 6, BAND_TO_CAPTURE = 7;
+
+    private final FallFeatureExtractor extractor;
+    private final double[] features = new double[FallFeatureExtractor.FEATURE_LABELS.length];
+    private final InferenceWorker worker;
+    private final FallDetector detector;
+    private final Histogram alertLatency = Histogram.latencyNanos();
+    private final LatencyTrace trace = new LatencyTrace(
+            "band_to_tick", "tick_to_lane", "features", "inference_queue", "classify", "decision", "end_to_end",
+            "band_to_capture");
+
+    private final FallDetector.FallListener latencyRecorder = new FallDetector.FallListener() {
+        @Override
+        public void onFallDetected(FallEvent event) {
+            alertLatency.record(Math.max(0, event.getLatencyMillis()) * 1000000L);
+        }
+
+        @Override
+        public void onFallCancelled(FallEvent event) { /** Nothing to do here. */ }
+    };
+
+    /** Constructs a lane; call start() before feeding it.
+     *
+     * @param classifier The fall classifier.
+     * @param detector The detector to send the decisions to.
+     * @param windowSize The number of samples per feature window.
+     * @param queueCapacity The number of feature vectors that can wait to be classified.
+     */
+    public FallAlertLane(FallClassifier classifier, final FallDetector detector, int windowSize, int queueCapacity) {
+        this.extractor = new FallFeatureExtractor(windowSize);
+        this.detector = detector;
+        this.worker = new InferenceWorker(classifier, new InferenceWorker.DecisionListener() {
+            @Override
+            public void onDecision(double[] features, boolean fall, long windowTime, long originNanos, long latencyNanos) {
+                long start = System.nanoTime();
+                detector.update(fall, windowTime, System.currentTimeMillis());
+                long decided = System.nanoTime();
+                trace.record(DECISION, decided - start);
+                if (originNanos != 0) trace.record(END_TO_END, decided - originNanos);
+            }
+        }, queueCapacity);
+        this.worker.setTrace(this.trace, INFERENCE_QUEUE, CLASSIFY);
+    }
+
+    /** Starts classifying. */
+    public void start() {
+        this.detector.addListener(this.latencyRecorder);
+        this.worker.start();
+    }
+
+    /** Stops classifying, discarding the features that are still queued. */
+    public void stop() {
+        this.worker.shutdown();
+        this.detector.removeListener(this.latencyRecorder);
+    }
+
+    @Override
+    public void onSampleReceived(SampleFrame frame) {
+        long received = System.nanoTime();
+        int x = frame.findColumn(ACCELEROMETER, "x");
+        if (x < 0 || frame.isNull(x)) return; // No accelerometer data yet.
+
+        // Carry the band event over to the nanosecond clock, through the frame timestamp.
+        long origin = 0, tick = frame.getTickNanos(), eventTime = frame.getEventTime(frame.findSensor(ACCELEROMETER));
+        if (tick != 0 && eventTime != Long.MIN_VALUE) {
+            long age = Math.max(0, frame.getTimestamp() - eventTime) * 1000000L;
+            origin = tick - age;
+            this.trace.record(BAND_TO_TICK, age);
+            this.trace.record(TICK_TO_LANE, received - tick);
+        }
+        if (eventTime == Long.MIN_VALUE) eventTime = frame.getTimestamp(); // Time the window by the band event if known.
+        add(frame.getDouble(x), frame.getDouble(x + 1), frame.getDouble(x + 2), eventTime, origin);
+    }
+
+    @Override
+    public void onCaptureBatch(CaptureBatch batch) {
+        if (!ACCELEROMETER.equals(batch.getMeta().getMainLabel())) return;
+        long millis = System.currentTimeMillis();
+        for (int i = 0; i < batch.size(); ++i) this.trace.record(BAND_TO_CAPTURE, (millis - batch.getEventTime(i)) * 1000000L);
+    }
+
+    private void add(double x, double y, double z, long timestamp, long origin) {
+        long start = System.nanoTime();
+        if (!this.extractor.add(x, y, z)) return;
+        this.extractor.getFeatures(this.features);
+        this.trace.record(FEATURES, System.nanoTime() - start);
+        this.worker.submit(this.features, timestamp, origin);
+    }
+
+    /** Grabs the time from the impact to the alert of the detected falls.
+     *
+     * @return A snapshot of the latency histogram, in nanoseconds.
+     */
+    public Histogram getAlertLatency() { return this.alertLatency.snapshot(); }
+
+    /** Grabs the per stage latency of the decisions, see the stage constants.
+     *
+     * @return The trace, live.
+     */
+    public LatencyTrace getTrace() { return this.trace; }
+
+    /** Grabs the worker classifying the features of this lane.
+     *
+     * @return The inference worker.
+     */
+    public InferenceWorker getInferenceWorker() { return this.worker; }
+}
@@ -0,0 +1,226 @@
+package reuiot2015.smartwatch.fall_detection;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import reuiot2015.smartwatch.platform.Log;
+
+import weka.classifiers.Classifier;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/** Classifies fall feature vectors in memory with the trained fall model.
+ *
+ * The model is deserialized once, and a single Instances header and Instance are reused
+ * for every classification, so classifying costs only the model evaluation. The header
+ * matches the CSV the model was trained on: the FallFeatureExtractor features followed by
+ * the nominal outcome, with "notfall" before "fall". Classification is synchronized, since
+ * the instance is shared.
+ *
+ * When the model can be exported to a FlatSvmModel that agrees with Weka bit for bit, the
+ * flat model is used instead, which doesn't allocate. */
+public class FallClassifier {
+    /** The name of the model in the application assets. */
+    public final static String MODEL_ASSET = "fallsvmmodel.model";
+
+    /** The most recorded feature vectors verified against, see readFeatureRows(). */
+    public final static int FIXTURE_LIMIT = 2000;
+
+    /** The outcome labels, in the order of the class attribute. */
+    public final static String NOT_FALL = "notfall", FALL = "fall";
+
+    private final Classifier model;
+    private final Instances header;
+    private final Instance instance;
+    private final int fallIndex;
+    private final double[] flatDistribution = new double[2]; // Scratch space for verification.
+    private FlatSvmModel flat; // Used instead of the Weka model when set.
+
+    /** Constructs a classifier around a trained model.
+     *
+     * @param model The model, trained on the FallFeatureExtractor features.
+     */
+    public FallClassifier(Classifier model) {
+        this.model = model;
+
+        ArrayList<Attribute> attributes = new ArrayList<>();
+        for (String label : FallFeatureExtractor.FEATURE_LABELS) attributes.add(new Attribute(label));
+        attributes.add(new Attribute("outcome", Arrays.asList(NOT_FALL, FALL)));
+        this.header = new Instances("fall_features", attributes, 0);
+        this.header.setClassIndex(attributes.size() - 1);
+        this.fallIndex = this.header.classAttribute().indexOfValue(FALL);
+
+        this.instance = new DenseInstance(attributes.size());
+        this.instance.setDataset(this.header);
+    }
+
+    /** Loads a fall model, such as the MODEL_ASSET of the application.
+     *
+     * @param is The serialized model; left open.
+     * @return The classifier.
+     * @throws Exception If the model can't be read or deserialized.
+     */
+    public static FallClassifier fromStream(InputStream is) throws Exception {
+        return new FallClassifier((Classifier) weka.core.SerializationHelper.read(is));
+    }
+
+    /** Loads a fall model from a file, such as one copied off the application assets.
+     *
+     * @param file The serialized model.
+     * @return The classifier.
+     * @throws Exception If the model can't be read or deserialized.
+     */
+    public static FallClassifier fromFile(File file) throws Exception {
+        InputStream is = new FileInputStream(file);
+        try { return fromStream(is);
+        } finally { is.close(); }
+    }
+
+    /** Classifies a feature vector.
+     *
+     * @param features The features, in the order of FallFeatureExtractor.FEATURE_LABELS.
+     * @return The index of the predicted outcome in the class attribute.
+     * @throws Exception If the model fails to evaluate the instance.
+     */
+    public synchronized int classify(double[] features) throws Exception {
+        if (this.flat != null) return this.flat.predict(features);
+        for (int i = 0; i < FallFeatureExtractor.FEATURE_LABELS.length; ++i) this.instance.setValue(i, features[i]);
+        this.instance.setClassMissing();
+        return (int) this.model.classifyInstance(this.instance);
+    }
+
+    /** Checks if a feature vector is classified as a fall.
+     *
+     * @param features The features, in the order of FallFeatureExtractor.FEATURE_LABELS.
+     * @return True if the predicted outcome is a fall.
+     * @throws Exception If the model fails to evaluate the instance.
+     */
+    public boolean isFall(double[] features) throws Exception {
+        return classify(features) == this.fallIndex;
+    }
+
+    /** Exports the model to a FlatSvmModel and uses it if it agrees with Weka on probe vectors.
+     *
+     * @return True if the flat model is in use.
+     */
+    public boolean enableFlatModel() { return enableFlatModel(new double[0][]); }
+
+    /** Exports the model to a FlatSvmModel and uses it if it agrees with Weka on probe vectors
+     * and on recorded ones, such as a fixed fixture read with readFeatureRows().
+     *
+     * @param recorded The recorded feature vectors, in the order of FallFeatureExtractor.FEATURE_LABELS.
+     * @return True if the flat model is in use.
+     */
+    public boolean enableFlatModel(double[][] recorded) {
+        FlatSvmModel candidate;
+        try { candidate = SvmModelExporter.export(this.model, FallFeatureExtractor.FEATURE_LABELS.length);
+        } catch (Exception e) {
+            Log.d("FallClassifier", "Using the Weka model, could not export: " + e.getMessage());
+            return false;
+        }
+
+        // Probe with random vectors over the range of the features (in g), then with recorded ones.
+        Random random = new Random(0x5eed);
+        double[][] probes = new double[256][FallFeatureExtractor.FEATURE_LABELS.length];
+        for (double[] probe : probes) for (int i = 0; i < probe.length; ++i) probe[i] = random.nextDouble() * 8.0;
+
+        try {
+            int disagreements = verifyFlat(candidate, probes) + verifyFlat(candidate, recorded);
+            if (disagreements > 0) {
+                Log.e("FallClassifier", "Flat model disagrees with Weka on " + disagreements + " vectors, not used.");
+                return false;
+            }
+        } catch (Exception e) {
+            Log.e("FallClassifier", "Could not verify flat model: " + e.getMessage());
+            return false;
+        }
+
+        synchronized (this) { this.flat = candidate; }
+        Log.d("FallClassifier", "Using flat model with " + candidate.getSupportVectorCount() + " support vectors.");
+        return true;
+    }
+
+    /** Counts the feature vectors on which a flat model doesn't give exactly the class
+     * distribution of the Weka model (compared bit for bit).
+     *
+     * @param candidate The flat model.
+     * @param rows The feature vectors, in the order of FallFeatureExtractor.FEATURE_LABELS.
+     * @return The number of disagreeing vectors.
+     * @throws Exception If the Weka model fails to evaluate a vector.
+     */
+    public synchronized int verifyFlat(FlatSvmModel candidate, double[][] rows) throws Exception {
+        int disagreements = 0;
+        for (double[] row : rows) {
+            for (int i = 0; i < FallFeatureExtractor.FEATURE_LABELS.length; ++i) this.instance.setValue(i, row[i]);
+            this.instance.setClassMissing();
+            double[] expected = this.model.distributionForInstance(this.instance);
+            candidate.distribution(row, this.flatDistribution);
+
+            for (int i = 0; i < expected.length; ++i) {
+                if (Double.doubleToLongBits(expected[i]) != Double.doubleToLongBits(this.flatDistribution[i])) {
+                    ++disagreements;
+                    break;
+                }
+            }
+        }
+        return disagreements;
+    }
+
+    /** Reads feature vectors from a file written by CSVSampleWriter.
+     *
+     * @param file The CSV file, with a header and the features in the first columns.
+     * @param limit The maximum number of vectors to read.
+     * @return The feature vectors.
+     * @throws IOException If the file can't be read.
+     */
+    public static double[][] readFeatureRows(File file, int limit) throws IOException {
+        return readFeatureRows(new FileReader(file), limit);
+    }
+
+    /** Reads feature vectors in the format written by CSVSampleWriter.
+     *
+     * @param source The CSV, with a header and the features in the first columns; closed when done.
+     * @param limit The maximum number of vectors to read.
+     * @return The feature vectors.
+     * @throws IOException If the CSV can't be read.
+     */
+    public static double[][] readFeatureRows(Reader source, int limit) throws IOException {
+        ArrayList<double[]> rows = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(source);
+        try {
+            String line = reader.readLine(); // Skip the header.
+            while (rows.size() < limit && (line = reader.readLine()) != null) {
+                String[] values = line.split(",");
+                if (values.length < FallFeatureExtractor.FEATURE_LABELS.length) continue;
+                double[] row = new double[FallFeatureExtractor.FEATURE_LABELS.length];
+                try { for (int i = 0; i < row.length; ++i) row[i] = Double.parseDouble(values[i]);
+                } catch (NumberFormatException e) { continue; } // Skip malformed rows.
+                rows.add(row);
+            }
+        } finally { reader.close(); }
+        return rows.toArray(new double[rows.size()][]);
+    }
+
+    /** Grabs the label of an outcome.
+     *
+     * @param outcome The index returned by classify().
+     * @return The outcome label.
+     */
+    public String getOutcomeLabel(int outcome) { return this.header.classAttribute().value(outcome); }
+
+    /** Grabs the trained model.
+     *
+     * @return The model.
+     */
+    public Classifier getModel() { return this.model; }
+}
@@ -0,0 +1,120 @@
+package reuiot2015.smartwatch.fall_detection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import reuiot2015.smartwatch.platform.Log;
+
+/** Turns the per window fall predictions into fall events.
+ *
+ * A fall is a run of consecutive fall predictions at least minRun long (the debounce) and
+ * at most maxRun long; a longer run is some other sustained activity. Listeners are told as
+ * soon as a run reaches minRun, and told again if the same run then grows past maxRun and
+ * the fall is cancelled. After a detection, new runs are ignored until the refractory period
+ * has passed, so one fall isn't reported twice. Predictions must be fed from one thread. */
+public class FallDetector {
+    /** The defaults of the rule the fall model was evaluated with: 2 to 5 predictions in a row. */
+    public final static int DEFAULT_MIN_RUN = 2, DEFAULT_MAX_RUN = 5;
+
+    private final int minRun, maxRun;
+    private final long refractoryMillis;
+
+    private volatile FallListener[] listeners = new FallListener[0];
+    private final Object listenerLock = new Object();
+
+    private int run; // Consecutive fall predictions.
+    private long runStart; // Window time of the first prediction of the run.
+    private FallEvent current; // The detected fall of the current run, if not cancelled.
+    private long refractoryUntil = Long.MIN_VALUE;
+
+    /** Constructs a detector with the default rule and no refractory period. */
+    public FallDetector() { this(DEFAULT_MIN_RUN, DEFAULT_MAX_RUN, 0); }
+
+    /** Constructs a detector.
+     *
+     * @param minRun The number of fall predictions in a row needed to detect a fall.
+     * @param maxRun The longest run still considered a fall.
+     * @param refractoryMillis How long after a detection new falls are ignored, in milliseconds.
+     */
+    public FallDetector(int minRun, int maxRun, long refractoryMillis) {
+        this.minRun = Math.max(1, minRun);
+        this.maxRun = Math.max(this.minRun, maxRun);
+        this.refractoryMillis = Math.max(0, refractoryMillis);
+    }
+
+    /** Feeds the prediction of the next window. Both times must be on the same clock, the
+     * wall clock on the device or the session clock of a recording, for the latency of the
+     * falls to mean anything.
+     *
+     * @param fall True if the window was predicted as a fall.
+     * @param windowTime The time of the newest sample of the window, in milliseconds.
+     * @param detectionTime The time the prediction was made, in milliseconds.
+     */
+    public void update(boolean fall, long windowTime, long detectionTime) {
+        if (!fall) {
+            this.run = 0;
+            this.current = null; // The run ended, a detected fall stands.
+            return;
+        }
+
+        if (this.run++ == 0) this.runStart = windowTime;
+
+        if (this.run == this.minRun && windowTime >= this.refractoryUntil) {
+            this.current = new FallEvent(this.runStart, detectionTime, this.run);
+            this.refractoryUntil = windowTime + this.refractoryMillis;
+            Log.d("FallDetector", "Fall detected: " + this.current);
+            for (FallListener l : this.listeners) l.onFallDetected(this.current);
+        } else if (this.run == this.maxRun + 1 && this.current != null) {
+            Log.d("FallDetector", "Fall cancelled, " + this.run + " predictions in a row.");
+            for (FallListener l : this.listeners) l.onFallCancelled(this.current);
+            this.current = null;
+            this.refractoryUntil = Long.MIN_VALUE; // The fall didn't count.
+        }
+    }
+
+    /** Clears the run and the refractory period. */
+    public void reset() {
+        this.run = 0;
+        this.current = null;
+        this.refractoryUntil = Long.MIN_VALUE;
+    }
+
+    /** Adds a new FallListener to the detector.
+     *
+     * @param fallListener The FallListener to add.
+     */
+    public void addListener(FallListener fallListener) {
+        synchronized (this.listenerLock) {
+            if (fallListener == null || Arrays.asList(this.listeners).contains(fallListener)) return;
+            FallListener[] updated = Arrays.copyOf(this.listeners, this.listeners.length + 1);
+            updated[updated.length - 1] = fallListener;
+            this.listeners = updated;
+        }
+    }
+
+    /** Removes a FallListener from the detector.
+     *
+     * @param fallListener The FallListener to remove.
+     */
+    public void removeListener(FallListener fallListener) {
+        synchronized (this.listenerLock) {
+            ArrayList<FallListener> updated = new ArrayList<>(Arrays.asList(this.listeners));
+            if (updated.remove(fallListener)) this.listeners = updated.toArray(new FallListener[updated.size()]);
+        }
+    }
+
+    /** An interface for receiving falls from a FallDetector. */
+    public interface FallListener {
+        /** Called as soon as a run of fall predictions is long enough.
+         *
+         * @param event The fall.
+         */
+        void onFallDetected(FallEvent event);
+
+        /** Called when the run of a detected fall grows too long to be a fall.
+         *
+         * @param event The fall that was detected.
+         */
+        void onFallCancelled(FallEvent event);
+    }
+}
@@ -0,0 +1,49 @@
+package reuiot2015.smartwatch.fall_detection;
+
+/** A fall found by a FallDetector. */
+public class FallEvent {
+    private final long impactTime;
+    private final long detectionTime;
+    private final int runLength;
+
+    /** Constructs a fall event.
+     *
+     * @param impactTime The time of the first window predicted as a fall, in milliseconds.
+     * @param detectionTime The time the fall was detected, in milliseconds.
+     * @param runLength The number of consecutive fall predictions so far.
+     */
+    public FallEvent(long impactTime, long detectionTime, int runLength) {
+        this.impactTime = impactTime;
+        this.detectionTime = detectionTime;
+        this.runLength = runLength;
+    }
+
+    /** Grabs the time of the impact.
+     *
+     * @return The timestamp of the first window predicted as a fall, in milliseconds.
+     */
+    public long getImpactTime() { return this.impactTime; }
+
+    /** Grabs the time the fall was detected.
+     *
+     * @return The timestamp of the detection, in milliseconds.
+     */
+    public long getDetectionTime() { return this.detectionTime; }
+
+    /** Grabs how long it took to detect the fall.
+     *
+     * @return The time from the impact to the detection, in milliseconds.
+     */
+    public long getLatencyMillis() { return this.detectionTime - this.impactTime; }
+
+    /** Grabs the number of consecutive fall predictions when the event was sent.
+     *
+     * @return The run length.
+     */
+    public int getRunLength() { return this.runLength; }
+
+    @Override
+    public String toString() {
+        return "FallEvent(impact=" + this.impactTime + ", latency=" + getLatencyMillis() + " ms, run=" + this.runLength + ")";
+    }
+}
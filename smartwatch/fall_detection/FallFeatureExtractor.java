@@ -0,0 +1,132 @@
+package reuiot2015.smartwatch.fall_detection;
+
+import reuiot2015.smartwatch.sensors.WindowAggregator;
+import reuiot2015.smartwatch.sensors.WindowAggregators;
+
+/** Computes the fall detection features over a sliding window of accelerometer samples.
+ *
+ * The features are those the fall model was trained on, for a window of n samples:
+ * resultant, the magnitude of the oldest sample in the window; cvfast, the magnitude of
+ * the per axis range (max - min) over the window; smax and smin, the largest and smallest
+ * sample magnitude in the window. Every extreme is kept in a monotonic deque, so adding a
+ * sample costs O(1) amortized for any window size, and nothing is allocated.
+ *
+ * Not thread safe, feed it from one thread. */
+public class FallFeatureExtractor {
+    /** The window size the fall model was trained with. */
+    public final static int DEFAULT_WINDOW_SIZE = 3;
+
+    /** The names of the features, in the order of getFeatures(). */
+    public final static String[] FEATURE_LABELS = { "resultant", "cvfast", "smax", "smin" };
+
+    private final int windowSize;
+    private final WindowAggregator[] minimums = new WindowAggregator[4]; // x, y, z, magnitude.
+    private final WindowAggregator[] maximums = new WindowAggregator[4];
+    private final double[] window; // Ring of x, y, z and magnitude of each sample in the window.
+    private long count; // Number of samples added, also the sequence of the next sample.
+
+    /** Constructs an extractor with the window size of the fall model. */
+    public FallFeatureExtractor() { this(DEFAULT_WINDOW_SIZE); }
+
+    /** Constructs an extractor.
+     *
+     * @param windowSize The number of samples in the window.
+     */
+    public FallFeatureExtractor(int windowSize) {
+        this.windowSize = (windowSize <= 1) ? 1 : windowSize;
+        this.window = new double[4 * this.windowSize];
+        for (int i = 0; i < 4; ++i) {
+            this.minimums[i] = WindowAggregators.min();
+            this.maximums[i] = WindowAggregators.max();
+        }
+        reset();
+    }
+
+    /** Clears the window. */
+    public void reset() {
+        for (int i = 0; i < 4; ++i) {
+            this.minimums[i].reset(this.windowSize);
+            this.maximums[i].reset(this.windowSize);
+        }
+        this.count = 0;
+    }
+
+    /** Adds an accelerometer sample, sliding the window.
+     *
+     * @param x The acceleration on the x axis.
+     * @param y The acceleration on the y axis.
+     * @param z The acceleration on the z axis.
+     * @return True if the window is full and the features are ready.
+     */
+    public boolean add(double x, double y, double z) {
+        int slot = 4 * (int) (this.count % this.windowSize);
+
+        // Evict the oldest sample once the window is full, it shares the slot of the new one.
+        if (this.count >= this.windowSize) {
+            long evicted = this.count - this.windowSize;
+            for (int i = 0; i < 4; ++i) {
+                this.minimums[i].onEvict(evicted, this.window[slot + i]);
+                this.maximums[i].onEvict(evicted, this.window[slot + i]);
+            }
+        }
+
+        this.window[slot] = x;
+        this.window[slot + 1] = y;
+        this.window[slot + 2] = z;
+        this.window[slot + 3] = resultant(x, y, z);
+        for (int i = 0; i < 4; ++i) {
+            this.minimums[i].onAdd(this.count, this.window[slot + i]);
+            this.maximums[i].onAdd(this.count, this.window[slot + i]);
+        }
+        ++this.count;
+        return isReady();
+    }
+
+    /** @return True if the window is full and the features are ready. */
+    public boolean isReady() { return this.count >= this.windowSize; }
+
+    /** @return The number of samples in the window. */
+    public int getWindowSize() { return this.windowSize; }
+
+    /** @return The magnitude of the oldest sample in the window. */
+    public double getResultant() {
+        if (this.count == 0) return Double.NaN;
+        long oldest = Math.max(0, this.count - this.windowSize);
+        return this.window[4 * (int) (oldest % this.windowSize) + 3];
+    }
+
+    /** @return The magnitude of the range of each axis over the window. */
+    public double getCvFast() {
+        double dx = range(0), dy = range(1), dz = range(2);
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    /** @return The largest sample magnitude in the window. */
+    public double getSmax() { return this.maximums[3].get(); }
+
+    /** @return The smallest sample magnitude in the window. */
+    public double getSmin() { return this.minimums[3].get(); }
+
+    private double range(int lane) { return this.maximums[lane].get() - this.minimums[lane].get(); }
+
+    /** Copies the features, in the order of FEATURE_LABELS.
+     *
+     * @param features The array to fill, at least FEATURE_LABELS.length long.
+     * @return The features array.
+     */
+    public double[] getFeatures(double[] features) {
+        features[0] = getResultant();
+        features[1] = getCvFast();
+        features[2] = getSmax();
+        features[3] = getSmin();
+        return features;
+    }
+
+    /** Calculates the magnitude of an acceleration.
+     *
+     * @return The square root of the sum of the squared axes.
+     */
+    public static double resultant(double x, double y, double z) {
+        return Math.sqrt((x * x) + (y * y) + (z * z));
+    }
+}
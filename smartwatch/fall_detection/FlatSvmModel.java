@@ -0,0 +1,290 @@
+package reuiot2015.smartwatch.fall_detection;
+
+/** A libsvm classification model held in flat primitive arrays, with an evaluator that
+ * doesn't allocate.
+ *
+ * The evaluator follows the arithmetic of libsvm (svm_predict and svm_predict_probability)
+ * and of the Weka LibSVM wrapper (Normalize scaling, class distribution) operation for
+ * operation, so it gives the same bits as Weka. Support vectors are stored dense; the zero
+ * entries libsvm leaves out only ever add zero to its sums. Use SvmModelExporter to create
+ * one from a trained Weka model, and FallClassifier.verifyFlat() to check the agreement.
+ *
+ * Evaluation uses shared scratch arrays, so it is synchronized. */
+public final class FlatSvmModel {
+    // libsvm constants.
+    final static int C_SVC = 0, NU_SVC = 1;
+    final static int LINEAR = 0, POLY = 1, RBF = 2, SIGMOID = 3;
+
+    private final int kernelType;
+    private final int degree;
+    private final double gamma, coef0;
+
+    private final int classes; // Number of classes (nr_class).
+    private final int vectors; // Number of support vectors (l).
+    private final int dimension; // Entries per support vector, feature i is libsvm index i + 1.
+    private final double[] supportVectors; // vectors * dimension, row major.
+    private final double[] coefficients; // (classes - 1) * vectors, row major (sv_coef).
+    private final double[] rho; // One per class pair.
+    private final int[] labels; // libsvm label of each class, the Weka class index.
+    private final int[] counts; // Support vectors of each class (nSV).
+    private final int[] starts; // First support vector of each class.
+    private final double[] probA, probB; // Null without probability estimates.
+
+    // Normalize filter of the Weka wrapper, null if the features aren't scaled.
+    private final double[] minimums, maximums;
+    private final double scale, translation;
+
+    // Scratch space for one evaluation.
+    private final double[] x, kernel, decisions, probabilities;
+    private final int[] votes;
+    private final double[][] pairwise, q;
+    private final double[] qp;
+
+    /** Constructs a flat model. Arrays are used as given; see SvmModelExporter.
+     *
+     * @param kernelType The libsvm kernel type (LINEAR, POLY, RBF or SIGMOID).
+     * @param degree The degree of the POLY kernel.
+     * @param gamma The gamma of the kernel.
+     * @param coef0 The coef0 of the kernel.
+     * @param classes The number of classes.
+     * @param dimension The number of features.
+     * @param supportVectors The dense support vectors, row major.
+     * @param coefficients The support vector coefficients, row major.
+     * @param rho The decision function offsets, one per class pair.
+     * @param labels The label of each class.
+     * @param counts The number of support vectors of each class.
+     * @param probA The sigmoid A of each class pair, or null.
+     * @param probB The sigmoid B of each class pair, or null.
+     * @param minimums The Normalize minimum of each feature, or null if not normalized.
+     * @param maximums The Normalize maximum of each feature, or null if not normalized.
+     * @param scale The Normalize scale.
+     * @param translation The Normalize translation.
+     */
+    FlatSvmModel(int kernelType, int degree, double gamma, double coef0,
+                 int classes, int dimension, double[] supportVectors, double[] coefficients,
+                 double[] rho, int[] labels, int[] counts, double[] probA, double[] probB,
+                 double[] minimums, double[] maximums, double scale, double translation) {
+        this.kernelType = kernelType;
+        this.degree = degree;
+        this.gamma = gamma;
+        this.coef0 = coef0;
+        this.classes = classes;
+        this.dimension = dimension;
+        this.vectors = supportVectors.length / dimension;
+        this.supportVectors = supportVectors;
+        this.coefficients = coefficients;
+        this.rho = rho;
+        this.labels = labels;
+        this.counts = counts;
+        this.starts = new int[classes];
+        for (int i = 1; i < classes; ++i) this.starts[i] = this.starts[i - 1] + counts[i - 1];
+        this.probA = probA;
+        this.probB = probB;
+        this.minimums = minimums;
+        this.maximums = maximums;
+        this.scale = scale;
+        this.translation = translation;
+
+        this.x = new double[dimension];
+        this.kernel = new double[this.vectors];
+        this.decisions = new double[classes * (classes - 1) / 2];
+        this.probabilities = new double[classes];
+        this.votes = new int[classes];
+        this.pairwise = new double[classes][classes];
+        this.q = new double[classes][classes];
+        this.qp = new double[classes];
+    }
+
+    /** @return The number of classes. */
+    public int getClassCount() { return this.classes; }
+
+    /** @return The number of features. */
+    public int getDimension() { return this.dimension; }
+
+    /** @return The number of support vectors. */
+    public int getSupportVectorCount() { return this.vectors; }
+
+    /** @return True if the model predicts with probability estimates, like Weka's -B option. */
+    public boolean hasProbabilities() { return this.probA != null && this.probB != null; }
+
+    /** Predicts the class of a feature vector.
+     *
+     * @param features The raw (unscaled) features, at least getDimension() long.
+     * @return The predicted class index.
+     */
+    public synchronized int predict(double[] features) {
+        scale(features);
+        return hasProbabilities() ? predictProbability() : predictValues();
+    }
+
+    /** Computes the class distribution the way the Weka LibSVM wrapper does: the probability
+     * estimates if the model has them, otherwise 1 for the predicted class and 0 elsewhere.
+     *
+     * @param features The raw (unscaled) features, at least getDimension() long.
+     * @param distribution The array to fill, one entry per class.
+     * @return The distribution array.
+     */
+    public synchronized double[] distribution(double[] features, double[] distribution) {
+        scale(features);
+        for (int i = 0; i < distribution.length; ++i) distribution[i] = 0;
+        if (hasProbabilities()) {
+            predictProbability();
+            for (int i = 0; i < this.classes; ++i) distribution[this.labels[i]] = this.probabilities[i];
+        } else distribution[predictValues()] = 1;
+        return distribution;
+    }
+
+    /** Applies the Normalize filter into the scratch vector (weka.filters.unsupervised.attribute.Normalize). */
+    private void scale(double[] features) {
+        for (int i = 0; i < this.dimension; ++i) {
+            double value = features[i];
+            if (this.minimums != null) {
+                if (Double.isNaN(this.minimums[i]) || this.maximums[i] == this.minimums[i]) value = 0;
+                else value = (value - this.minimums[i]) / (this.maximums[i] - this.minimums[i]) * this.scale + this.translation;
+            }
+            this.x[i] = value;
+        }
+    }
+
+    /** libsvm svm_predict_values() for classification, on the scratch vector. */
+    private int predictValues() {
+        for (int i = 0; i < this.vectors; ++i) this.kernel[i] = kernel(i);
+        for (int i = 0; i < this.classes; ++i) this.votes[i] = 0;
+
+        int p = 0;
+        for (int i = 0; i < this.classes; ++i) {
+            for (int j = i + 1; j < this.classes; ++j) {
+                double sum = 0;
+                int si = this.starts[i], sj = this.starts[j];
+                int ci = this.counts[i], cj = this.counts[j];
+                int coef1 = (j - 1) * this.vectors, coef2 = i * this.vectors;
+                for (int k = 0; k < ci; ++k) sum += this.coefficients[coef1 + si + k] * this.kernel[si + k];
+                for (int k = 0; k < cj; ++k) sum += this.coefficients[coef2 + sj + k] * this.kernel[sj + k];
+                sum -= this.rho[p];
+                this.decisions[p] = sum;
+
+                if (this.decisions[p] > 0) ++this.votes[i];
+                else ++this.votes[j];
+                ++p;
+            }
+        }
+
+        int best = 0;
+        for (int i = 1; i < this.classes; ++i) if (this.votes[i] > this.votes[best]) best = i;
+        return this.labels[best];
+    }
+
+    /** libsvm svm_predict_probability() for classification, on the scratch vector. */
+    private int predictProbability() {
+        predictValues();
+
+        double minimum = 1e-7;
+        int k = 0;
+        for (int i = 0; i < this.classes; ++i) {
+            for (int j = i + 1; j < this.classes; ++j) {
+                this.pairwise[i][j] = Math.min(Math.max(sigmoid(this.decisions[k], this.probA[k], this.probB[k]), minimum), 1 - minimum);
+                this.pairwise[j][i] = 1 - this.pairwise[i][j];
+                ++k;
+            }
+        }
+        if (this.classes == 2) {
+            this.probabilities[0] = this.pairwise[0][1];
+            this.probabilities[1] = this.pairwise[1][0];
+        } else multiclassProbability();
+
+        int best = 0;
+        for (int i = 1; i < this.classes; ++i) if (this.probabilities[i] > this.probabilities[best]) best = i;
+        return this.labels[best];
+    }
+
+    /** libsvm sigmoid_predict(). */
+    private static double sigmoid(double decision, double a, double b) {
+        double fApB = decision * a + b;
+        if (fApB >= 0) return Math.exp(-fApB) / (1.0 + Math.exp(-fApB));
+        else return 1.0 / (1 + Math.exp(fApB));
+    }
+
+    /** libsvm multiclass_probability(), from the pairwise into the class probabilities. */
+    private void multiclassProbability() {
+        int k = this.classes, maxIterations = Math.max(100, k);
+        double[][] r = this.pairwise, q = this.q;
+        double[] p = this.probabilities, qp = this.qp;
+        double eps = 0.005 / k;
+
+        for (int t = 0; t < k; ++t) {
+            p[t] = 1.0 / k;
+            q[t][t] = 0;
+            for (int j = 0; j < t; ++j) {
+                q[t][t] += r[j][t] * r[j][t];
+                q[t][j] = q[j][t];
+            }
+            for (int j = t + 1; j < k; ++j) {
+                q[t][t] += r[j][t] * r[j][t];
+                q[t][j] = -r[j][t] * r[t][j];
+            }
+        }
+
+        for (int iteration = 0; iteration < maxIterations; ++iteration) {
+            double pQp = 0;
+            for (int t = 0; t < k; ++t) {
+                qp[t] = 0;
+                for (int j = 0; j < k; ++j) qp[t] += q[t][j] * p[j];
+                pQp += p[t] * qp[t];
+            }
+            double maxError = 0;
+            for (int t = 0; t < k; ++t) {
+                double error = Math.abs(qp[t] - pQp);
+                if (error > maxError) maxError = error;
+            }
+            if (maxError < eps) break;
+
+            for (int t = 0; t < k; ++t) {
+                double diff = (-qp[t] + pQp) / q[t][t];
+                p[t] += diff;
+                pQp = (pQp + diff * (diff * q[t][t] + 2 * qp[t])) / (1 + diff) / (1 + diff);
+                for (int j = 0; j < k; ++j) {
+                    qp[j] = (qp[j] + diff * q[t][j]) / (1 + diff);
+                    p[j] /= (1 + diff);
+                }
+            }
+        }
+    }
+
+    /** libsvm Kernel.k_function() between the scratch vector and a support vector. */
+    private double kernel(int vector) {
+        int offset = vector * this.dimension;
+        switch (this.kernelType) {
+            case LINEAR:
+                return dot(offset);
+            case POLY:
+                return power(this.gamma * dot(offset) + this.coef0, this.degree);
+            case RBF:
+                double sum = 0;
+                for (int i = 0; i < this.dimension; ++i) {
+                    double d = this.x[i] - this.supportVectors[offset + i];
+                    sum += d * d;
+                }
+                return Math.exp(-this.gamma * sum);
+            case SIGMOID:
+                return Math.tanh(this.gamma * dot(offset) + this.coef0);
+            default:
+                return 0; // Rejected by the exporter.
+        }
+    }
+
+    private double dot(int offset) {
+        double sum = 0;
+        for (int i = 0; i < this.dimension; ++i) sum += this.x[i] * this.supportVectors[offset + i];
+        return sum;
+    }
+
+    /** libsvm powi(). */
+    private static double power(double base, int times) {
+        double tmp = base, ret = 1.0;
+        for (int t = times; t > 0; t /= 2) {
+            if (t % 2 == 1) ret *= tmp;
+            tmp = tmp * tmp;
+        }
+        return ret;
+    }
+}
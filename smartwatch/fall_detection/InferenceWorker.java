@@ -0,0 +1,166 @@
+package reuiot2015.smartwatch.fall_detection;
+
+import reuiot2015.smartwatch.metrics.Histogram;
+import reuiot2015.smartwatch.metrics.LatencyTrace;
+import reuiot2015.smartwatch.platform.Log;
+
+/** Classifies fall feature vectors on its own thread, fed by a bounded queue.
+ *
+ * Submitting copies the vector into a preallocated slot and never blocks. When the queue
+ * is full the oldest vector is dropped, since a decision on a stale window is worth less
+ * than one on the latest. The time from submitting a vector to its decision is recorded in
+ * a latency histogram, in nanoseconds. Each vector can carry the time its newest sample
+ * originated at, which is handed to the listener with the decision for end to end tracing. */
+public class InferenceWorker extends Thread {
+    private final FallClassifier classifier;
+    private final DecisionListener listener;
+
+    // Ring of feature vectors waiting to be classified, guarded by the queue lock.
+    private final double[][] queue;
+    private final long[] submitTimes, windowTimes, originTimes;
+    private int head, size;
+    private final Object queueLock = new Object();
+
+    private final Histogram latency = Histogram.latencyNanos();
+    private long submitted, dropped, failed;
+
+    private LatencyTrace trace; // Set before starting, see setTrace().
+    private int queueStage, classifyStage;
+
+    /** Constructs an inference worker; call start() to begin classifying.
+     *
+     * @param classifier The fall classifier.
+     * @param listener The listener to send each decision to.
+     * @param capacity The number of vectors that can wait to be classified.
+     */
+    public InferenceWorker(FallClassifier classifier, DecisionListener listener, int capacity) {
+        super("InferenceWorker");
+        this.classifier = classifier;
+        this.listener = listener;
+        this.queue = new double[Math.max(1, capacity)][FallFeatureExtractor.FEATURE_LABELS.length];
+        this.submitTimes = new long[this.queue.length];
+        this.windowTimes = new long[this.queue.length];
+        this.originTimes = new long[this.queue.length];
+        setDaemon(true);
+    }
+
+    /** Records the time vectors wait in the queue and the time to classify them in a trace.
+     * Call before start().
+     *
+     * @param trace The trace.
+     * @param queueStage The stage of the time waiting in the queue.
+     * @param classifyStage The stage of the time classifying.
+     */
+    void setTrace(LatencyTrace trace, int queueStage, int classifyStage) {
+        this.trace = trace;
+        this.queueStage = queueStage;
+        this.classifyStage = classifyStage;
+    }
+
+    /** Queues a feature vector to be classified.
+     *
+     * @param features The features, in the order of FallFeatureExtractor.FEATURE_LABELS; copied.
+     * @param windowTime The timestamp of the newest sample in the window, in milliseconds.
+     */
+    public void submit(double[] features, long windowTime) {
+        submit(features, windowTime, 0);
+    }
+
+    /** Queues a feature vector to be classified, with the time its newest sample originated.
+     *
+     * @param features The features, in the order of FallFeatureExtractor.FEATURE_LABELS; copied.
+     * @param windowTime The timestamp of the newest sample in the window, in milliseconds.
+     * @param originNanos When the newest sample originated on the System.nanoTime() clock, or 0.
+     */
+    public void submit(double[] features, long windowTime, long originNanos) {
+        synchronized (this.queueLock) {
+            ++this.submitted;
+            if (this.size == this.queue.length) { // Make room by dropping the stalest vector.
+                this.head = (this.head + 1) % this.queue.length;
+                --this.size;
+                ++this.dropped;
+            }
+            int tail = (this.head + this.size++) % this.queue.length;
+            System.arraycopy(features, 0, this.queue[tail], 0, this.queue[tail].length);
+            this.submitTimes[tail] = System.nanoTime();
+            this.windowTimes[tail] = windowTime;
+            this.originTimes[tail] = originNanos;
+            this.queueLock.notifyAll();
+        }
+    }
+
+    @Override
+    public void run() {
+        double[] features = new double[FallFeatureExtractor.FEATURE_LABELS.length];
+        while (!Thread.interrupted()) {
+            long submitTime, windowTime, originTime;
+            synchronized (this.queueLock) {
+                while (this.size == 0) {
+                    try { this.queueLock.wait();
+                    } catch (InterruptedException e) { return; } // Stopped while waiting.
+                }
+                System.arraycopy(this.queue[this.head], 0, features, 0, features.length);
+                submitTime = this.submitTimes[this.head];
+                windowTime = this.windowTimes[this.head];
+                originTime = this.originTimes[this.head];
+                this.head = (this.head + 1) % this.queue.length;
+                --this.size;
+            }
+
+            long dequeued = System.nanoTime();
+            boolean fall;
+            try { fall = this.classifier.isFall(features);
+            } catch (Exception e) {
+                synchronized (this.queueLock) { ++this.failed; }
+                Log.e("InferenceWorker", "Could not classify: " + e.getMessage());
+                continue;
+            }
+
+            long decided = System.nanoTime(), elapsed = decided - submitTime;
+            this.latency.record(elapsed);
+            if (this.trace != null) {
+                this.trace.record(this.queueStage, dequeued - submitTime);
+                this.trace.record(this.classifyStage, decided - dequeued);
+            }
+            if (this.listener != null) this.listener.onDecision(features, fall, windowTime, originTime, elapsed);
+        }
+    }
+
+    /** Stops the worker, discarding vectors that are still queued. */
+    public void shutdown() {
+        interrupt();
+        try { join();
+        } catch (InterruptedException e) { /** Nothing to do here. */ }
+    }
+
+    /** Grabs the submit to decision latency.
+     *
+     * @return A snapshot of the latency histogram, in nanoseconds.
+     */
+    public Histogram getLatency() { return this.latency.snapshot(); }
+
+    /** @return The number of vectors submitted. */
+    public long getSubmitted() { synchronized (this.queueLock) { return this.submitted; } }
+
+    /** @return The number of vectors dropped because the queue was full. */
+    public long getDropped() { synchronized (this.queueLock) { return this.dropped; } }
+
+    /** @return The number of vectors the classifier failed on. */
+    public long getFailed() { synchronized (this.queueLock) { return this.failed; } }
+
+    /** @return The number of vectors waiting to be classified. */
+    public int getPending() { synchronized (this.queueLock) { return this.size; } }
+
+    /** An interface for receiving the decisions of an InferenceWorker. */
+    public interface DecisionListener {
+        /** Called from the worker thread with each decision.
+         *
+         * @param features The classified features; only valid during this call.
+         * @param fall True if the features were classified as a fall.
+         * @param windowTime The timestamp of the window the features were extracted from.
+         * @param originNanos When the newest sample of the window originated, as submitted, or 0.
+         * @param latencyNanos The time from submitting the features to the decision.
+         */
+        void onDecision(double[] features, boolean fall, long windowTime, long originNanos, long latencyNanos);
+    }
+}
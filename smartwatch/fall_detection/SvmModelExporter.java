@@ -0,0 +1,113 @@
+package reuiot2015.smartwatch.fall_detection;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+
+import weka.classifiers.Classifier;
+
+/** Exports a trained Weka LibSVM classifier to a FlatSvmModel.
+ *
+ * The Weka wrapper keeps the libsvm model as an untyped object and libsvm keeps its fields
+ * public, so both are read by reflection, by the field names of Weka's LibSVM and of libsvm
+ * (svm_model, svm_parameter, svm_node). Only C_SVC and NU_SVC models with the LINEAR, POLY,
+ * RBF or SIGMOID kernel, and no filter other than Normalize, can be exported. */
+public final class SvmModelExporter {
+    private SvmModelExporter() { }
+
+    /** Exports a Weka LibSVM classifier.
+     *
+     * @param classifier The trained weka.classifiers.functions.LibSVM.
+     * @param dimension The number of features, the attributes before the class attribute.
+     * @return The flat model.
+     * @throws Exception If the classifier is not a supported LibSVM model.
+     */
+    public static FlatSvmModel export(Classifier classifier, int dimension) throws Exception {
+        Object model = get(classifier, "m_Model");
+        if (model == null) throw new IllegalArgumentException("Not a trained LibSVM classifier.");
+
+        Object param = get(model, "param");
+        int svmType = getInt(param, "svm_type");
+        if (svmType != FlatSvmModel.C_SVC && svmType != FlatSvmModel.NU_SVC)
+            throw new IllegalArgumentException("Unsupported svm type " + svmType + ".");
+        int kernelType = getInt(param, "kernel_type");
+        if (kernelType < FlatSvmModel.LINEAR || kernelType > FlatSvmModel.SIGMOID)
+            throw new IllegalArgumentException("Unsupported kernel type " + kernelType + ".");
+
+        int classes = getInt(model, "nr_class");
+        int vectors = getInt(model, "l");
+
+        // Support vectors are sparse svm_node rows, indexed from 1.
+        Object rows = get(model, "SV");
+        double[] supportVectors = new double[vectors * dimension];
+        for (int i = 0; i < vectors; ++i) {
+            Object row = Array.get(rows, i);
+            for (int j = 0; j < Array.getLength(row); ++j) {
+                Object node = Array.get(row, j);
+                int index = getInt(node, "index") - 1;
+                if (index < 0 || index >= dimension)
+                    throw new IllegalArgumentException("Support vector index " + (index + 1) + " out of range.");
+                supportVectors[i * dimension + index] = field(node, "value").getDouble(node);
+            }
+        }
+
+        double[][] svCoef = (double[][]) get(model, "sv_coef");
+        double[] coefficients = new double[(classes - 1) * vectors];
+        for (int i = 0; i < classes - 1; ++i) System.arraycopy(svCoef[i], 0, coefficients, i * vectors, vectors);
+
+        // Probability estimates are only used by Weka when it was trained with them (-B).
+        double[] probA = null, probB = null;
+        if (getBoolean(classifier, "m_ProbabilityEstimates")) {
+            probA = (double[]) get(model, "probA");
+            probB = (double[]) get(model, "probB");
+        }
+
+        // The Weka wrapper scales the features first when it was trained with -Z.
+        double[] minimums = null, maximums = null;
+        double scale = 1.0, translation = 0.0;
+        Object filter = get(classifier, "m_Filter");
+        if (filter != null) {
+            if (!filter.getClass().getName().endsWith(".Normalize"))
+                throw new IllegalArgumentException("Unsupported filter " + filter.getClass().getName() + ".");
+            minimums = (double[]) get(filter, "m_MinArray");
+            maximums = (double[]) get(filter, "m_MaxArray");
+            if (field(filter, "m_Scale") != null) scale = field(filter, "m_Scale").getDouble(filter);
+            if (field(filter, "m_Translation") != null) translation = field(filter, "m_Translation").getDouble(filter);
+        }
+
+        return new FlatSvmModel(kernelType, getInt(param, "degree"),
+                field(param, "gamma").getDouble(param), field(param, "coef0").getDouble(param),
+                classes, dimension, supportVectors, coefficients,
+                ((double[]) get(model, "rho")).clone(), ((int[]) get(model, "label")).clone(),
+                ((int[]) get(model, "nSV")).clone(), probA, probB, minimums, maximums, scale, translation);
+    }
+
+    /** Finds a field in a class or its superclasses.
+     *
+     * @return The accessible field, or null if there is none.
+     */
+    private static Field field(Object target, String name) {
+        for (Class<?> c = target.getClass(); c != null; c = c.getSuperclass()) {
+            try {
+                Field f = c.getDeclaredField(name);
+                f.setAccessible(true);
+                return f;
+            } catch (NoSuchFieldException e) { /** Nothing to do here. */ }
+        }
+        return null;
+    }
+
+    private static Object get(Object target, String name) throws Exception {
+        Field f = field(target, name);
+        if (f == null) throw new NoSuchFieldException(target.getClass().getName() + "." + name);
+        return f.get(target);
+    }
+
+    private static int getInt(Object target, String name) throws Exception {
+        return ((Number) get(target, name)).intValue();
+    }
+
+    private static boolean getBoolean(Object target, String name) throws Exception {
+        Field f = field(target, name);
+        return f != null && f.getBoolean(target);
+    }
+}
@@ -0,0 +1,222 @@
+package reuiot2015.smartwatch.headless;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import reuiot2015.smartwatch.fall_detection.FallClassifier;
+import reuiot2015.smartwatch.fall_detection.FallFeatureExtractor;
+import reuiot2015.smartwatch.platform.Log;
+import reuiot2015.smartwatch.sensors_persistence.SegmentLog;
+import reuiot2015.smartwatch.sensors_persistence.SmartWatchValues;
+import reuiot2015.smartwatch.sensors_replay.CsvReplaySource;
+import reuiot2015.smartwatch.sensors_replay.ReplaySource;
+import reuiot2015.smartwatch.sensors_replay.SegmentReplaySource;
+
+/** Scores recorded sessions on a plain JVM, as fast as the CPU allows.
+ *
+ * Usage: SessionRunner [options] session...
+ *
+ * A session is a CSV file (see CsvReplaySource) or the segments of a SegmentLogWriter log; a
+ * directory stands for every CSV file and log in it. The sessions are spread over worker
+ * threads, each with its own SessionScorer and copy of the model, and one CSV line per
+ * session is printed to the standard output (see SessionScorer.SessionResult.HEADER).
+ *
+ * Options:
+ *   --model file     The serialized fall model; without it, only the features are extracted.
+ *   --fixture file   Feature vectors to verify the flat model against, besides random probes,
+ *                    such as the fall features CSV written by the service.
+ *   --out dir        The directory to write the features and falls to (default "scored").
+ *   --rate hz        The rate to collect frames at (default 4, as the service).
+ *   --period ms      The time between the rows of CSV files without timestamps (default 250).
+ *   --window n       The number of samples per feature window (default 3).
+ *   --threads n      The number of sessions scored at once (default one per processor).
+ *   --verbose        Log the debug messages of the pipeline, not only the errors. */
+public class SessionRunner {
+    private File model, fixture;
+    private double[][] fixtureRows = new double[0][];
+    private File output = new File("scored");
+    private float sampleRate = 4f;
+    private long periodMillis = 250;
+    private int windowSize = FallFeatureExtractor.DEFAULT_WINDOW_SIZE;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private final ArrayList<File> inputs = new ArrayList<>();
+
+    public static void main(String[] args) {
+        SessionRunner runner = new SessionRunner();
+        try { runner.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: SessionRunner [--model file] [--fixture file] [--out dir] [--rate hz] [--period ms] [--window n] [--threads n] [--verbose] session...");
+            System.exit(2);
+        }
+        System.exit(runner.run() ? 0 : 1);
+    }
+
+    /** Reads the options and sessions from the command line. */
+    private void parse(String[] args) {
+        Log.setSink(Log.ERRORS);
+        for (int i = 0; i < args.length; ++i) {
+            String arg = args[i];
+            if (arg.equals("--verbose")) { Log.setSink(Log.CONSOLE); continue; }
+            if (!arg.startsWith("--")) { this.inputs.add(new File(arg)); continue; }
+            if (i + 1 == args.length) throw new IllegalArgumentException("Missing value of " + arg + ".");
+
+            String value = args[++i];
+            try {
+                switch (arg) {
+                    case "--model": this.model = new File(value); break;
+                    case "--fixture": this.fixture = new File(value); break;
+                    case "--out": this.output = new File(value); break;
+                    case "--rate": this.sampleRate = Float.parseFloat(value); break;
+                    case "--period": this.periodMillis = Long.parseLong(value); break;
+                    case "--window": this.windowSize = Integer.parseInt(value); break;
+                    case "--threads": this.threads = Math.max(1, Integer.parseInt(value)); break;
+                    default: throw new IllegalArgumentException("Unknown option " + arg + ".");
+                }
+            } catch (NumberFormatException e) { throw new IllegalArgumentException("Invalid value of " + arg + ": " + value); }
+        }
+        if (this.inputs.isEmpty()) throw new IllegalArgumentException("No sessions given.");
+        if (this.sampleRate <= 0) throw new IllegalArgumentException("The rate must be positive.");
+    }
+
+    /** Scores every session.
+     *
+     * @return True if every session was scored.
+     */
+    private boolean run() {
+        if (!this.output.isDirectory() && !this.output.mkdirs()) {
+            Log.e("SessionRunner", "Could not create " + this.output.getAbsolutePath());
+            return false;
+        }
+        SmartWatchValues.setDataDirectory(this.output); // Anything stored by default goes with the output.
+        if (this.fixture != null) {
+            try { this.fixtureRows = FallClassifier.readFeatureRows(this.fixture, FallClassifier.FIXTURE_LIMIT);
+            } catch (IOException e) {
+                Log.e("SessionRunner", "Could not read fixture: " + e.getMessage());
+                return false;
+            }
+        }
+
+        // Load the model once up front, so a bad model fails before any thread is started.
+        final SessionScorer first = createScorer();
+        if (first == null) return false;
+
+        final ArrayList<Session> sessions = findSessions();
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final long[] frames = new long[1];
+        System.out.println(SessionScorer.SessionResult.HEADER);
+
+        long start = System.nanoTime();
+        Thread[] workers = new Thread[Math.min(this.threads, Math.max(1, sessions.size()))];
+        for (int t = 0; t < workers.length; ++t) {
+            final boolean primary = t == 0;
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    SessionScorer scorer = primary ? first : createScorer();
+                    if (scorer == null) return; // The other workers take its sessions.
+                    for (int i; (i = next.getAndIncrement()) < sessions.size(); ) {
+                        Session session = sessions.get(i);
+                        try {
+                            SessionScorer.SessionResult result = scorer.score(session.name, session.open());
+                            synchronized (frames) {
+                                frames[0] += result.getFrames();
+                                System.out.println(result);
+                            }
+                        } catch (IOException | RuntimeException e) {
+                            failed.incrementAndGet();
+                            Log.e("SessionRunner", "Could not score " + session.name + ": " + e.getMessage());
+                        }
+                    }
+                }
+            }, "SessionRunner " + t);
+            workers[t].start();
+        }
+        for (Thread w : workers) {
+            try { w.join();
+            } catch (InterruptedException e) { /** Nothing to do here. */ }
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        synchronized (frames) {
+            System.err.println(String.format("%d sessions, %d failed, %d frames in %.1f s (%.0f frames/s).",
+                    sessions.size(), failed.get(), frames[0], seconds, frames[0] / Math.max(seconds, 1e-9)));
+        }
+        return failed.get() == 0;
+    }
+
+    /** Loads the model for one worker, and wraps it in a scorer. The flat model is verified
+     * against the probes and the fixture only, never against files in the output directory.
+     *
+     * @return The scorer, or null if the model couldn't be loaded.
+     */
+    private SessionScorer createScorer() {
+        FallClassifier classifier = null;
+        if (this.model != null) {
+            try { classifier = FallClassifier.fromFile(this.model);
+            } catch (Exception e) {
+                Log.e("SessionRunner", "Could not load model: " + e.getMessage());
+                return null;
+            }
+            classifier.enableFlatModel(this.fixtureRows);
+        }
+        return new SessionScorer(classifier, this.sampleRate, this.windowSize, this.output);
+    }
+
+    /** Expands the inputs to sessions: files are CSV sessions, directories hold CSV files and logs. */
+    private ArrayList<Session> findSessions() {
+        ArrayList<Session> sessions = new ArrayList<>();
+        for (File input : this.inputs) {
+            if (!input.isDirectory()) {
+                sessions.add(new Session(baseName(input.getName()), input, null));
+                continue;
+            }
+
+            File[] files = input.listFiles(new FileFilter() {
+                @Override
+                public boolean accept(File file) { return file.isFile(); }
+            });
+            if (files == null) continue;
+            Arrays.sort(files);
+            LinkedHashSet<String> logs = new LinkedHashSet<>();
+            for (File f : files) {
+                String n = f.getName();
+                if (n.endsWith(".features.csv") || n.endsWith(".falls.csv")) continue; // Output of an earlier run.
+                if (n.endsWith(".csv")) sessions.add(new Session(baseName(n), f, null));
+                else if (n.endsWith(SegmentLog.EXTENSION) && n.length() > 7 + SegmentLog.EXTENSION.length())
+                    logs.add(n.substring(0, n.length() - 7 - SegmentLog.EXTENSION.length())); // Strip "-000000.seg".
+            }
+            for (String log : logs) sessions.add(new Session(log, input, log));
+        }
+        return sessions;
+    }
+
+    private static String baseName(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return (dot > 0) ? fileName.substring(0, dot) : fileName;
+    }
+
+    /** A recorded session: a CSV file, or a log in a directory. */
+    private class Session {
+        final String name;
+        final File file;
+        final String log; // The name of the log, or null for a CSV file.
+
+        Session(String name, File file, String log) {
+            this.name = name;
+            this.file = file;
+            this.log = log;
+        }
+
+        ReplaySource open() throws IOException {
+            if (this.log != null) return new SegmentReplaySource(this.file, this.log);
+            return new CsvReplaySource(this.file, periodMillis);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package reuiot2015.smartwatch.headless;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+import reuiot2015.smartwatch.fall_detection.FallClassifier;
+import reuiot2015.smartwatch.fall_detection.FallDetector;
+import reuiot2015.smartwatch.fall_detection.FallEvent;
+import reuiot2015.smartwatch.fall_detection.FallFeatureExtractor;
+import reuiot2015.smartwatch.platform.Log;
+import reuiot2015.smartwatch.sensors.Collector;
+import reuiot2015.smartwatch.sensors.SampleFrame;
+import reuiot2015.smartwatch.sensors_persistence.CSVSampleWriter;
+import reuiot2015.smartwatch.sensors_persistence.SampleAccumulator;
+import reuiot2015.smartwatch.sensors_replay.OfflineReplay;
+import reuiot2015.smartwatch.sensors_replay.ReplaySource;
+
+/** Scores recorded sessions with the fall pipeline of the service, off the device.
+ *
+ * Each session is replayed through its own Collector on the session clock (see
+ * OfflineReplay), the accelerometer frames are turned into features, classified and fed to
+ * a FallDetector with the rule of the service, and the features are saved through a
+ * SampleAccumulator and a CSVSampleWriter as on the device, with the prediction of each
+ * window. Nothing is dropped: the listener and the accumulator block instead. The windows are
+ * classified on the listener thread rather than on an InferenceWorker, which drops vectors
+ * when it falls behind. A scorer reuses its classifier for every session, so use one per
+ * thread. */
+public class SessionScorer {
+    /** The main label of the sensor the features are extracted from. */
+    public final static String ACCELEROMETER = "ms_accelerometer";
+
+    private final FallClassifier classifier;
+    private final float sampleRate;
+    private final int windowSize;
+    private final File outputDirectory;
+
+    /** Constructs a scorer.
+     *
+     * @param classifier The fall classifier, or null to only extract the features.
+     * @param sampleRate The rate to collect frames at, the rate the model was trained at, in Hertz.
+     * @param windowSize The number of samples per feature window.
+     * @param outputDirectory The directory to write the features and falls of each session to.
+     */
+    public SessionScorer(FallClassifier classifier, float sampleRate, int windowSize, File outputDirectory) {
+        this.classifier = classifier;
+        this.sampleRate = sampleRate;
+        this.windowSize = windowSize;
+        this.outputDirectory = outputDirectory;
+    }
+
+    /** Scores a session, writing name.features.csv and name.falls.csv to the output directory.
+     *
+     * @param name The name of the session, the output files are named after it.
+     * @param source The recorded session; closed when done.
+     * @return The result.
+     * @throws IOException If the session can't be read or the output can't be written.
+     */
+    public SessionResult score(String name, ReplaySource source) throws IOException {
+        long start = System.nanoTime();
+        final SessionResult result = new SessionResult(name);
+
+        // Save the features with their prediction, in the format of the device.
+        String[] header = new String[FallFeatureExtractor.FEATURE_LABELS.length + 1];
+        System.arraycopy(FallFeatureExtractor.FEATURE_LABELS, 0, header, 0, header.length - 1);
+        header[header.length - 1] = "prediction";
+        final CSVSampleWriter featureWriter = new CSVSampleWriter(header,
+                new BufferedWriter(new FileWriter(new File(this.outputDirectory, name + ".features.csv"))));
+        final SampleAccumulator accumulator = new SampleAccumulator(
+                new SampleAccumulator.StorageConfig(256, 1000), 1024, SampleAccumulator.SheddingPolicy.BLOCK);
+        accumulator.addSampleAccumulationListener(featureWriter);
+        accumulator.start();
+
+        // Detect falls with the rule of the service, on the session clock.
+        final FallDetector detector = new FallDetector(FallDetector.DEFAULT_MIN_RUN, FallDetector.DEFAULT_MAX_RUN, 10000);
+        final ArrayList<FallEvent> cancelled = new ArrayList<>();
+        detector.addListener(new FallDetector.FallListener() {
+            @Override
+            public void onFallDetected(FallEvent event) { result.falls.add(event); }
+
+            @Override
+            public void onFallCancelled(FallEvent event) { cancelled.add(event); }
+        });
+
+        Collector collector = new Collector(this.sampleRate);
+        Collector.SampleListener scorer = new Collector.SampleListener() {
+            private final FallFeatureExtractor extractor = new FallFeatureExtractor(windowSize);
+            private final double[] features = new double[FallFeatureExtractor.FEATURE_LABELS.length];
+            private final String[] row = new String[FallFeatureExtractor.FEATURE_LABELS.length + 1];
+
+            @Override
+            public void onSampleReceived(SampleFrame frame) {
+                int x = frame.findColumn(ACCELEROMETER, "x");
+                if (x < 0 || frame.isNull(x)) return; // No accelerometer data yet.
+                long eventTime = frame.getEventTime(frame.findSensor(ACCELEROMETER));
+                if (eventTime == Long.MIN_VALUE) eventTime = frame.getTimestamp();
+                if (!this.extractor.add(frame.getDouble(x), frame.getDouble(x + 1), frame.getDouble(x + 2))) return;
+
+                this.extractor.getFeatures(this.features);
+                for (int i = 0; i < this.features.length; ++i) this.row[i] = String.valueOf(this.features[i]);
+                ++result.windows;
+                this.row[this.features.length] = "";
+                if (classifier != null) {
+                    try {
+                        boolean fall = classifier.isFall(this.features);
+                        if (fall) ++result.fallWindows;
+                        this.row[this.features.length] = fall ? FallClassifier.FALL : FallClassifier.NOT_FALL;
+                        detector.update(fall, eventTime, frame.getTimestamp()); // Impact at the event, decided at the tick.
+                    } catch (Exception e) {
+                        ++result.failedWindows;
+                        Log.e("SessionScorer", "Could not classify: " + e.getMessage());
+                    }
+                }
+                accumulator.enqueueSample(this.row);
+            }
+        };
+        collector.addListener(scorer, 256, Collector.OverflowPolicy.BLOCK);
+
+        OfflineReplay replay = new OfflineReplay(source, collector, this.sampleRate);
+        try {
+            result.frames = replay.run();
+            result.events = replay.getEventsReplayed();
+            result.durationMillis = replay.getDurationMillis();
+        } finally {
+            collector.removeListener(scorer);
+            accumulator.stopStorage(); // Saves the queued features first.
+            try { accumulator.join();
+            } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+            featureWriter.release();
+            source.close();
+        }
+
+        result.falls.removeAll(cancelled);
+        writeFalls(new File(this.outputDirectory, name + ".falls.csv"), result.falls);
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    /** Writes the detected falls, one per line, with the times on the session clock: the
+     * recorded event of the first fall window, and the tick the fall was detected at. */
+    private static void writeFalls(File file, ArrayList<FallEvent> falls) throws IOException {
+        PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+        try {
+            writer.println("impact_time,detection_time,latency_ms,run_length");
+            for (FallEvent f : falls)
+                writer.println(f.getImpactTime() + "," + f.getDetectionTime() + "," + f.getLatencyMillis() + "," + f.getRunLength());
+        } finally { writer.close(); }
+    }
+
+    /** The outcome of scoring one session. */
+    public static class SessionResult {
+        /** The header of toString(), as CSV. */
+        public final static String HEADER = "session,events,frames,windows,fall_windows,failed_windows,falls,session_ms,elapsed_ms";
+
+        private final String name;
+        private final ArrayList<FallEvent> falls = new ArrayList<>();
+        private long events, frames, durationMillis, elapsedNanos;
+        private volatile long windows, fallWindows, failedWindows; // Counted on the listener thread.
+
+        SessionResult(String name) { this.name = name; }
+
+        /** @return The name of the session. */
+        public String getName() { return this.name; }
+
+        /** @return The number of recorded events replayed. */
+        public long getEvents() { return this.events; }
+
+        /** @return The number of frames collected. */
+        public long getFrames() { return this.frames; }
+
+        /** @return The number of feature windows extracted. */
+        public long getWindows() { return this.windows; }
+
+        /** @return The number of windows classified as a fall. */
+        public long getFallWindows() { return this.fallWindows; }
+
+        /** @return The number of windows the classifier failed on. */
+        public long getFailedWindows() { return this.failedWindows; }
+
+        /** @return The falls detected and not cancelled, with their impact on the session clock. */
+        public ArrayList<FallEvent> getFalls() { return this.falls; }
+
+        /** @return The session time, from the first to the last event, in milliseconds. */
+        public long getDurationMillis() { return this.durationMillis; }
+
+        /** @return The time it took to score the session, in nanoseconds. */
+        public long getElapsedNanos() { return this.elapsedNanos; }
+
+        /** Formats the result as a CSV line, see HEADER. */
+        @Override
+        public String toString() {
+            return this.name + "," + this.events + "," + this.frames + "," + this.windows + "," + this.fallWindows + ","
+                    + this.failedWindows + "," + this.falls.size() + "," + this.durationMillis + "," + this.elapsedNanos / 1000000L;
+        }
+    }
+}
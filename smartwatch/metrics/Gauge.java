@@ -0,0 +1,11 @@
+package reuiot2015.smartwatch.metrics;
+
+/** A value read when the metrics are snapshot, such as a queue depth or a byte count kept by
+ * the component itself. Reading should be cheap and must not block for long. */
+public interface Gauge {
+    /** Reads the current value.
+     *
+     * @return The value.
+     */
+    long read();
+}
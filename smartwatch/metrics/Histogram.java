@@ -0,0 +1,138 @@
+package reuiot2015.smartwatch.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** A histogram of long values over fixed buckets.
+ *
+ * Recording a value is a binary search over the bucket bounds and a few atomic updates, so it
+ * never allocates and never takes a lock; threads recording at once don't wait on each other.
+ * Percentiles are reported as the upper bound of the bucket they fall in, capped at the
+ * largest value recorded, so their precision is that of the buckets. The unit of the values
+ * is up to the caller (e.g. nanoseconds for latencies). Thread safe; a snapshot taken while
+ * values are recorded is consistent in its buckets and count, but its sum, minimum and
+ * maximum may already include a value its buckets don't. */
+public class Histogram {
+    private final long[] bounds; // Inclusive upper bound of each bucket, ascending.
+    private final AtomicLongArray counts; // One more than the bounds, the last bucket takes everything above.
+
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE), max = new AtomicLong(Long.MIN_VALUE);
+
+    /** Constructs a histogram with the given buckets.
+     *
+     * @param bounds The inclusive upper bound of each bucket, ascending.
+     */
+    public Histogram(long[] bounds) {
+        this.bounds = bounds.clone();
+        Arrays.sort(this.bounds);
+        this.counts = new AtomicLongArray(this.bounds.length + 1);
+    }
+
+    /** Creates a histogram with exponentially growing buckets.
+     *
+     * @param first The upper bound of the first bucket.
+     * @param factor How much larger each bucket bound is than the last, above 1.
+     * @param buckets The number of bounded buckets.
+     * @return The histogram.
+     */
+    public static Histogram exponential(long first, double factor, int buckets) {
+        long[] bounds = new long[buckets];
+        double bound = Math.max(1, first);
+        for (int i = 0; i < buckets; ++i) {
+            bounds[i] = (i > 0) ? Math.max(bounds[i - 1] + 1, (long) bound) : (long) bound;
+            bound *= factor;
+        }
+        return new Histogram(bounds);
+    }
+
+    /** Creates a histogram for latencies in nanoseconds, from 1 microsecond to about 17 seconds
+     * with buckets 19% apart.
+     *
+     * @return The histogram.
+     */
+    public static Histogram latencyNanos() {
+        return exponential(1000L, 1.189207115, 97); // Four buckets per doubling.
+    }
+
+    /** Records a value.
+     *
+     * @param value The value to record.
+     */
+    public void record(long value) {
+        int bucket = Arrays.binarySearch(this.bounds, value);
+        if (bucket < 0) bucket = -bucket - 1; // Insertion point, the first bound above the value.
+        this.sum.addAndGet(value);
+        for (long m; value < (m = this.min.get()) && !this.min.compareAndSet(m, value); ) { /** Retry. */ }
+        for (long m; value > (m = this.max.get()) && !this.max.compareAndSet(m, value); ) { /** Retry. */ }
+        this.counts.incrementAndGet(bucket); // Last, so a counted value is already in the extremes.
+    }
+
+    /** @return The number of values recorded. */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < this.counts.length(); ++i) count += this.counts.get(i);
+        return count;
+    }
+
+    /** @return The smallest value recorded, or 0 if there are none. */
+    public long getMin() { return (getCount() > 0) ? this.min.get() : 0; }
+
+    /** @return The largest value recorded, or 0 if there are none. */
+    public long getMax() { return (getCount() > 0) ? this.max.get() : 0; }
+
+    /** @return The mean of the values recorded, or 0 if there are none. */
+    public double getMean() {
+        long count = getCount();
+        return (count > 0) ? (double) this.sum.get() / count : 0;
+    }
+
+    /** Estimates a percentile.
+     *
+     * @param percentile The percentile, from 0 to 100.
+     * @return The upper bound of the bucket holding the percentile, or 0 if there are no values.
+     */
+    public long getPercentile(double percentile) {
+        long[] counts = new long[this.counts.length()];
+        long count = 0;
+        for (int i = 0; i < counts.length; ++i) count += counts[i] = this.counts.get(i);
+        if (count == 0) return 0;
+        long rank = (long) Math.ceil(Math.max(0, Math.min(100, percentile)) / 100.0 * count);
+        if (rank < 1) rank = 1;
+
+        long seen = 0, max = this.max.get();
+        for (int i = 0; i < counts.length; ++i) {
+            seen += counts[i];
+            if (seen >= rank) return (i < this.bounds.length) ? Math.min(this.bounds[i], max) : max;
+        }
+        return max;
+    }
+
+    /** Copies the histogram, without stopping the threads recording into it.
+     *
+     * @return A histogram with the same buckets and values.
+     */
+    public Histogram snapshot() {
+        Histogram h = new Histogram(this.bounds);
+        for (int i = 0; i < this.counts.length(); ++i) h.counts.set(i, this.counts.get(i));
+        h.sum.set(this.sum.get());
+        h.min.set(this.min.get());
+        h.max.set(this.max.get());
+        return h;
+    }
+
+    /** Clears all values. Values recorded meanwhile may be partly kept. */
+    public void reset() {
+        for (int i = 0; i < this.counts.length(); ++i) this.counts.set(i, 0);
+        this.sum.set(0);
+        this.min.set(Long.MAX_VALUE);
+        this.max.set(Long.MIN_VALUE);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("n=%d, mean=%.0f, p50=%d, p99=%d, p999=%d, max=%d",
+                getCount(), getMean(), getPercentile(50), getPercentile(99), getPercentile(99.9), getMax());
+    }
+}
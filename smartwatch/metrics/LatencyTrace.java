@@ -0,0 +1,79 @@
+package reuiot2015.smartwatch.metrics;
+
+/** A breakdown of a latency into the stages of a pipeline, each with its own histogram.
+ *
+ * The stages are named when the trace is constructed and recorded by index, so recording is
+ * the same cost as recording a Histogram. The report lists the p50, p99 and p999 of every
+ * stage, so a regression of the end to end latency can be traced to the stage that caused
+ * it. Values are in nanoseconds. Thread safe. */
+public class LatencyTrace {
+    private final String[] stages;
+    private final Histogram[] histograms;
+
+    /** Constructs a trace.
+     *
+     * @param stages The names of the stages, in pipeline order.
+     */
+    public LatencyTrace(String... stages) {
+        this.stages = stages.clone();
+        this.histograms = new Histogram[stages.length];
+        for (int i = 0; i < stages.length; ++i) this.histograms[i] = Histogram.latencyNanos();
+    }
+
+    /** Records the time spent in a stage.
+     *
+     * @param stage The index of the stage.
+     * @param nanos The time, in nanoseconds; negative times (clock steps) count as 0.
+     */
+    public void record(int stage, long nanos) {
+        this.histograms[stage].record(Math.max(0, nanos));
+    }
+
+    /** @return The number of stages. */
+    public int getStageCount() { return this.stages.length; }
+
+    /** @return The name of a stage. */
+    public String getStageName(int stage) { return this.stages[stage]; }
+
+    /** Grabs the latencies of a stage.
+     *
+     * @param stage The index of the stage.
+     * @return A snapshot of the histogram, in nanoseconds.
+     */
+    public Histogram getStage(int stage) { return this.histograms[stage].snapshot(); }
+
+    /** Registers every stage with a registry, as prefix.stage.
+     *
+     * @param registry The registry.
+     * @param prefix The prefix of the names.
+     */
+    public void registerWith(MetricsRegistry registry, String prefix) {
+        for (int i = 0; i < this.stages.length; ++i) registry.register(prefix + "." + this.stages[i], this.histograms[i]);
+    }
+
+    /** Removes every stage from a registry.
+     *
+     * @param registry The registry.
+     * @param prefix The prefix the stages were registered with.
+     */
+    public void unregisterFrom(MetricsRegistry registry, String prefix) {
+        for (String stage : this.stages) registry.remove(prefix + "." + stage);
+    }
+
+    /** Clears every stage. */
+    public void reset() {
+        for (Histogram h : this.histograms) h.reset();
+    }
+
+    /** Formats the percentiles of every stage, one per line, in microseconds. */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < this.stages.length; ++i) {
+            Histogram h = this.histograms[i].snapshot();
+            sb.append(String.format("%-16s n=%d, p50=%d us, p99=%d us, p999=%d us, max=%d us%n", this.stages[i],
+                    h.getCount(), h.getPercentile(50) / 1000, h.getPercentile(99) / 1000,
+                    h.getPercentile(99.9) / 1000, h.getMax() / 1000));
+        }
+        return sb.toString();
+    }
+}
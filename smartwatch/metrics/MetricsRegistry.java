@@ -0,0 +1,101 @@
+package reuiot2015.smartwatch.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Names the counters, gauges and histograms of the pipeline, so they can be read together.
+ *
+ * Components keep their own metrics and update them without going through the registry; the
+ * registry only holds references, and reads them all when snapshot. Registering replaces a
+ * metric of the same name, so a component recreated for each collection can register its
+ * metrics again. Names are dotted, stage first, e.g. "accumulator.depth". Thread safe. */
+public class MetricsRegistry {
+    /** Reads a histogram kept by another component, for histograms that are only handed out
+     * as snapshots or that come and go with their owner. */
+    public interface HistogramReader {
+        /** Reads the histogram.
+         *
+         * @return A snapshot of the histogram, or null if there is none right now.
+         */
+        Histogram read();
+    }
+
+    private final LinkedHashMap<String, Object> metrics = new LinkedHashMap<>(); // Counter, Gauge or HistogramReader.
+
+    /** Grabs a counter, creating it if there is none of that name.
+     *
+     * @param name The name of the counter.
+     * @return The counter.
+     */
+    public synchronized Counter counter(String name) {
+        Object metric = this.metrics.get(name);
+        if (metric instanceof Counter) return (Counter) metric;
+        Counter counter = new Counter();
+        this.metrics.put(name, counter);
+        return counter;
+    }
+
+    /** Registers a counter kept by a component.
+     *
+     * @param name The name of the counter.
+     * @param counter The counter.
+     */
+    public synchronized void register(String name, Counter counter) { this.metrics.put(name, counter); }
+
+    /** Registers a gauge.
+     *
+     * @param name The name of the gauge.
+     * @param gauge The gauge.
+     */
+    public synchronized void register(String name, Gauge gauge) { this.metrics.put(name, gauge); }
+
+    /** Registers a histogram kept by a component.
+     *
+     * @param name The name of the histogram.
+     * @param histogram The histogram, snapshot with the registry.
+     */
+    public void register(String name, final Histogram histogram) {
+        register(name, new HistogramReader() {
+            @Override
+            public Histogram read() { return histogram.snapshot(); }
+        });
+    }
+
+    /** Registers a histogram read through its owner.
+     *
+     * @param name The name of the histogram.
+     * @param reader The reader of the histogram.
+     */
+    public synchronized void register(String name, HistogramReader reader) { this.metrics.put(name, reader); }
+
+    /** Removes a metric.
+     *
+     * @param name The name of the metric.
+     */
+    public synchronized void remove(String name) { this.metrics.remove(name); }
+
+    /** Reads every metric. The metrics are read one after the other without stopping the
+     * pipeline, so the snapshot is cheap but not atomic across metrics.
+     *
+     * @return The values of the counters and gauges and copies of the histograms.
+     */
+    public MetricsSnapshot snapshot() {
+        ArrayList<Map.Entry<String, Object>> entries;
+        synchronized (this) { entries = new ArrayList<>(this.metrics.entrySet()); }
+
+        // Read outside the lock, gauges take the locks of their components.
+        LinkedHashMap<String, Long> values = new LinkedHashMap<>();
+        LinkedHashMap<String, Histogram> histograms = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> e : entries) {
+            Object metric = e.getValue();
+            if (metric instanceof Counter) values.put(e.getKey(), ((Counter) metric).get());
+            else if (metric instanceof Gauge) values.put(e.getKey(), ((Gauge) metric).read());
+            else {
+                Histogram h = ((HistogramReader) metric).read();
+                if (h != null) histograms.put(e.getKey(), h);
+            }
+        }
+        return new MetricsSnapshot(System.nanoTime(), values, histograms);
+    }
+}
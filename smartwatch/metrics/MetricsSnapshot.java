@@ -0,0 +1,68 @@
+package reuiot2015.smartwatch.metrics;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** The values of the metrics of a MetricsRegistry at one time. Counters and gauges are read as
+ * longs, histograms are copies. Rates are the change of a counter between two snapshots. */
+public class MetricsSnapshot {
+    private final long time;
+    private final Map<String, Long> values;
+    private final Map<String, Histogram> histograms;
+
+    MetricsSnapshot(long time, LinkedHashMap<String, Long> values, LinkedHashMap<String, Histogram> histograms) {
+        this.time = time;
+        this.values = Collections.unmodifiableMap(values);
+        this.histograms = Collections.unmodifiableMap(histograms);
+    }
+
+    /** @return When the snapshot was taken, on the System.nanoTime() clock. */
+    public long getTimeNanos() { return this.time; }
+
+    /** @return The counters and gauges by name, in the order they were registered. */
+    public Map<String, Long> getValues() { return this.values; }
+
+    /** @return The histograms by name, in the order they were registered. */
+    public Map<String, Histogram> getHistograms() { return this.histograms; }
+
+    /** Grabs the value of a counter or gauge.
+     *
+     * @param name The name of the metric.
+     * @return The value, or 0 if there is no such metric.
+     */
+    public long getValue(String name) {
+        Long value = this.values.get(name);
+        return (value != null) ? value : 0;
+    }
+
+    /** Grabs a histogram.
+     *
+     * @param name The name of the histogram.
+     * @return The histogram, or null if there is no such histogram.
+     */
+    public Histogram getHistogram(String name) { return this.histograms.get(name); }
+
+    /** Calculates how fast a counter grew since an earlier snapshot.
+     *
+     * @param name The name of the counter.
+     * @param earlier The earlier snapshot.
+     * @return The change per second, or 0 if no time passed.
+     */
+    public double getRate(String name, MetricsSnapshot earlier) {
+        long elapsed = this.time - earlier.time;
+        if (elapsed <= 0) return 0;
+        return (getValue(name) - earlier.getValue(name)) * 1e9 / elapsed;
+    }
+
+    /** Formats the snapshot as one metric per line, for logs and dumps. */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> e : this.values.entrySet())
+            sb.append(e.getKey()).append(" = ").append(e.getValue()).append('\n');
+        for (Map.Entry<String, Histogram> e : this.histograms.entrySet())
+            sb.append(e.getKey()).append(": ").append(e.getValue()).append('\n');
+        return sb.toString();
+    }
+}
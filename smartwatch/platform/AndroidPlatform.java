@@ -0,0 +1,24 @@
+package reuiot2015.smartwatch.platform;
+
+import android.os.Environment;
+
+import java.io.File;
+
+/** The Android side of Platform and Log, loaded only on Android. */
+class AndroidPlatform implements Log.Sink {
+    @Override
+    public void d(String tag, String message) { android.util.Log.d(tag, message); }
+
+    @Override
+    public void e(String tag, String message) { android.util.Log.e(tag, message); }
+
+    /** @return The public Documents directory of the external storage. */
+    static File getDocumentsDirectory() {
+        return Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOCUMENTS);
+    }
+
+    /** @return True if the external storage is mounted. */
+    static boolean isStorageMounted() {
+        return Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState());
+    }
+}
@@ -0,0 +1,73 @@
+package reuiot2015.smartwatch.platform;
+
+/** Logs the messages of the pipeline through a replaceable sink.
+ *
+ * The sensors, persistence and fall detection code log through this class instead of
+ * android.util.Log, so they also run on a plain JVM. On Android the messages go to logcat;
+ * elsewhere they go to the standard error stream, unless another sink is set. The calls
+ * mirror android.util.Log, with a tag naming the class that logs. */
+public class Log {
+    /** Receives the messages logged by the pipeline; called from any thread. */
+    public interface Sink {
+        /** Receives a debug message.
+         *
+         * @param tag The tag, usually the name of the class that logs.
+         * @param message The message.
+         */
+        void d(String tag, String message);
+
+        /** Receives an error message.
+         *
+         * @param tag The tag, usually the name of the class that logs.
+         * @param message The message.
+         */
+        void e(String tag, String message);
+    }
+
+    /** Writes every message to the standard error stream. */
+    public final static Sink CONSOLE = new Sink() {
+        @Override
+        public void d(String tag, String message) { System.err.println("D/" + tag + ": " + message); }
+
+        @Override
+        public void e(String tag, String message) { System.err.println("E/" + tag + ": " + message); }
+    };
+
+    /** Writes only the errors to the standard error stream. */
+    public final static Sink ERRORS = new Sink() {
+        @Override
+        public void d(String tag, String message) { /** Nothing to do here. */ }
+
+        @Override
+        public void e(String tag, String message) { CONSOLE.e(tag, message); }
+    };
+
+    private static volatile Sink sink = Platform.isAndroid() ? new AndroidPlatform() : CONSOLE;
+
+    private Log() {}
+
+    /** Sets where the messages go.
+     *
+     * @param sink The sink, or null for the default of the platform.
+     */
+    public static void setSink(Sink sink) {
+        Log.sink = (sink != null) ? sink : Platform.isAndroid() ? new AndroidPlatform() : CONSOLE;
+    }
+
+    /** @return The sink the messages go to. */
+    public static Sink getSink() { return sink; }
+
+    /** Logs a debug message.
+     *
+     * @param tag The tag, usually the name of the class that logs.
+     * @param message The message.
+     */
+    public static void d(String tag, String message) { sink.d(tag, message); }
+
+    /** Logs an error message.
+     *
+     * @param tag The tag, usually the name of the class that logs.
+     * @param message The message.
+     */
+    public static void e(String tag, String message) { sink.e(tag, message); }
+}
@@ -0,0 +1,36 @@
+package reuiot2015.smartwatch.platform;
+
+import java.io.File;
+
+/** Tells the pipeline where it runs, and where the shared documents are.
+ *
+ * The Android classes are only touched through AndroidPlatform, which is only loaded when
+ * running on Android, so the rest of the pipeline can be used from a plain JVM. */
+public class Platform {
+    private final static boolean ANDROID = detectAndroid();
+
+    private Platform() {}
+
+    /** Asks the VM rather than looking for Android classes, which a JVM may have as stubs. */
+    private static boolean detectAndroid() {
+        return "Dalvik".equals(System.getProperty("java.vm.name")); // Also reported by ART.
+    }
+
+    /** @return True if running on Android. */
+    public static boolean isAndroid() { return ANDROID; }
+
+    /** Grabs the directory the application keeps its documents in: the public Documents
+     * directory of the external storage on Android, the working directory elsewhere.
+     *
+     * @return The directory; check isStorageMounted() before writing to it.
+     */
+    public static File getDocumentsDirectory() {
+        if (ANDROID) return AndroidPlatform.getDocumentsDirectory();
+        return new File(System.getProperty("user.dir"));
+    }
+
+    /** @return True if the documents directory can be written to; always on a JVM. */
+    public static boolean isStorageMounted() {
+        return !ANDROID || AndroidPlatform.isStorageMounted();
+    }
+}
@@ -0,0 +1,53 @@
+package reuiot2015.smartwatch.sensors;
+
+/** A reusable, read only batch of raw events captured from one sensor.
+ *
+ * Batches are filled by the Collector capture thread and handed to its CaptureListeners;
+ * the contents are only valid during the listener call. Every dimension is a float. */
+public class CaptureBatch {
+    private final Sensor.SensorMetaData meta;
+    private final int stride;
+    final float[] values;
+    final long[] times;
+    int size;
+
+    /** Constructs an empty batch.
+     *
+     * @param meta The meta data of the sensor.
+     * @param stride The number of dimensions per event.
+     * @param capacity The maximum number of events per batch.
+     */
+    CaptureBatch(Sensor.SensorMetaData meta, int stride, int capacity) {
+        this.meta = meta;
+        this.stride = stride;
+        this.values = new float[stride * capacity];
+        this.times = new long[capacity];
+    }
+
+    /** @return The meta data of the sensor the events came from. */
+    public Sensor.SensorMetaData getMeta() { return this.meta; }
+
+    /** @return The number of events in the batch. */
+    public int size() { return this.size; }
+
+    /** @return The maximum number of events per batch. */
+    public int capacity() { return this.times.length; }
+
+    /** @return The number of dimensions per event. */
+    public int getDimension() { return this.stride; }
+
+    /** Grabs the time an event was measured.
+     *
+     * @param event The index of the event, oldest first.
+     * @return The event timestamp in milliseconds.
+     */
+    public long getEventTime(int event) { return this.times[event]; }
+
+    /** Grabs a value of an event.
+     *
+     * @param event The index of the event, oldest first.
+     * @param dimension The dimension index.
+     * @return The value.
+     */
+    public float getFloat(int event, int dimension) { return this.values[event * this.stride + dimension]; }
+}
@@ -0,0 +1,102 @@
+package reuiot2015.smartwatch.sensors;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/** A lock free single producer, single consumer ring of sensor events.
+ *
+ * Each record holds one float per dimension plus the event timestamp. The producer (the
+ * Sensor, which publishes under its data lock so that only one thread produces at a time)
+ * never waits for the consumer: when the ring is full the event is dropped and counted.
+ * The consumer drains records in batches. Both sides publish their position with an
+ * ordered store, which is all the synchronization needed with exactly one thread on each
+ * side. */
+final class CaptureRing {
+    private final int stride; // Floats per record.
+    private final int capacity;
+    private final int mask;
+    private final float[] values;
+    private final long[] times;
+
+    private final AtomicLong tail = new AtomicLong(); // Next sequence to write, only the producer stores it.
+    private final AtomicLong head = new AtomicLong(); // Next sequence to read, only the consumer stores it.
+    private final AtomicLong drops = new AtomicLong();
+
+    private long producerTail; // Producer's own copy of tail.
+    private long cachedHead; // Producer's last view of head, refreshed only when the ring looks full.
+
+    /** Constructs a ring.
+     *
+     * @param stride The number of dimensions per record.
+     * @param capacity The minimum number of records held, rounded up to a power of two.
+     */
+    CaptureRing(int stride, int capacity) {
+        int c = 1; while (c < capacity) c <<= 1;
+        this.stride = stride;
+        this.capacity = c;
+        this.mask = c - 1;
+        this.values = new float[c * stride];
+        this.times = new long[c];
+    }
+
+    /** Producer side: claims the slot of the next record.
+     *
+     * @return The slot to fill with put(), or -1 if the ring is full and the event was dropped.
+     */
+    int claim() {
+        if (producerTail - cachedHead >= capacity) {
+            cachedHead = head.get();
+            if (producerTail - cachedHead >= capacity) {
+                drops.lazySet(drops.get() + 1); // Only the producer writes drops.
+                return -1;
+            }
+        }
+        return (int) (producerTail & mask);
+    }
+
+    /** Producer side: sets a value of the claimed record. */
+    void put(int slot, int dimension, float value) {
+        values[slot * stride + dimension] = value;
+    }
+
+    /** Producer side: makes the claimed record visible to the consumer.
+     *
+     * @param slot The claimed slot.
+     * @param eventTime The time the event was measured, in milliseconds.
+     */
+    void publish(int slot, long eventTime) {
+        times[slot] = eventTime;
+        tail.lazySet(++producerTail);
+    }
+
+    /** Consumer side: moves the oldest records into a batch, replacing its contents.
+     *
+     * @param batch The batch to fill, up to its capacity.
+     * @return The number of records moved.
+     */
+    int drainTo(CaptureBatch batch) {
+        long h = head.get();
+        int n = (int) Math.min(tail.get() - h, batch.capacity());
+        int first = (int) (h & mask);
+        int run = Math.min(n, capacity - first); // Records before the ring wraps.
+
+        System.arraycopy(values, first * stride, batch.values, 0, run * stride);
+        System.arraycopy(times, first, batch.times, 0, run);
+        if (run < n) {
+            System.arraycopy(values, 0, batch.values, run * stride, (n - run) * stride);
+            System.arraycopy(times, 0, batch.times, run, n - run);
+        }
+        batch.size = n;
+
+        head.lazySet(h + n);
+        return n;
+    }
+
+    /** @return True if the consumer has nothing to drain. */
+    boolean isEmpty() { return head.get() == tail.get(); }
+
+    /** @return The number of events dropped because the ring was full. */
+    long getDrops() { return drops.get(); }
+
+    /** @return The number of floats per record. */
+    int getStride() { return this.stride; }
+}
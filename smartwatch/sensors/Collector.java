@@ -1,13 +1,19 @@
 package reuiot2015.smartwatch.sensors;
 
-import android.util.Log;
-
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import reuiot2015.smartwatch.metrics.Histogram;
+import reuiot2015.smartwatch.platform.Log;
 
 /** Collects samples from a list of Sensor objects.
+ *
+ * Collection follows an absolute schedule, so the rate doesn't drift with the time spent
+ * collecting. Sensors are polled at the collector sample rate unless given their own rate
+ * with setSensorRate(); a frame is sent on every tick at which any sensor was polled, and
+ * the columns of sensors that weren't due keep their last values. With setAlignment(), the
+ * sensors are resampled on their event timestamps instead of read at the time of the tick.
  *
  * @author Mario A. Gutierrez (mag262@txstate.edu) */
 public class Collector {
@@ -16,35 +22,101 @@ public class Collector {
     private final static double TIME_SMP_LOC_I = 0.2;
 
     private final ArrayList<Sensor> sensors = new ArrayList<>();
-    private final Set<SampleListener> listeners = Collections.synchronizedSet(new HashSet<SampleListener>());
+    private final Object sensorLock = new Object(); // Guards the sensor list and the frame.
+    private volatile Sensor[] sensorSnapshot = new Sensor[0]; // The sensor list, read by the capture thread without the lock.
+
+    // Each listener is fed through its own queue and worker thread, so a slow listener never
+    // stalls collection. Kept as an array snapshot so that sending a sample doesn't allocate.
+    private final static int DEFAULT_LISTENER_CAPACITY = 64;
+    private volatile ListenerQueue[] listeners = new ListenerQueue[0];
+    private final Object listenerLock = new Object();
 
-    private long sleepTime; // Sleep time (ms/collection) is calculated from sample rate (collection/sec).
+    private final long period; // Nanoseconds per collection, calculated from sample rate (collection/sec).
+    private final HashMap<Sensor, Long> sensorPeriods = new HashMap<>(); // Sensors not polled at the collector rate.
 
     private Sensor.SensorMetaData[] meta;
-    private Object[] data;
+    private SampleFrame frame; // Reused for every collection.
+    private SensorGroup[] groups; // Sensors sharing a polling period.
+
+    private final SchedulerStats stats = new SchedulerStats();
+    private final Histogram collectDuration = Histogram.latencyNanos(); // Reading the sensors, per tick.
+
+    // Event time alignment: when set, sensors are resampled at a delayed time instead of read as is.
+    private Sensor.Interpolation alignment;
+    private long alignmentDelay; // Milliseconds behind the clock, so late events have arrived.
+    private int alignmentHistory;
+    private long alignedTime = Long.MIN_VALUE; // Last frame time, keeps aligned frames monotonic.
 
     private Thread collector;
 
-    /** This thread collects data from the GeneralSensors at a static rate. */
+    // Full rate capture: raw events are drained from each sensor's ring and sent in batches, by
+    // a thread that only runs while collecting with capture listeners registered.
+    private final static int CAPTURE_BATCH_SIZE = 256;
+    private final static long CAPTURE_IDLE_MILLIS = 5;
+    private volatile CaptureListener[] captureListeners = new CaptureListener[0];
+    private int captureCapacity; // Zero while capture is disabled, guarded by the sensor lock.
+    private Thread capturer; // Guarded by the listener lock, as is collecting.
+    private boolean collecting;
+
+    /** This thread collects data from the sensors on an absolute tick schedule. */
     class CollectorThread extends Thread {
         @Override
         public void run() {
+            synchronized (sensorLock) { // Start every group's schedule now.
+                long now = System.nanoTime();
+                for (SensorGroup g : groups) g.deadline = now;
+            }
+
             while (!Thread.interrupted()) {
-                long timestamp = System.currentTimeMillis(); // Get initial timestamp.
+                // Sleep until the earliest deadline (to satisfy collection frequency).
+                long deadline; synchronized (sensorLock) { deadline = nextDeadline(); }
+                long wait = deadline - System.nanoTime();
+                if (wait > 0) {
+                    try { Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+                    } catch (InterruptedException e) { return; } // Stopped while waiting.
+                }
 
-                // Collect data from sensors into arrays.
-                int idx = 0; for (int i = 0; i < sensors.size(); ++i)
-                    for (Object o : sensors.get(i).collect()) data[idx++] = o;
+                tick(deadline);
+            }
+        }
+    }
 
-                // Determine weighted average timestamp using initial and final timestamps.
-                timestamp = (long)(TIME_SMP_LOC_I*timestamp + TIME_SMP_LOC_F*System.currentTimeMillis());
+    /** This thread drains the capture rings of the sensors and sends the raw events in batches. */
+    class CaptureThread extends Thread {
+        private final HashMap<Sensor, CaptureBatch> batches = new HashMap<>();
 
-                // Send Sample to all registered listeners.
-                for (SampleListener l : listeners) l.onSampleReceived(data.clone(), meta,timestamp);
+        @Override
+        public void run() {
+            Sensor[] captured = null;
+            while (!Thread.interrupted()) {
+                if (captured != sensorSnapshot) { // Forget the batches of removed sensors.
+                    captured = sensorSnapshot;
+                    this.batches.keySet().retainAll(Arrays.asList(captured));
+                }
+
+                boolean idle = true;
+                for (Sensor s : captured) {
+                    CaptureRing ring = s.getCaptureRing();
+                    if (ring == null) continue;
 
-                // Wait for the specified amount of time (to satisfy collection frequency).
-                try { Thread.sleep(sleepTime);
-                } catch (InterruptedException e) { /** Nothing to do here. */ }
+                    CaptureBatch batch = this.batches.get(s);
+                    if (batch == null || batch.getDimension() != ring.getStride()) {
+                        batch = new CaptureBatch(s.getMetaData(), ring.getStride(), CAPTURE_BATCH_SIZE);
+                        this.batches.put(s, batch);
+                    }
+
+                    // Keep draining until the ring is empty, a full batch means more may be waiting.
+                    while (ring.drainTo(batch) > 0) {
+                        idle = false;
+                        for (CaptureListener l : captureListeners) l.onCaptureBatch(batch);
+                        if (batch.size() < batch.capacity()) break;
+                    }
+                }
+
+                if (idle) {
+                    try { Thread.sleep(CAPTURE_IDLE_MILLIS);
+                    } catch (InterruptedException e) { return; } // Stopped while idle.
+                }
             }
         }
     }
@@ -54,7 +126,136 @@ public class Collector {
      * @param sampleRate The sample rate in Hertz (collections/sec).
      */
     public Collector(float sampleRate) {
-        this.sleepTime = (long)(1000.0f / sampleRate); // Milliseconds per collection.
+        this.period = rateToPeriod(sampleRate);
+        synchronized (this.sensorLock) { refreshArrays(); }
+    }
+
+    /** Collects the sensors that are due into the frame, queues it for the listeners and
+     * advances the schedule. Runs on the collector thread.
+     *
+     * @param deadline The deadline the tick was scheduled for, in nanoseconds.
+     */
+    private void tick(long deadline) {
+        ListenerQueue[] full;
+        synchronized (this.sensorLock) {
+            long woke = System.nanoTime();
+            long timestamp = System.currentTimeMillis(); // Get initial timestamp.
+
+            if (alignment != null) {
+                // Resample the sensors that are due at a common, delayed event time.
+                alignedTime = Math.max(alignedTime, timestamp - alignmentDelay);
+                for (SensorGroup g : groups) if (g.deadline <= woke)
+                    for (int i : g.sensors) {
+                        sensors.get(i).sampleAt(frame, frame.getOffset(i), alignedTime, alignment);
+                        frame.setEventTime(i, alignedTime);
+                    }
+                frame.setTimestamp(alignedTime);
+            } else {
+                // Collect data from the sensors that are due straight into the frame columns.
+                for (SensorGroup g : groups) if (g.deadline <= woke)
+                    for (int i : g.sensors) frame.setEventTime(i, sensors.get(i).collect(frame, frame.getOffset(i)));
+
+                // Determine weighted average timestamp using initial and final timestamps.
+                frame.setTimestamp((long)(TIME_SMP_LOC_I*timestamp + TIME_SMP_LOC_F*System.currentTimeMillis()));
+            }
+            collectDuration.record(System.nanoTime() - woke);
+            frame.setTickNanos(woke);
+
+            // Queue a copy of the frame for each registered listener.
+            full = offerAll(frame);
+
+            // Advance the schedule of each due group, skipping (and counting) ticks that were missed.
+            long done = System.nanoTime(), overruns = 0;
+            for (SensorGroup g : groups) if (g.deadline <= woke) {
+                g.deadline += g.period;
+                if (g.deadline <= done) {
+                    long missed = (done - g.deadline) / g.period + 1;
+                    g.deadline += missed * g.period;
+                    overruns += missed;
+                }
+            }
+            stats.record(woke - deadline, done - woke, overruns);
+        }
+        awaitRoom(full);
+    }
+
+    /** Collects every sensor into the frame at a time given by the caller and queues it for
+     * the listeners, without the schedule or the collector thread. For driving the collector
+     * from the clock of a recorded session, as fast as the sensors can be fed; per sensor
+     * rates don't apply, every sensor is collected on every call.
+     *
+     * @param timestamp The time of the frame, in milliseconds.
+     */
+    public void collectAt(long timestamp) {
+        ListenerQueue[] full;
+        synchronized (this.sensorLock) {
+            long woke = System.nanoTime();
+            if (this.alignment != null) {
+                this.alignedTime = Math.max(this.alignedTime, timestamp - this.alignmentDelay);
+                for (int i = 0; i < this.sensors.size(); ++i) {
+                    this.sensors.get(i).sampleAt(this.frame, this.frame.getOffset(i), this.alignedTime, this.alignment);
+                    this.frame.setEventTime(i, this.alignedTime);
+                }
+                this.frame.setTimestamp(this.alignedTime);
+            } else {
+                for (int i = 0; i < this.sensors.size(); ++i)
+                    this.frame.setEventTime(i, this.sensors.get(i).collect(this.frame, this.frame.getOffset(i)));
+                this.frame.setTimestamp(timestamp);
+            }
+            this.collectDuration.record(System.nanoTime() - woke);
+            this.frame.setTickNanos(woke);
+
+            full = offerAll(this.frame);
+        }
+        awaitRoom(full);
+    }
+
+    /** Queues a copy of the frame for each registered listener. Hold the sensor lock.
+     *
+     * @return The BLOCK queues that were full and hold the frame aside for awaitRoom(), or null.
+     */
+    private ListenerQueue[] offerAll(SampleFrame frame) {
+        ListenerQueue[] listeners = this.listeners, full = null;
+        int n = 0;
+        for (ListenerQueue q : listeners) {
+            if (q.offer(frame)) continue;
+            if (full == null) full = new ListenerQueue[listeners.length];
+            full[n++] = q;
+        }
+        return full;
+    }
+
+    /** Waits for room in the full BLOCK queues, after the sensor lock is released so that the
+     * sensors and listeners can still be changed while a listener is behind. */
+    private static void awaitRoom(ListenerQueue[] full) {
+        if (full == null) return;
+        for (ListenerQueue q : full) {
+            if (q == null) break;
+            q.queueHeld();
+        }
+    }
+
+    /** Waits until the listeners were called with every sample queued for them, such as
+     * before releasing their output at the end of a recorded session.
+     */
+    public void awaitListeners() {
+        for (ListenerQueue q : this.listeners) q.awaitIdle();
+    }
+
+    /** Converts a rate to the period of its schedule.
+     *
+     * @param sampleRate The rate in Hertz.
+     * @return The period in nanoseconds.
+     */
+    private static long rateToPeriod(float sampleRate) {
+        return (long) (1000000000.0 / sampleRate);
+    }
+
+    /** Finds the earliest deadline of all groups. Hold the sensor lock. */
+    private long nextDeadline() {
+        long deadline = Long.MAX_VALUE;
+        for (SensorGroup g : this.groups) deadline = Math.min(deadline, g.deadline);
+        return deadline;
     }
 
     /** Begins the collection of data. */
@@ -63,6 +264,32 @@ public class Collector {
             this.collector = new CollectorThread();
             this.collector.start();
         }
+        synchronized (this.listenerLock) {
+            this.collecting = true;
+            if (this.captureListeners.length > 0) startCapture();
+        }
+    }
+
+    /** Starts the capture thread, unless it runs. Hold the listener lock. */
+    private void startCapture() {
+        if (this.capturer != null) return;
+        this.capturer = new CaptureThread();
+        this.capturer.start();
+    }
+
+    /** Stops the capture thread, if it runs. Call without the listener lock. */
+    private void stopCapture() {
+        Thread capturer;
+        synchronized (this.listenerLock) {
+            capturer = this.capturer;
+            this.capturer = null;
+        }
+        if (capturer == null) return;
+        capturer.interrupt();
+        if (Thread.currentThread() != capturer) { // A capture listener may remove itself.
+            try { capturer.join();
+            } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        }
     }
 
     /** Stops the collection of data. */
@@ -73,18 +300,109 @@ public class Collector {
             } catch (InterruptedException e) { /** Nothing to do here. */ }
             this.collector = null; // Clear reference to thread.
         }
+        synchronized (this.listenerLock) { this.collecting = false; }
+        stopCapture();
+    }
+
+    /** Enables full rate capture on every numeric sensor, current and added later. Each raw
+     * event is then sent to the CaptureListeners as it arrives, independent of the sample rate.
+     *
+     * @param capacity The number of events each sensor buffers before dropping new ones.
+     */
+    public void enableCapture(int capacity) {
+        synchronized (this.sensorLock) {
+            this.captureCapacity = capacity;
+            for (Sensor s : this.sensors) s.enableCapture(capacity);
+        }
+    }
+
+    /** Disables full rate capture on every sensor. */
+    public void disableCapture() {
+        synchronized (this.sensorLock) {
+            this.captureCapacity = 0;
+            for (Sensor s : this.sensors) s.disableCapture();
+        }
+    }
+
+    /** Aligns the sensors on event time: each frame holds the values every sensor had at the
+     * same moment, a fixed delay in the past, interpolated from the timestamped events they
+     * keep. The frame timestamp is that moment. Destroys the current sensor data in memory.
+     *
+     * @param mode How to estimate values between events, or null to disable alignment.
+     * @param delayMillis How far behind the clock to sample, so that late events have arrived.
+     * @param history The number of events each sensor keeps, enough to cover the delay.
+     */
+    public void setAlignment(Sensor.Interpolation mode, long delayMillis, int history) {
+        synchronized (this.sensorLock) {
+            this.alignment = mode;
+            this.alignmentDelay = Math.max(0, delayMillis);
+            this.alignmentHistory = (mode != null) ? history : 0;
+            for (Sensor s : this.sensors) s.setHistory(this.alignmentHistory);
+        }
+    }
+
+    /** Prepares a sensor joining the collector for capture and alignment. Hold the sensor lock. */
+    private void prepareSensor(Sensor sensor) {
+        if (this.captureCapacity > 0) sensor.enableCapture(this.captureCapacity);
+        if (this.alignmentHistory > 0) sensor.setHistory(this.alignmentHistory);
     }
 
-    /** Re-constructs the member arrays to appropriate size for sensor list. */
+    /** Re-constructs the meta data, frame and groups for the sensor list. Hold the sensor lock. */
     private void refreshArrays() {
-        // Read the meta data from each sensor (also calculate total dimensionality).
+        // Read the meta data from each sensor.
         this.meta = new Sensor.SensorMetaData[this.sensors.size()];
-        int dim = 0; for (int i = 0; i < this.meta.length; ++i) {
-            this.meta[i] = this.sensors.get(i).getMetaData();
-            dim += this.meta[i].getDimension();
+        for (int i = 0; i < this.meta.length; ++i) this.meta[i] = this.sensors.get(i).getMetaData();
+        this.frame = new SampleFrame(this.meta);
+        this.sensorSnapshot = this.sensors.toArray(new Sensor[this.sensors.size()]);
+        Log.d("Collector", "Collection size is " + this.frame.getColumnCount() + ".");
+
+        // Group the sensors by polling period; the collector rate group always exists and leads the frames.
+        ArrayList<Long> periods = new ArrayList<>();
+        periods.add(this.period);
+        for (Sensor s : this.sensors) {
+            Long p = this.sensorPeriods.get(s);
+            if (p != null && !periods.contains(p)) periods.add(p);
+        }
+
+        long now = System.nanoTime();
+        this.groups = new SensorGroup[periods.size()];
+        for (int g = 0; g < this.groups.length; ++g) {
+            ArrayList<Integer> members = new ArrayList<>();
+            for (int i = 0; i < this.sensors.size(); ++i) {
+                Long p = this.sensorPeriods.get(this.sensors.get(i));
+                if ((p == null ? this.period : p) == periods.get(g)) members.add(i);
+            }
+            this.groups[g] = new SensorGroup(periods.get(g), members, now);
         }
-        this.data = new Object[dim];
-        Log.d("Collector", "Collection size is " + dim + ".");
+    }
+
+    /** Sets the rate at which a sensor is polled, instead of the collector sample rate.
+     *
+     * @param sensor The sensor.
+     * @param sampleRate The polling rate in Hertz, or a value of zero or less for the collector rate.
+     */
+    public void setSensorRate(Sensor sensor, float sampleRate) {
+        synchronized (this.sensorLock) {
+            if (sampleRate > 0) this.sensorPeriods.put(sensor, rateToPeriod(sampleRate));
+            else this.sensorPeriods.remove(sensor);
+            refreshArrays();
+        }
+    }
+
+    /** Grabs a snapshot of the scheduling statistics.
+     *
+     * @return The statistics since the collector was constructed.
+     */
+    public SchedulerStats getSchedulerStats() {
+        return this.stats.snapshot();
+    }
+
+    /** Grabs the time spent reading the sensors into the frame on each tick, without sending it.
+     *
+     * @return A snapshot of the histogram in nanoseconds.
+     */
+    public Histogram getCollectDuration() {
+        return this.collectDuration.snapshot();
     }
 
     /** Adds a new sensor to collect data from (if not already in list).
@@ -92,8 +410,13 @@ public class Collector {
      * @param sensor The sensor to add.
      */
     public void addSensor(Sensor sensor) {
-        if(sensor != null && !this.sensors.contains(sensor)) this.sensors.add(sensor);
-        refreshArrays();
+        synchronized (this.sensorLock) {
+            if (sensor != null && !this.sensors.contains(sensor)) {
+                this.sensors.add(sensor);
+                prepareSensor(sensor);
+            }
+            refreshArrays();
+        }
     }
 
     /** Removes a sensor from the internal list of sensors (if in list).
@@ -101,36 +424,136 @@ public class Collector {
      * @param sensor The sensor to remove.
      */
     public void removeSensor(Sensor sensor) {
-        this.sensors.remove(sensor);
-        refreshArrays();
+        synchronized (this.sensorLock) {
+            this.sensors.remove(sensor);
+            this.sensorPeriods.remove(sensor);
+            refreshArrays();
+        }
     }
 
     /** Add all the sensors from a linker to the collector. */
     public void addSensors(Linker linker) {
-        for (Sensor s : linker.getSensors())
-            if (!this.sensors.contains(s)) this.sensors.add(s);
-        refreshArrays();
+        synchronized (this.sensorLock) {
+            for (Sensor s : linker.getSensors())
+                if (!this.sensors.contains(s)) {
+                    this.sensors.add(s);
+                    prepareSensor(s);
+                }
+            refreshArrays();
+        }
     }
 
     public void clearSensors() {
-        this.sensors.clear();
-        refreshArrays();
+        synchronized (this.sensorLock) {
+            this.sensors.clear();
+            this.sensorPeriods.clear();
+            refreshArrays();
+        }
     }
 
-    /** Adds a new SampleListener to the collector.
+    /** Adds a new SampleListener to the collector, with a queue of 64 samples that drops the
+     * oldest one when the listener falls behind, so the listener never stalls collection; the
+     * drops are counted in its ListenerStats. Listeners that must see every sample opt in to
+     * BLOCK, at the cost of holding up the collection while they are behind.
      *
      * @param sampleListener The SampleListener to add.
      */
     public void addListener(SampleListener sampleListener) {
-        this.listeners.add(sampleListener);
+        addListener(sampleListener, DEFAULT_LISTENER_CAPACITY, OverflowPolicy.DROP_OLDEST);
     }
 
-    /** Removes a SampleListener from the collector.
+    /** Adds a new SampleListener to the collector. The listener is called from its own thread,
+     * fed by a bounded queue of samples.
+     *
+     * @param sampleListener The SampleListener to add.
+     * @param capacity The number of samples queued for the listener (ignored for COALESCE_LATEST).
+     * @param policy What to do with a new sample when the queue is full.
+     */
+    public void addListener(SampleListener sampleListener, int capacity, OverflowPolicy policy) {
+        synchronized (this.listenerLock) {
+            if (sampleListener == null || indexOf(sampleListener) >= 0) return;
+            ListenerQueue queue = new ListenerQueue(sampleListener, capacity, policy);
+            ListenerQueue[] updated = Arrays.copyOf(this.listeners, this.listeners.length + 1);
+            updated[updated.length - 1] = queue;
+            this.listeners = updated;
+            queue.start();
+        }
+    }
+
+    /** Removes a SampleListener from the collector. Samples still queued for it are discarded.
      *
      * @param sampleListener The SampleListener to remove.
      */
     public void removeListener(SampleListener sampleListener) {
-        this.listeners.remove(sampleListener);
+        removeListener(sampleListener, false);
+    }
+
+    /** Removes a SampleListener from the collector, optionally once it was called with the
+     * samples still queued for it, such as before releasing its output.
+     *
+     * @param sampleListener The SampleListener to remove.
+     * @param deliverQueued True to deliver the queued samples first, unless called from the listener.
+     */
+    public void removeListener(SampleListener sampleListener, boolean deliverQueued) {
+        ListenerQueue removed;
+        synchronized (this.listenerLock) {
+            int index = indexOf(sampleListener);
+            if (index < 0) return;
+            removed = this.listeners[index];
+            ListenerQueue[] updated = new ListenerQueue[this.listeners.length - 1];
+            System.arraycopy(this.listeners, 0, updated, 0, index);
+            System.arraycopy(this.listeners, index + 1, updated, index, updated.length - index);
+            this.listeners = updated;
+        }
+        if (deliverQueued && Thread.currentThread() != removed.worker) removed.awaitIdle(); // No sample is offered anymore.
+        removed.close();
+    }
+
+    /** Finds the queue of a listener. Hold the listener lock. */
+    private int indexOf(SampleListener sampleListener) {
+        for (int i = 0; i < this.listeners.length; ++i)
+            if (this.listeners[i].listener == sampleListener) return i;
+        return -1;
+    }
+
+    /** Grabs a snapshot of the delivery statistics of a listener.
+     *
+     * @param sampleListener The listener.
+     * @return The statistics, or null if the listener isn't registered.
+     */
+    public ListenerStats getListenerStats(SampleListener sampleListener) {
+        ListenerQueue[] queues = this.listeners;
+        for (ListenerQueue q : queues) if (q.listener == sampleListener) return q.snapshot();
+        return null;
+    }
+
+    /** Adds a new CaptureListener to the collector. The capture thread runs while collecting
+     * with at least one capture listener.
+     *
+     * @param captureListener The CaptureListener to add.
+     */
+    public void addCaptureListener(CaptureListener captureListener) {
+        synchronized (this.listenerLock) {
+            if (captureListener == null || Arrays.asList(this.captureListeners).contains(captureListener)) return;
+            CaptureListener[] updated = Arrays.copyOf(this.captureListeners, this.captureListeners.length + 1);
+            updated[updated.length - 1] = captureListener;
+            this.captureListeners = updated;
+            if (this.collecting) startCapture();
+        }
+    }
+
+    /** Removes a CaptureListener from the collector.
+     *
+     * @param captureListener The CaptureListener to remove.
+     */
+    public void removeCaptureListener(CaptureListener captureListener) {
+        synchronized (this.listenerLock) {
+            ArrayList<CaptureListener> updated = new ArrayList<>(Arrays.asList(this.captureListeners));
+            if (updated.remove(captureListener))
+                this.captureListeners = updated.toArray(new CaptureListener[updated.size()]);
+            if (this.captureListeners.length > 0) return;
+        }
+        stopCapture(); // Nobody to send the events to.
     }
 
     /** Grabs a copy of the sensor meta data.
@@ -138,17 +561,297 @@ public class Collector {
      * @return The sensor meta data.
      */
     public Sensor.SensorMetaData[] getMeta() {
-        return this.meta.clone();
+        synchronized (this.sensorLock) {
+            return this.meta.clone();
+        }
+    }
+
+    /** Sensors polled with the same period, and the deadline of their next poll. */
+    private static class SensorGroup {
+        final long period;
+        final int[] sensors;
+        long deadline;
+
+        SensorGroup(long period, ArrayList<Integer> sensors, long deadline) {
+            this.period = period;
+            this.sensors = new int[sensors.size()];
+            for (int i = 0; i < this.sensors.length; ++i) this.sensors[i] = sensors.get(i);
+            this.deadline = deadline;
+        }
+    }
+
+    /** What a listener queue does with a new sample when it is full. */
+    public enum OverflowPolicy {
+        /** Wait for the listener to make room; stalls collection, so only for listeners that must see every sample. */
+        BLOCK,
+        /** Discard the oldest queued sample. */
+        DROP_OLDEST,
+        /** Discard the new sample. */
+        DROP_NEWEST,
+        /** Keep only the latest sample, replacing one not yet delivered. */
+        COALESCE_LATEST
+    }
+
+    /** A bounded queue of frame copies and the worker thread delivering them to one listener.
+     *
+     * The frames are preallocated and reused: the collector copies into the slot at the tail,
+     * and the worker swaps the slot at the head with its own spare frame before delivering it,
+     * so a frame is never written while the listener reads it. */
+    private static class ListenerQueue implements Runnable {
+        final SampleListener listener;
+        private final Thread worker;
+        private final OverflowPolicy policy;
+        private final SampleFrame[] slots;
+        private SampleFrame spare; // Frame being delivered, owned by the worker.
+        private SampleFrame held; // Frame waiting for room in a full BLOCK queue, owned by the collector.
+        private boolean holding;
+        private int head, size;
+        private boolean closed;
+
+        // Statistics, guarded by this.
+        private long offered, delivered, dropped, maxPending, lastLag, maxLag;
+
+        ListenerQueue(SampleListener listener, int capacity, OverflowPolicy policy) {
+            this.listener = listener;
+            this.policy = policy;
+            this.slots = new SampleFrame[(policy == OverflowPolicy.COALESCE_LATEST) ? 1 : Math.max(1, capacity)];
+            this.worker = new Thread(this, "Collector listener");
+            this.worker.setDaemon(true);
+        }
+
+        void start() { this.worker.start(); }
+
+        /** Called by the collector with a new frame, under the sensor lock.
+         *
+         * @return False if the queue is BLOCK and full: the frame is held aside, and the
+         *         collector must call queueHeld() once it released the sensor lock.
+         */
+        synchronized boolean offer(SampleFrame frame) {
+            if (this.closed) return true;
+            ++this.offered;
+            if (this.size == this.slots.length) {
+                switch (this.policy) {
+                    case BLOCK:
+                        this.held = frame.copyInto(this.held);
+                        this.holding = true;
+                        return false;
+                    case DROP_NEWEST:
+                        ++this.dropped;
+                        return true;
+                    default: // DROP_OLDEST and COALESCE_LATEST both replace the oldest queued frame.
+                        this.head = (this.head + 1) % this.slots.length;
+                        --this.size;
+                        ++this.dropped;
+                }
+            }
+            int tail = (this.head + this.size) % this.slots.length;
+            this.slots[tail] = frame.copyInto(this.slots[tail]);
+            ++this.size;
+            this.maxPending = Math.max(this.maxPending, this.size);
+            notifyAll();
+            return true;
+        }
+
+        /** Waits for room and queues the frame held aside by offer(). The frame is counted as
+         * dropped if the queue is closed or the collector interrupted meanwhile, so that
+         * awaitIdle() doesn't wait for it. */
+        synchronized void queueHeld() {
+            if (!this.holding) return;
+            this.holding = false;
+            while (this.size == this.slots.length && !this.closed) {
+                try { wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            if (this.size == this.slots.length || this.closed) {
+                ++this.dropped;
+                notifyAll(); // Wake a waiting awaitIdle().
+                return;
+            }
+
+            // Swap the held frame into the tail slot rather than copying it again.
+            int tail = (this.head + this.size) % this.slots.length;
+            SampleFrame frame = this.held;
+            this.held = this.slots[tail];
+            this.slots[tail] = frame;
+            ++this.size;
+            this.maxPending = Math.max(this.maxPending, this.size);
+            notifyAll();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                SampleFrame frame;
+                synchronized (this) {
+                    while (this.size == 0 && !this.closed) {
+                        try { wait();
+                        } catch (InterruptedException e) { return; }
+                    }
+                    if (this.closed) return;
+                    frame = this.slots[this.head];
+                    this.slots[this.head] = this.spare;
+                    this.spare = frame;
+                    this.head = (this.head + 1) % this.slots.length;
+                    --this.size;
+                    notifyAll(); // Wake a blocked collector.
+                }
+
+                try { this.listener.onSampleReceived(frame);
+                } catch (RuntimeException e) { Log.e("Collector", "Listener failed: " + e.getMessage()); }
+
+                synchronized (this) {
+                    ++this.delivered;
+                    this.lastLag = (System.nanoTime() - frame.getTickNanos()) / 1000000L; // Frame timestamps may be on a session clock.
+                    this.maxLag = Math.max(this.maxLag, this.lastLag);
+                    if (this.size == 0) notifyAll(); // Wake a waiting awaitIdle().
+                }
+            }
+        }
+
+        /** Waits until every frame offered so far was delivered or dropped. */
+        synchronized void awaitIdle() {
+            while (this.delivered + this.dropped < this.offered && !this.closed) {
+                try { wait();
+                } catch (InterruptedException e) { Thread.currentThread().interrupt(); return; }
+            }
+        }
+
+        /** Stops the worker and discards queued frames. */
+        void close() {
+            synchronized (this) {
+                this.closed = true;
+                notifyAll();
+            }
+            if (Thread.currentThread() != this.worker) { // A listener may remove itself.
+                try { this.worker.join();
+                } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+            }
+        }
+
+        synchronized ListenerStats snapshot() {
+            ListenerStats s = new ListenerStats();
+            s.policy = this.policy; s.capacity = this.slots.length; s.pending = this.size;
+            s.offered = this.offered; s.delivered = this.delivered; s.dropped = this.dropped;
+            s.maxPending = this.maxPending; s.lastLag = this.lastLag; s.maxLag = this.maxLag;
+            return s;
+        }
+    }
+
+    /** Delivery statistics of one listener. */
+    public static class ListenerStats {
+        private OverflowPolicy policy;
+        private int capacity, pending;
+        private long offered, delivered, dropped, maxPending, lastLag, maxLag;
+
+        /** @return The overflow policy of the listener queue. */
+        public OverflowPolicy getPolicy() { return this.policy; }
+
+        /** @return The number of samples the queue holds. */
+        public int getCapacity() { return this.capacity; }
+
+        /** @return The number of samples waiting for the listener. */
+        public int getPending() { return this.pending; }
+
+        /** @return The most samples that were waiting at once. */
+        public long getMaxPending() { return this.maxPending; }
+
+        /** @return The number of samples collected while the listener was registered. */
+        public long getOffered() { return this.offered; }
+
+        /** @return The number of samples the listener was called with. */
+        public long getDelivered() { return this.delivered; }
+
+        /** @return The number of samples dropped or coalesced because the listener fell behind. */
+        public long getDropped() { return this.dropped; }
+
+        /** @return The time from collection to the end of the last listener call, in milliseconds. */
+        public long getLastLagMillis() { return this.lastLag; }
+
+        /** @return The longest time from collection to the end of a listener call, in milliseconds. */
+        public long getMaxLagMillis() { return this.maxLag; }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d delivered, %d dropped, %d/%d pending, lag %d/%d ms (last/max)",
+                    policy, delivered, dropped, pending, capacity, lastLag, maxLag);
+        }
+    }
+
+    /** Timing statistics of the collection ticks. */
+    public static class SchedulerStats {
+        private long ticks, overruns;
+        private long lastJitter, maxJitter, totalJitter;
+        private long lastWork, maxWork;
+
+        /** Records one tick. */
+        synchronized void record(long jitter, long work, long overruns) {
+            ++this.ticks;
+            this.overruns += overruns;
+            this.lastJitter = jitter;
+            this.maxJitter = Math.max(this.maxJitter, jitter);
+            this.totalJitter += jitter;
+            this.lastWork = work;
+            this.maxWork = Math.max(this.maxWork, work);
+        }
+
+        /** Copies the statistics. */
+        synchronized SchedulerStats snapshot() {
+            SchedulerStats s = new SchedulerStats();
+            s.ticks = ticks; s.overruns = overruns;
+            s.lastJitter = lastJitter; s.maxJitter = maxJitter; s.totalJitter = totalJitter;
+            s.lastWork = lastWork; s.maxWork = maxWork;
+            return s;
+        }
+
+        /** @return The number of ticks run. */
+        public long getTicks() { return this.ticks; }
+
+        /** @return The number of ticks skipped because a tick ran past their deadline. */
+        public long getOverruns() { return this.overruns; }
+
+        /** @return How late the last tick woke up after its deadline, in nanoseconds. */
+        public long getLastJitterNanos() { return this.lastJitter; }
+
+        /** @return The latest any tick woke up after its deadline, in nanoseconds. */
+        public long getMaxJitterNanos() { return this.maxJitter; }
+
+        /** @return The mean wake up lateness, in nanoseconds. */
+        public long getMeanJitterNanos() { return (this.ticks > 0) ? this.totalJitter / this.ticks : 0; }
+
+        /** @return The time spent collecting and sending the last tick, in nanoseconds. */
+        public long getLastWorkNanos() { return this.lastWork; }
+
+        /** @return The longest time spent collecting and sending a tick, in nanoseconds. */
+        public long getMaxWorkNanos() { return this.maxWork; }
+
+        @Override
+        public String toString() {
+            return String.format("%d ticks, %d overruns, jitter %.2f/%.2f ms (mean/max)",
+                    ticks, overruns, getMeanJitterNanos() / 1e6, maxJitter / 1e6);
+        }
     }
 
     /** An interface for receiving Samples from the Collector. */
     public interface SampleListener {
-        /** Called when a sample is received (constructed).
+        /** Called from the listener's own thread when a sample is received (constructed). The
+         * frame is reused for a later sample, so it must only be read during this call; use
+         * SampleFrame.copyInto() to keep it.
+         *
+         * @param frame The collected sample, with its meta data and collection timestamp.
+         */
+        void onSampleReceived(SampleFrame frame);
+    }
+
+    /** An interface for receiving raw sensor events captured at full rate. */
+    public interface CaptureListener {
+        /** Called from the capture thread with the events of one sensor, oldest first. The batch
+         * is reused, so it must only be read during this call.
          *
-         * @param sample The collected sample.
-         * @param metaData The sensor meta data needed to parse the data.
-         * @param timestamp The time the collection was made.
+         * @param batch The captured events, with the sensor meta data and event timestamps.
          */
-        void onSampleReceived(Object[] sample, Sensor.SensorMetaData[] metaData, long timestamp);
+        void onCaptureBatch(CaptureBatch batch);
     }
-}
\ No newline at end of file
+}
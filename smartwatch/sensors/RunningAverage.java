@@ -0,0 +1,105 @@
+package reuiot2015.smartwatch.sensors;
+
+/** Maintains the weighted average of one WindowLane as running sums, so that reading the
+ * average costs the same regardless of the window size.
+ *
+ * Call evict() right before a value is put into the lane and add() right after it. For
+ * LINEAR weighting the newest value has weight n and the oldest weight 1; removing the
+ * oldest value and shifting every rank down by one is a single subtraction of the plain
+ * sum. Floating point sums are recomputed from the lane every RESYNC_INTERVAL additions
+ * so that rounding error can't build up over a long session.
+ *
+ * NaN values are kept out of the running state, so that one bad reading can't poison it
+ * for the rest of the session: EQUAL and LINEAR averages are NaN while a NaN is in the
+ * window and recover once it leaves, and the EXPONENTIAL average skips NaN values. */
+final class RunningAverage {
+    private final static int RESYNC_INTERVAL = 1024;
+
+    private final int windowSize;
+    private final Sensor.AverageWeighting weighting;
+    private final double alpha; // Smoothing factor for EXPONENTIAL weighting.
+    private final double linearDivisor;
+
+    private double sum; // Plain sum of the window.
+    private double weightedSum; // Sum of rank * value, only used by LINEAR.
+    private double ema; // Only used by EXPONENTIAL.
+    private boolean seeded;
+    private int count; // Values currently in the window.
+    private int nans; // NaN values currently in the window, left out of the sums.
+    private int sinceResync;
+
+    /** Constructs a running average.
+     *
+     * @param windowSize The number of samples to average over.
+     * @param weighting The type of weighting to use.
+     */
+    RunningAverage(int windowSize, Sensor.AverageWeighting weighting) {
+        this.windowSize = windowSize;
+        this.weighting = weighting;
+        this.alpha = 2.0 / (windowSize + 1.0);
+        this.linearDivisor = windowSize * (windowSize + 1.0) / 2.0;
+    }
+
+    /** Removes the oldest value of a full window, call before putting a value in the lane.
+     *
+     * @param lane The lane about to receive a value.
+     */
+    void evict(WindowLane lane) {
+        if (count < windowSize) return;
+        double oldest = lane.getDouble(windowSize - 1);
+        weightedSum -= sum; // Every rank drops by one, the oldest drops to zero.
+        if (Double.isNaN(oldest)) --nans;
+        else sum -= oldest;
+        --count;
+    }
+
+    /** Adds the newest value of the lane, call after putting a value in the lane.
+     *
+     * @param lane The lane that just received a value.
+     */
+    void add(WindowLane lane) {
+        double value = lane.getDouble(0);
+        ++count;
+        if (Double.isNaN(value)) ++nans;
+        else {
+            sum += value;
+            weightedSum += count * value;
+
+            if (!seeded) { ema = value; seeded = true; }
+            else ema += alpha * (value - ema);
+        }
+
+        if (++sinceResync >= RESYNC_INTERVAL && count == windowSize) resync(lane);
+    }
+
+    /** Recomputes the sums exactly from the values held by the lane. */
+    private void resync(WindowLane lane) {
+        double s = 0, w = 0;
+        for (int age = 0; age < windowSize; ++age) {
+            double value = lane.getDouble(age);
+            if (Double.isNaN(value)) continue;
+            s += value;
+            w += (windowSize - age) * value;
+        }
+        sum = s; weightedSum = w;
+        sinceResync = 0;
+    }
+
+    /** Checks if the window has filled up.
+     *
+     * @return True if get() returns a full window average.
+     */
+    boolean isReady() { return count == windowSize; }
+
+    /** Grabs the current average.
+     *
+     * @return The weighted average of the window, or NaN if it has no value to average.
+     */
+    double get() {
+        switch (weighting) {
+            case LINEAR: return (nans > 0) ? Double.NaN : weightedSum / linearDivisor;
+            case EXPONENTIAL: return seeded ? ema : Double.NaN;
+            default: return (nans > 0) ? Double.NaN : sum / windowSize;
+        }
+    }
+}
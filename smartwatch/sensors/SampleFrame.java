@@ -0,0 +1,266 @@
+package reuiot2015.smartwatch.sensors;
+
+import java.util.Arrays;
+
+/** A reusable, schema bound sample of every sensor of a Collector, stored in primitive columns.
+ *
+ * Columns follow the sensor meta data in order, one column per dimension. Float and Double
+ * columns are held as doubles, Integer and Long columns as longs, and all other types as
+ * references, so filling a frame never allocates. The Collector fills a single frame and
+ * hands it to each listener; outside of this package a frame is read only, and its contents
+ * are only valid during the listener call. Use copyInto() to keep a sample around. */
+public class SampleFrame {
+    private final static int REAL = 0, INTEGRAL = 1, REFERENCE = 2;
+
+    private final Sensor.SensorMetaData[] meta;
+    private final Types[] types;
+    private final int[] kinds;
+    private final int[] offsets; // First column of each sensor.
+
+    private final double[] reals;
+    private final long[] integers;
+    private final Object[] objects;
+    private final boolean[] nulls;
+    private long timestamp;
+    private final long[] eventTimes; // Time of the newest event of each sensor, for tracing.
+    private long tickNanos; // When the Collector filled the frame, for tracing.
+
+    /** Constructs an empty frame for the given sensors.
+     *
+     * @param meta The meta data of each sensor, in collection order.
+     */
+    public SampleFrame(Sensor.SensorMetaData[] meta) {
+        this.meta = meta.clone();
+        this.offsets = new int[meta.length];
+
+        int columns = 0; for (int i = 0; i < meta.length; ++i) {
+            this.offsets[i] = columns;
+            columns += meta[i].getDimension();
+        }
+
+        this.types = new Types[columns];
+        this.kinds = new int[columns];
+        int c = 0; for (Sensor.SensorMetaData m : meta) for (Types t : m.getDimensionTypes()) {
+            this.types[c] = t;
+            this.kinds[c++] = kindOf(t);
+        }
+
+        this.reals = new double[columns];
+        this.integers = new long[columns];
+        this.objects = new Object[columns];
+        this.nulls = new boolean[columns];
+        Arrays.fill(this.nulls, true);
+        this.eventTimes = new long[meta.length];
+        Arrays.fill(this.eventTimes, Long.MIN_VALUE);
+    }
+
+    private static int kindOf(Types type) {
+        switch (type) {
+            case Float: case Double: return REAL;
+            case Integer: case Long: return INTEGRAL;
+            default: return REFERENCE;
+        }
+    }
+
+    /** Grabs the sensor meta data describing the columns.
+     *
+     * @return The sensor meta data (do not modify).
+     */
+    public Sensor.SensorMetaData[] getMeta() { return this.meta; }
+
+    /** Grabs the number of columns.
+     *
+     * @return The total dimensionality of all sensors.
+     */
+    public int getColumnCount() { return this.types.length; }
+
+    /** Grabs the first column of a sensor.
+     *
+     * @param sensor The index of the sensor in the meta data.
+     * @return The column of the first dimension of the sensor.
+     */
+    public int getOffset(int sensor) { return this.offsets[sensor]; }
+
+    /** Finds a sensor by its main label.
+     *
+     * @param mainLabel The main label of the sensor (e.g. "ms_accelerometer").
+     * @return The sensor index, or -1 if there is no such sensor.
+     */
+    public int findSensor(String mainLabel) {
+        for (int i = 0; i < this.meta.length; ++i) if (this.meta[i].getMainLabel().equals(mainLabel)) return i;
+        return -1;
+    }
+
+    /** Finds the column of a sensor dimension by its labels.
+     *
+     * @param mainLabel The main label of the sensor (e.g. "ms_accelerometer").
+     * @param dimensionLabel The label of the dimension (e.g. "x").
+     * @return The column, or -1 if there is no such dimension.
+     */
+    public int findColumn(String mainLabel, String dimensionLabel) {
+        for (int i = 0; i < this.meta.length; ++i) {
+            if (!this.meta[i].getMainLabel().equals(mainLabel)) continue;
+            for (int j = 0; j < this.meta[i].getDimension(); ++j)
+                if (dimensionLabel.equals(this.meta[i].getDimensionLabel(j))) return this.offsets[i] + j;
+        }
+        return -1;
+    }
+
+    /** Grabs the type of a column.
+     *
+     * @param column The column index.
+     * @return The type of data in the column.
+     */
+    public Types getType(int column) { return this.types[column]; }
+
+    /** Grabs the time the sample was collected.
+     *
+     * @return The timestamp in milliseconds.
+     */
+    public long getTimestamp() { return this.timestamp; }
+
+    /** Checks if a column has no value (sensor hasn't reported, or window isn't full).
+     *
+     * @param column The column index.
+     * @return True if the column is empty.
+     */
+    public boolean isNull(int column) { return this.nulls[column]; }
+
+    /** Grabs a numeric column as a float.
+     *
+     * @param column The column index.
+     * @return The value, or NaN if empty or not numeric.
+     */
+    public float getFloat(int column) { return (float) getDouble(column); }
+
+    /** Grabs a numeric column as a double.
+     *
+     * @param column The column index.
+     * @return The value, or NaN if empty or not numeric.
+     */
+    public double getDouble(int column) {
+        if (this.nulls[column]) return Double.NaN;
+        switch (this.kinds[column]) {
+            case REAL: return this.reals[column];
+            case INTEGRAL: return this.integers[column];
+            default: return (this.objects[column] instanceof Number) ? ((Number) this.objects[column]).doubleValue() : Double.NaN;
+        }
+    }
+
+    /** Grabs a numeric column as a long.
+     *
+     * @param column The column index.
+     * @return The value, or 0 if empty or not numeric.
+     */
+    public long getLong(int column) {
+        if (this.nulls[column]) return 0;
+        switch (this.kinds[column]) {
+            case REAL: return (long) this.reals[column];
+            case INTEGRAL: return this.integers[column];
+            default: return (this.objects[column] instanceof Number) ? ((Number) this.objects[column]).longValue() : 0;
+        }
+    }
+
+    /** Grabs a column boxed as its Types value; allocates for numeric columns.
+     *
+     * @param column The column index.
+     * @return The value, or null if empty.
+     */
+    public Object getObject(int column) {
+        if (this.nulls[column]) return null;
+        switch (this.types[column]) {
+            case Float: return (float) this.reals[column];
+            case Double: return this.reals[column];
+            case Integer: return (int) this.integers[column];
+            case Long: return this.integers[column];
+            default: return this.objects[column];
+        }
+    }
+
+    /** Formats a column the same way as Types.asString().
+     *
+     * @param column The column index.
+     * @return The value as a string, or "null" if empty.
+     */
+    public String asString(int column) {
+        if (this.nulls[column]) return "null";
+        switch (this.types[column]) {
+            case Float: return Float.toString((float) this.reals[column]);
+            case Double: return Double.toString(this.reals[column]);
+            case Integer: return Integer.toString((int) this.integers[column]);
+            case Long: return Long.toString(this.integers[column]);
+            default: return this.types[column].asString(this.objects[column]);
+        }
+    }
+
+    /** Copies this frame into another frame of the same sensors.
+     *
+     * @param target The frame to copy into, may be null.
+     * @return The target, or a new frame if the target was null or has a different layout.
+     */
+    public SampleFrame copyInto(SampleFrame target) {
+        if (target == null || !Arrays.equals(target.types, this.types) || !Arrays.equals(target.meta, this.meta))
+            target = new SampleFrame(this.meta);
+        System.arraycopy(this.reals, 0, target.reals, 0, this.reals.length);
+        System.arraycopy(this.integers, 0, target.integers, 0, this.integers.length);
+        System.arraycopy(this.objects, 0, target.objects, 0, this.objects.length);
+        System.arraycopy(this.nulls, 0, target.nulls, 0, this.nulls.length);
+        target.timestamp = this.timestamp;
+        System.arraycopy(this.eventTimes, 0, target.eventTimes, 0, this.eventTimes.length);
+        target.tickNanos = this.tickNanos;
+        return target;
+    }
+
+    /** Grabs the time of the newest event of a sensor in this frame, as stamped by the sensor.
+     * With event time alignment, it is the time the values were resampled at.
+     *
+     * @param sensor The sensor index.
+     * @return The event time in milliseconds, or Long.MIN_VALUE if the sensor had no event.
+     */
+    public long getEventTime(int sensor) { return this.eventTimes[sensor]; }
+
+    /** Grabs when the Collector filled this frame, to trace the latency of later stages.
+     *
+     * @return The System.nanoTime() of the tick, or 0 if the frame wasn't collected.
+     */
+    public long getTickNanos() { return this.tickNanos; }
+
+    void setTimestamp(long timestamp) { this.timestamp = timestamp; }
+
+    void setEventTime(int sensor, long eventTime) { this.eventTimes[sensor] = eventTime; }
+
+    void setTickNanos(long tickNanos) { this.tickNanos = tickNanos; }
+
+    void setNull(int column) {
+        this.nulls[column] = true;
+        this.objects[column] = null;
+    }
+
+    /** Stores a number, converting it to the column type the way a boxed cast would. */
+    void setDouble(int column, double value) {
+        this.nulls[column] = false;
+        switch (this.types[column]) {
+            case Float: this.reals[column] = (float) value; break;
+            case Double: this.reals[column] = value; break;
+            case Integer: this.integers[column] = (int) value; break;
+            case Long: this.integers[column] = (long) value; break;
+            default: this.objects[column] = value;
+        }
+    }
+
+    void setFloat(int column, float value) { setDouble(column, value); }
+
+    void setLong(int column, long value) {
+        if (this.kinds[column] != INTEGRAL) { setDouble(column, value); return; }
+        this.nulls[column] = false;
+        this.integers[column] = (this.types[column] == Types.Integer) ? (int) value : value;
+    }
+
+    void setObject(int column, Object value) {
+        if (value == null) { setNull(column); return; }
+        if (this.kinds[column] == REFERENCE) { this.nulls[column] = false; this.objects[column] = value; }
+        else if (value instanceof Long || value instanceof Integer) setLong(column, ((Number) value).longValue());
+        else if (value instanceof Number) setDouble(column, ((Number) value).doubleValue());
+        else setNull(column);
+    }
+}
@@ -1,10 +1,11 @@
 package reuiot2015.smartwatch.sensors;
 
-import android.util.Log;
-
 import java.util.ArrayList;
 import java.util.Arrays;
 
+import reuiot2015.smartwatch.metrics.Counter;
+import reuiot2015.smartwatch.platform.Log;
+
 /** A wrapper for interacting with various sensor APIs.
  *
  * Works with float values. For sensors collecting qualitative data, use
@@ -16,38 +17,51 @@ import java.util.Arrays;
  * */
 public abstract class Sensor {
 
-    /** Chooses how the sensor data is averaged. */
+    /** Chooses how the sensor data is averaged. Averages are kept as running sums, so
+     * collecting costs the same for any window size. */
     public enum AverageWeighting {
-        EQUAL, LINEAR;
-
-        public float[] generateWeights(int size) {
-            float[] weights = new float[size];
-            switch (this) {
-                case EQUAL:
-                    Arrays.fill(weights, 1.0f / size);
-                    break;
-                case LINEAR:
-                    float div = size * (size + 1.0f) / 2.0f;
-                    for (int i = 0; i < size; ++i) {
-                        weights[i] = (float)(size - i) / div;
-                        Log.d("AverageWeighting", weights[i] + "");
-                    }
-                    break;
-            }
-            return weights;
-        }
+        /** Every sample in the window has the same weight. */
+        EQUAL,
+        /** The newest sample has weight n, the oldest weight 1. */
+        LINEAR,
+        /** Exponential moving average with smoothing factor 2 / (n + 1), seeded with the first
+         * sample and not limited to the window. */
+        EXPONENTIAL
     }
 
-    // This describes the sensor.
-    private final SensorMetaData meta;
+    /** Chooses how sampleAt() estimates a value between two events. */
+    public enum Interpolation {
+        /** The value of the latest event at or before the time. */
+        HOLD,
+        /** Straight line between the events around the time; Integer, Long and non-numeric dimensions are held. */
+        LINEAR
+    }
+
+    // This describes the sensor: its own dimensions, and those followed by the aggregates.
+    private final SensorMetaData source;
+    private volatile SensorMetaData meta;
 
     // These are for the windowSize.
     private int windowSize; // Over how many samples do you want to average?
     private AverageWeighting weighting; // The windowSize mode.
-    private float[] weights; // The weighting for the windowSize.
 
-    // This stores the data, one SlidingWindowQueue for each dimension.
-    private final ArrayList<SlidingWindowQueue<Object>> data;
+    // This stores the data, one WindowLane for each dimension (primitive lanes for numeric types).
+    private WindowLane[] lanes;
+    private RunningAverage[] averages; // Null entries for dimensions that aren't averaged.
+    private final Object dataLock = new Object();
+
+    // These are the window aggregators, indexed by dimension and in collection order.
+    private AggregatorSlot[][] aggregators;
+    private final ArrayList<AggregatorSlot> aggregatorOrder = new ArrayList<>();
+    private long sequence; // Incremented once per update.
+    private final Counter events = new Counter(); // Every update, never reset.
+
+    // Event time of each update, same age order as the lanes, never decreasing.
+    private WindowLane.LongLane times;
+    private int history = 1; // Minimum number of events kept for sampleAt().
+
+    // Raw events are published here when full rate capture is enabled.
+    private volatile CaptureRing capture;
 
     /** Constructs an instance of Sensor.
      *
@@ -56,80 +70,351 @@ public abstract class Sensor {
      * @param dimensionTypes The types of data in each dimension.
      */
     public Sensor(String mainLabel, String[] dimensionLabels, Types[] dimensionTypes) {
-        this.meta = new SensorMetaData(mainLabel, dimensionLabels, dimensionTypes, dimensionTypes.length);
-        this.data = new ArrayList<>();
+        this.meta = this.source = new SensorMetaData(mainLabel, dimensionLabels, dimensionTypes, dimensionTypes.length);
+        this.aggregators = new AggregatorSlot[dimensionTypes.length][0];
         setAveraging(1, null);
     }
 
-    /** Grabs the meta data of the sensor.
+    /** Grabs the meta data of the sensor, including a Double dimension for each aggregator.
      *
      * @return The sensor meta data.
      */
     public final SensorMetaData getMetaData() { return this.meta; }
 
-    /** Updates the memory with new data.
+    /** Updates the memory with new data, timestamped now. Boxes every value, prefer the typed
+     * overloads on hot paths.
+     *
+     * @param data The new data to store, one value for each dimension.
+     */
+    protected void update(Object... data) { updateAt(System.currentTimeMillis(), data); }
+
+    /** Updates the memory of a one dimensional sensor without allocating, timestamped now. */
+    protected void update(float value) { updateAt(System.currentTimeMillis(), value); }
+
+    /** Updates the memory of a one dimensional sensor without allocating, timestamped now. */
+    protected void update(long value) { updateAt(System.currentTimeMillis(), value); }
+
+    /** Updates the memory of a three dimensional sensor without allocating, timestamped now. */
+    protected void update(float x, float y, float z) { updateAt(System.currentTimeMillis(), x, y, z); }
+
+    /** Updates the memory of a six dimensional sensor without allocating, timestamped now. */
+    protected void update(float a, float b, float c, float d, float e, float f) {
+        updateAt(System.currentTimeMillis(), a, b, c, d, e, f);
+    }
+
+    /** Updates the memory with new data. Boxes every value, prefer the typed overloads on hot paths.
      *
+     * @param eventTime The time the data was measured, in milliseconds.
      * @param data The new data to store, one value for each dimension.
      */
-    protected void update(Object... data) {
-        synchronized (this.data) {
-            if (this.data.size() != data.length) { Log.e("Sensor", "Invalid data lengths in update()."); return; }
-            for (int i = 0; i < data.length; ++i) this.data.get(i).add(data[i]);
+    protected void updateAt(long eventTime, Object... data) {
+        synchronized (this.dataLock) {
+            if (this.lanes.length != data.length) { Log.e("Sensor", "Invalid data lengths in update()."); return; }
+            CaptureRing ring = this.capture;
+            if (ring != null && data.length == ring.getStride()) {
+                int slot = ring.claim();
+                if (slot >= 0) {
+                    for (int i = 0; i < data.length; ++i)
+                        ring.put(slot, i, (data[i] instanceof Number) ? ((Number) data[i]).floatValue() : Float.NaN);
+                    ring.publish(slot, eventTime);
+                }
+            }
+            for (int i = 0; i < data.length; ++i) {
+                beforePut(i);
+                this.lanes[i].putObject(data[i]);
+                afterPut(i);
+            }
+            stamp(eventTime);
         }
     }
 
-    /** Collect the most recent data for each dimension; averaged if option is set.
+    /** Updates the memory of a one dimensional sensor without allocating.
+     *
+     * @param eventTime The time the data was measured, in milliseconds.
+     * @param value The new value.
+     */
+    protected void updateAt(long eventTime, float value) {
+        synchronized (this.dataLock) {
+            if (this.lanes.length != 1) { Log.e("Sensor", "Invalid data lengths in update()."); return; }
+            CaptureRing ring = this.capture;
+            if (ring != null) {
+                int slot = ring.claim();
+                if (slot >= 0) { ring.put(slot, 0, value); ring.publish(slot, eventTime); }
+            }
+            putFloat(0, value);
+            stamp(eventTime);
+        }
+    }
+
+    /** Updates the memory of a one dimensional sensor without allocating.
+     *
+     * @param eventTime The time the data was measured, in milliseconds.
+     * @param value The new value.
+     */
+    protected void updateAt(long eventTime, long value) {
+        synchronized (this.dataLock) {
+            if (this.lanes.length != 1) { Log.e("Sensor", "Invalid data lengths in update()."); return; }
+            CaptureRing ring = this.capture;
+            if (ring != null) {
+                int slot = ring.claim();
+                if (slot >= 0) { ring.put(slot, 0, value); ring.publish(slot, eventTime); }
+            }
+            putLong(0, value);
+            stamp(eventTime);
+        }
+    }
+
+    /** Updates the memory of a three dimensional sensor without allocating.
+     *
+     * @param eventTime The time the data was measured, in milliseconds.
+     * @param x The new value of the first dimension.
+     * @param y The new value of the second dimension.
+     * @param z The new value of the third dimension.
+     */
+    protected void updateAt(long eventTime, float x, float y, float z) {
+        synchronized (this.dataLock) {
+            if (this.lanes.length != 3) { Log.e("Sensor", "Invalid data lengths in update()."); return; }
+            CaptureRing ring = this.capture;
+            if (ring != null) {
+                int slot = ring.claim();
+                if (slot >= 0) {
+                    ring.put(slot, 0, x); ring.put(slot, 1, y); ring.put(slot, 2, z);
+                    ring.publish(slot, eventTime);
+                }
+            }
+            putFloat(0, x);
+            putFloat(1, y);
+            putFloat(2, z);
+            stamp(eventTime);
+        }
+    }
+
+    /** Updates the memory of a six dimensional sensor without allocating.
+     *
+     * @param eventTime The time the data was measured, in milliseconds.
+     * @param a The new value of the first dimension.
+     * @param b The new value of the second dimension.
+     * @param c The new value of the third dimension.
+     * @param d The new value of the fourth dimension.
+     * @param e The new value of the fifth dimension.
+     * @param f The new value of the sixth dimension.
+     */
+    protected void updateAt(long eventTime, float a, float b, float c, float d, float e, float f) {
+        synchronized (this.dataLock) {
+            if (this.lanes.length != 6) { Log.e("Sensor", "Invalid data lengths in update()."); return; }
+            CaptureRing ring = this.capture;
+            if (ring != null) {
+                int slot = ring.claim();
+                if (slot >= 0) {
+                    ring.put(slot, 0, a); ring.put(slot, 1, b); ring.put(slot, 2, c);
+                    ring.put(slot, 3, d); ring.put(slot, 4, e); ring.put(slot, 5, f);
+                    ring.publish(slot, eventTime);
+                }
+            }
+            putFloat(0, a);
+            putFloat(1, b);
+            putFloat(2, c);
+            putFloat(3, d);
+            putFloat(4, e);
+            putFloat(5, f);
+            stamp(eventTime);
+        }
+    }
+
+    /** Starts publishing every raw event into a lock free ring, for full rate capture by a
+     * Collector. Events are published under the data lock, so the ring has a single producer
+     * even when the sensor is updated from several threads. Only sensors whose dimensions are
+     * all numeric can be captured.
+     *
+     * @param capacity The number of events the ring holds before dropping new ones.
+     * @return True if capture was enabled.
+     */
+    public boolean enableCapture(int capacity) {
+        for (Types t : this.source.getDimensionTypes()) {
+            if (t != Types.Float && t != Types.Double && t != Types.Integer && t != Types.Long) {
+                Log.e("Sensor", "Cannot capture non-numeric sensor " + this.source.getMainLabel() + ".");
+                return false;
+            }
+        }
+        if (this.capture == null) this.capture = new CaptureRing(this.source.getDimension(), capacity);
+        return true;
+    }
+
+    /** Stops publishing raw events for capture. */
+    public void disableCapture() { this.capture = null; }
+
+    /** Grabs the capture ring, if capture is enabled.
+     *
+     * @return The ring, or null.
+     */
+    CaptureRing getCaptureRing() { return this.capture; }
+
+    /** Grabs the number of events dropped because the capture consumer fell behind.
+     *
+     * @return The number of dropped events, or 0 if capture is disabled.
+     */
+    public long getCaptureDrops() {
+        CaptureRing ring = this.capture;
+        return (ring != null) ? ring.getDrops() : 0;
+    }
+
+    /** Grabs the count of events the sensor received, for event rate metrics.
+     *
+     * @return The counter, never reset.
+     */
+    public Counter getEventCounter() { return this.events; }
+
+    /** Records the event time of the values just put and ends the update. Hold the data lock. */
+    private void stamp(long eventTime) {
+        // Events delivered out of order keep the previous time, so the lane stays sorted.
+        if (this.times.size() > 0 && eventTime < this.times.getLong(0)) eventTime = this.times.getLong(0);
+        this.times.putLong(eventTime);
+        ++this.sequence;
+        this.events.increment();
+    }
+
+    /** Puts a value in a lane and keeps its statistics current. Hold the data lock. */
+    private void putFloat(int dimension, float value) {
+        beforePut(dimension);
+        this.lanes[dimension].putFloat(value);
+        afterPut(dimension);
+    }
+
+    /** Puts a value in a lane and keeps its statistics current. Hold the data lock. */
+    private void putLong(int dimension, long value) {
+        beforePut(dimension);
+        this.lanes[dimension].putLong(value);
+        afterPut(dimension);
+    }
+
+    /** Removes the values about to leave the windows of a dimension from its statistics. */
+    private void beforePut(int dimension) {
+        WindowLane lane = this.lanes[dimension];
+        if (this.averages[dimension] != null) this.averages[dimension].evict(lane);
+        for (AggregatorSlot slot : this.aggregators[dimension]) {
+            if (slot.count == slot.windowSize)
+                slot.aggregator.onEvict(this.sequence - slot.windowSize, lane.getDouble(slot.windowSize - 1));
+            else ++slot.count;
+        }
+    }
+
+    /** Adds the value just put in the lane of a dimension to its statistics. */
+    private void afterPut(int dimension) {
+        WindowLane lane = this.lanes[dimension];
+        if (this.averages[dimension] != null) this.averages[dimension].add(lane);
+        AggregatorSlot[] slots = this.aggregators[dimension];
+        if (slots.length > 0) {
+            double value = lane.getDouble(0);
+            for (AggregatorSlot slot : slots) slot.aggregator.onAdd(this.sequence, value);
+        }
+    }
+
+    /** Collect the most recent data for each dimension; averaged if option is set. The
+     * aggregates follow the sensor dimensions, in the order they were added.
      *
      * @return The averaged sensor data, or last values if window size is just 1.
      */
     public Object[] collect() {
-        Object[] result = new Object[data.size()];
-
-        // If window size is 1, don't need to do any averaging.
-        if (windowSize == 1) for (int i = 0; i < result.length; ++i) result[i] = data.get(i).peek();
-
-        // Otherwise, let's do averaging.
-        else {
-            synchronized (this.data) {
-                Types[] types = this.meta.getDimensionTypes(); // Get the dimension types.
-                for (int i = 0; i < data.size(); ++i) { // For each dimension of the sensor.
-                    SlidingWindowQueue<Object> window = data.get(i); // Get the window of data.
-                    boolean keep = true; Object value;
-                    switch (types[i]) { // Then, depending on the dimension type, calculate average.
-                        case Float:
-                            float f_result = 0;
-                            for (int j = 0; j < window.size(); ++j) {
-                                if ((value = window.peek()) == null) { keep = false; break; }
-                                f_result += (Float) value * weights[j];
-                            }
-                            result[i] = (keep) ? f_result : null;
-                            break;
-
-                        case Double:
-                            double d_result = 0;
-                            for (int j = 0; j < window.size(); ++j) {
-                                if ((value = window.peek()) == null) { keep = false; break; }
-                                d_result += (Double) value * weights[j];
-                            }
-                            result[i] = (keep) ? d_result : null;
-                            break;
-
-                        case Integer:
-                            float i_result = 0;
-                            for (int j = 0; j < window.size(); ++j) {
-                                if ((value = window.peek()) == null) { keep = false; break; }
-                                i_result += (Integer) value * weights[j];
-                            }
-                            result[i] = (keep) ? (int) i_result : null;
-                            break;
-
-                        default: // Just use the last value.
-                            result[i] = window.peek();
-                    }
+        synchronized (this.dataLock) {
+            Object[] result = new Object[this.lanes.length + this.aggregatorOrder.size()];
+            Types[] types = this.source.getDimensionTypes(); // Get the dimension types.
+            for (int i = 0; i < lanes.length; ++i) { // For each dimension of the sensor.
+                RunningAverage average = averages[i];
+                if (average == null) { result[i] = lanes[i].getObject(0); continue; } // Just use the last value.
+                if (!average.isReady()) { result[i] = null; continue; } // Window isn't full yet.
+
+                switch (types[i]) { // Depending on the dimension type, box the average.
+                    case Float: result[i] = (float) average.get(); break;
+                    case Double: result[i] = average.get(); break;
+                    case Integer: result[i] = (int) average.get(); break;
                 }
             }
+
+            int idx = this.lanes.length; for (int i = 0; i < this.aggregatorOrder.size(); ++i) {
+                double value = this.aggregatorOrder.get(i).aggregator.get();
+                result[idx++] = Double.isNaN(value) ? null : value;
+            }
+            return result;
+        }
+    }
+
+    /** Collects the same values as collect() straight into frame columns, without boxing.
+     *
+     * @param frame The frame to write to.
+     * @param offset The column of the first dimension of this sensor.
+     * @return The time of the newest event, or Long.MIN_VALUE if there was none.
+     */
+    long collect(SampleFrame frame, int offset) {
+        synchronized (this.dataLock) {
+            for (int i = 0; i < lanes.length; ++i) {
+                RunningAverage average = averages[i];
+                if (average == null) lanes[i].writeNewest(frame, offset + i); // Just use the last value.
+                else if (!average.isReady()) frame.setNull(offset + i); // Window isn't full yet.
+                else frame.setDouble(offset + i, average.get()); // The frame casts to the dimension type.
+            }
+
+            int column = offset + this.lanes.length;
+            for (int i = 0; i < this.aggregatorOrder.size(); ++i, ++column) {
+                double value = this.aggregatorOrder.get(i).aggregator.get();
+                if (Double.isNaN(value)) frame.setNull(column); else frame.setDouble(column, value);
+            }
+            return (this.times.size() > 0) ? this.times.getLong(0) : Long.MIN_VALUE;
+        }
+    }
+
+    /** Resamples the raw sensor values at an event time straight into frame columns. Averaging
+     * is skipped, since the values are already aligned; the aggregates are their current values.
+     *
+     * @param frame The frame to write to.
+     * @param offset The column of the first dimension of this sensor.
+     * @param time The event time to sample at, in milliseconds.
+     * @param mode How to estimate values between events.
+     */
+    void sampleAt(SampleFrame frame, int offset, long time, Interpolation mode) {
+        synchronized (this.dataLock) {
+            // Find the latest event at or before the time, if it is still held.
+            int held = this.times.size(), age = 0;
+            while (age < held && this.times.getLong(age) > time) ++age;
+
+            Types[] types = this.source.getDimensionTypes();
+            for (int i = 0; i < this.lanes.length; ++i) {
+                boolean real = types[i] == Types.Float || types[i] == Types.Double;
+                if (mode == Interpolation.LINEAR && real && age > 0 && age < held) {
+                    long t0 = this.times.getLong(age), t1 = this.times.getLong(age - 1);
+                    double v0 = this.lanes[i].getDouble(age), v1 = this.lanes[i].getDouble(age - 1);
+                    double fraction = (t1 > t0) ? (double) (time - t0) / (t1 - t0) : 1.0;
+                    frame.setDouble(offset + i, v0 + (v1 - v0) * fraction);
+                } else this.lanes[i].writeAt(frame, offset + i, age); // Null if older than the history.
+            }
+
+            int column = offset + this.lanes.length;
+            for (int i = 0; i < this.aggregatorOrder.size(); ++i, ++column) {
+                double value = this.aggregatorOrder.get(i).aggregator.get();
+                if (Double.isNaN(value)) frame.setNull(column); else frame.setDouble(column, value);
+            }
+        }
+    }
+
+    /** Grabs the event time of the latest update.
+     *
+     * @return The time in milliseconds, or Long.MIN_VALUE if there is no data.
+     */
+    public long getLastEventTime() {
+        synchronized (this.dataLock) {
+            return (this.times.size() > 0) ? this.times.getLong(0) : Long.MIN_VALUE;
+        }
+    }
+
+    /** Keeps at least a number of events for resampling with sampleAt(); destroys the current
+     * sensor data in memory. The history must cover the alignment delay at the sensor rate.
+     *
+     * @param samples The minimum number of events to keep.
+     */
+    public void setHistory(int samples) {
+        synchronized (this.dataLock) {
+            this.history = (samples <= 1) ? 1 : samples;
+            resetWindows();
         }
-        return result;
     }
 
     /** Allows smoothing over a number of samples; destroys the current sensor data in memory.
@@ -138,86 +423,102 @@ public abstract class Sensor {
      * @param weighting The type of weighting to use.
      * */
     public void setAveraging(int windowSize, AverageWeighting weighting) {
-        this.windowSize = (windowSize <= 1) ? 1 : windowSize;
-        this.weighting = (weighting != null) ? weighting : AverageWeighting.EQUAL;
-        this.weights = this.weighting.generateWeights(this.windowSize);
-        this.data.clear(); for (int i = 0; i < this.meta.getDimension(); ++i)
-            this.data.add(new SlidingWindowQueue<Object>(windowSize));
+        synchronized (this.dataLock) {
+            this.windowSize = (windowSize <= 1) ? 1 : windowSize;
+            this.weighting = (weighting != null) ? weighting : AverageWeighting.EQUAL;
+            resetWindows();
+        }
     }
 
-    class SlidingWindowQueue<T> {
-        private Object[] queue;
-        private int head; // Always positioned at the first item.
-        private int tail; // Always positioned one after the last item.
-        private int size;
-
-        private final Object cursorLock = new Object();
-
-        /** Constructs an instance of a SlidingWindowQueue.
-         *
-         * @param windowSize The number of items to store at any given time.
-         */
-        public SlidingWindowQueue(int windowSize) {
-            this.queue = new Object[windowSize];
-            this.head = this.tail = 0;
-            this.size = 0;
+    /** Attaches an aggregator to a numeric dimension; destroys the current sensor data in memory.
+     * Add aggregators before handing the sensor to a Collector, since they change the meta data.
+     *
+     * @param dimension The index of the dimension to aggregate.
+     * @param windowSize The number of samples to aggregate over.
+     * @param aggregator The aggregator, see WindowAggregators.
+     * @return True if attached, false if the dimension doesn't exist or isn't numeric.
+     */
+    public boolean addAggregator(int dimension, int windowSize, WindowAggregator aggregator) {
+        Types[] types = this.source.getDimensionTypes();
+        if (aggregator == null || dimension < 0 || dimension >= types.length) return false;
+        if (types[dimension] != Types.Float && types[dimension] != Types.Double
+                && types[dimension] != Types.Integer && types[dimension] != Types.Long) {
+            Log.e("Sensor", "Cannot aggregate non-numeric dimension " + this.source.getDimensionLabel(dimension) + ".");
+            return false;
         }
 
-        /** Adds an item to the tail of the queue.
-         *
-         * @param item The item to add.
-         */
-        public synchronized void add(T item) {
-            queue[tail] = item; // Place item.
-            tail = ++tail % queue.length;
-            if (size == queue.length) head = tail;
-            else ++size;
-
-            if (size > queue.length) Log.e("SlidingWindowQueue", "Size is greater than expected in add()!");
+        synchronized (this.dataLock) {
+            AggregatorSlot slot = new AggregatorSlot(dimension, (windowSize <= 1) ? 1 : windowSize, aggregator);
+            AggregatorSlot[] slots = Arrays.copyOf(this.aggregators[dimension], this.aggregators[dimension].length + 1);
+            slots[slots.length - 1] = slot;
+            this.aggregators[dimension] = slots;
+            this.aggregatorOrder.add(slot);
+            refreshMetaData();
+            resetWindows();
         }
+        return true;
+    }
 
-        /** Retrieves and removes the first item from the queue.
-         *
-         * @return The item at the head of the queue.
-         */
-        public synchronized T poll() {
-            if (size == 0) return null;
-            T result = null; try { result = (T) queue[head]; // Save the item at the head.
-            } catch (ClassCastException e) { Log.e("SlidingWindowQueue", "Problem casting item in poll()."); }
-            queue[head] = null; // Nullify spot in queue.
-            head = ++head % queue.length; // Shift head up.
-            --size; // Update size.
-            return result; // Return saved item.
+    /** Detaches all aggregators; destroys the current sensor data in memory. */
+    public void clearAggregators() {
+        synchronized (this.dataLock) {
+            for (int i = 0; i < this.aggregators.length; ++i) this.aggregators[i] = new AggregatorSlot[0];
+            this.aggregatorOrder.clear();
+            refreshMetaData();
+            resetWindows();
         }
+    }
 
-        /** Retrieves but does not remove the first item from the queue.
-         *
-         * @return The item at the head of the queue.
-         */
-        public synchronized T peek() {
-            if (size == 0) return null;
-            T result = null; try { result = (T) queue[head];
-            } catch (ClassCastException e) { Log.e("SlidingWindowQueue", "Problem casting item in peek()."); }
-            return result;
+    /** Rebuilds the lanes and statistics for the current options. Hold the data lock. */
+    private void resetWindows() {
+        // Lanes must be long enough for the average, every aggregator window and the history.
+        int capacity = Math.max(this.windowSize, this.history);
+        for (AggregatorSlot slot : this.aggregatorOrder) capacity = Math.max(capacity, slot.windowSize);
+        this.times = new WindowLane.LongLane(capacity);
+
+        Types[] types = this.source.getDimensionTypes();
+        this.lanes = new WindowLane[this.source.getDimension()];
+        this.averages = new RunningAverage[this.lanes.length];
+        for (int i = 0; i < this.lanes.length; ++i) {
+            this.lanes[i] = WindowLane.create(types[i], capacity);
+
+            // Only Float, Double and Integer dimensions are averaged, others report the last value.
+            boolean averaged = types[i] == Types.Float || types[i] == Types.Double || types[i] == Types.Integer;
+            if (this.windowSize > 1 && averaged) this.averages[i] = new RunningAverage(this.windowSize, this.weighting);
         }
 
-        /** Retrieves but does not remove the ith item in the queue.
-         *
-         * @param i The zero-indexed position of the item.
-         * @return The item at the specified position, or null if does not exist.
-         */
-        public synchronized T getAt(int i) {
-            T result = null; try { result = (T) queue[(head + i) % queue.length]; }
-            catch (ClassCastException e) { Log.e("SlidingWindowQueue", "Problem casting item in getAt(i)."); }
-            return result;
+        for (AggregatorSlot slot : this.aggregatorOrder) { slot.aggregator.reset(slot.windowSize); slot.count = 0; }
+        this.sequence = 0;
+    }
+
+    /** Publishes meta data describing the sensor dimensions followed by the aggregates. */
+    private void refreshMetaData() {
+        int size = this.source.getDimension() + this.aggregatorOrder.size();
+        String[] labels = new String[size];
+        Types[] types = new Types[size];
+
+        int i = 0; for (; i < this.source.getDimension(); ++i) {
+            labels[i] = this.source.getDimensionLabel(i);
+            types[i] = this.source.getDimensionTypes()[i];
         }
+        for (AggregatorSlot slot : this.aggregatorOrder) {
+            labels[i] = this.source.getDimensionLabel(slot.dimension) + "_" + slot.aggregator.getLabel();
+            types[i++] = Types.Double;
+        }
+        this.meta = new SensorMetaData(this.source.getMainLabel(), labels, types, size);
+    }
 
-        /** Grabs the overall size of the queue (window).
-         *
-         * @return Window size, or queue length.
-         */
-        public int size() {
-            return queue.length;
+    /** Binds an aggregator to a dimension and window size. */
+    private static class AggregatorSlot {
+        final int dimension;
+        final int windowSize;
+        final WindowAggregator aggregator;
+        int count; // Values currently in the window.
+
+        AggregatorSlot(int dimension, int windowSize, WindowAggregator aggregator) {
+            this.dimension = dimension;
+            this.windowSize = windowSize;
+            this.aggregator = aggregator;
         }
     }
 
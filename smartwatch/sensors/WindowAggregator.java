@@ -0,0 +1,43 @@
+package reuiot2015.smartwatch.sensors;
+
+/** Computes a statistic over the sliding window of one numeric sensor dimension.
+ *
+ * Implementations are updated incrementally by the owning Sensor: for each new value,
+ * onEvict() is called first with the value leaving the window (once the window is full),
+ * then onAdd() with the new value. Sequence numbers increase by one per update, so the
+ * evicted sequence is always the added sequence minus the window size. Calls are made
+ * while the sensor holds its data lock, so implementations need no locking of their own.
+ * See WindowAggregators for the built in implementations. */
+public interface WindowAggregator {
+    /** Grabs the label of the statistic, appended to the dimension label (e.g. "x_min").
+     *
+     * @return The label of the statistic.
+     */
+    String getLabel();
+
+    /** Clears all state and prepares for a window of the given size.
+     *
+     * @param windowSize The number of samples in the window.
+     */
+    void reset(int windowSize);
+
+    /** Called when a value leaves the full window.
+     *
+     * @param sequence The sequence number the value was added with.
+     * @param value The value leaving the window.
+     */
+    void onEvict(long sequence, double value);
+
+    /** Called when a value enters the window.
+     *
+     * @param sequence The sequence number of the value.
+     * @param value The value entering the window.
+     */
+    void onAdd(long sequence, double value);
+
+    /** Grabs the current value of the statistic.
+     *
+     * @return The statistic over the values in the window, or NaN if there are none.
+     */
+    double get();
+}
@@ -0,0 +1,273 @@
+package reuiot2015.smartwatch.sensors;
+
+import java.util.Arrays;
+
+/** The built in WindowAggregator implementations. Every factory method returns a new
+ * instance, an aggregator must only be attached to one sensor dimension. */
+public final class WindowAggregators {
+    private WindowAggregators() { }
+
+    /** @return An aggregator reporting the window minimum. */
+    public static WindowAggregator min() { return new Extreme("min", false); }
+
+    /** @return An aggregator reporting the window maximum. */
+    public static WindowAggregator max() { return new Extreme("max", true); }
+
+    /** @return An aggregator reporting the sample variance of the window. */
+    public static WindowAggregator variance() { return new Variance("var", false); }
+
+    /** @return An aggregator reporting the sample standard deviation of the window. */
+    public static WindowAggregator standardDeviation() { return new Variance("std", true); }
+
+    /** @return An aggregator reporting the median of the window. */
+    public static WindowAggregator median() { return new Median(); }
+
+    /** Creates an exponential moving average; it ignores the window and weighs all history.
+     *
+     * @param alpha The smoothing factor, in (0, 1].
+     * @return An aggregator reporting the exponential moving average.
+     */
+    public static WindowAggregator ema(double alpha) { return new ExponentialAverage(alpha); }
+
+    /** Tracks the minimum or maximum with a monotonic deque, amortized O(1) per value. */
+    static final class Extreme implements WindowAggregator {
+        private final String label;
+        private final boolean max;
+
+        // Ring buffer deque of candidates, values are monotonic from head to tail.
+        private long[] sequences = new long[1];
+        private double[] values = new double[1];
+        private int head, size;
+
+        Extreme(String label, boolean max) {
+            this.label = label;
+            this.max = max;
+        }
+
+        @Override public String getLabel() { return this.label; }
+
+        @Override
+        public void reset(int windowSize) {
+            this.sequences = new long[windowSize];
+            this.values = new double[windowSize];
+            this.head = this.size = 0;
+        }
+
+        @Override
+        public void onEvict(long sequence, double value) {
+            if (size > 0 && sequences[head] == sequence) { // Only the head can be the oldest.
+                head = (head + 1) % values.length;
+                --size;
+            }
+        }
+
+        @Override
+        public void onAdd(long sequence, double value) {
+            // Drop candidates from the tail that can never be the extreme again.
+            while (size > 0) {
+                double last = values[(head + size - 1) % values.length];
+                if (max ? last <= value : last >= value) --size;
+                else break;
+            }
+            int tail = (head + size) % values.length;
+            sequences[tail] = sequence;
+            values[tail] = value;
+            ++size;
+        }
+
+        @Override public double get() { return (size > 0) ? values[head] : Double.NaN; }
+    }
+
+    /** Welford's running variance, extended to remove values leaving the window. */
+    static final class Variance implements WindowAggregator {
+        private final String label;
+        private final boolean root;
+
+        private int count;
+        private double mean, m2;
+
+        Variance(String label, boolean root) {
+            this.label = label;
+            this.root = root;
+        }
+
+        @Override public String getLabel() { return this.label; }
+
+        @Override
+        public void reset(int windowSize) {
+            this.count = 0;
+            this.mean = this.m2 = 0;
+        }
+
+        @Override
+        public void onEvict(long sequence, double value) {
+            if (count <= 1) { reset(0); return; }
+            double delta = value - mean;
+            mean -= delta / --count;
+            m2 -= delta * (value - mean);
+            if (m2 < 0) m2 = 0; // Guard against rounding below zero.
+        }
+
+        @Override
+        public void onAdd(long sequence, double value) {
+            double delta = value - mean;
+            mean += delta / ++count;
+            m2 += delta * (value - mean);
+        }
+
+        @Override
+        public double get() {
+            if (count == 0) return Double.NaN;
+            double variance = (count > 1) ? m2 / (count - 1) : 0.0;
+            return root ? Math.sqrt(variance) : variance;
+        }
+    }
+
+    /** Exponential moving average, seeded with the first value. */
+    static final class ExponentialAverage implements WindowAggregator {
+        private final double alpha;
+        private double ema = Double.NaN;
+
+        ExponentialAverage(double alpha) {
+            this.alpha = (alpha <= 0 || alpha > 1) ? 1.0 : alpha;
+        }
+
+        @Override public String getLabel() { return "ema"; }
+        @Override public void reset(int windowSize) { this.ema = Double.NaN; }
+        @Override public void onEvict(long sequence, double value) { /** History decays, nothing to remove. */ }
+
+        @Override
+        public void onAdd(long sequence, double value) {
+            ema = Double.isNaN(ema) ? value : ema + alpha * (value - ema);
+        }
+
+        @Override public double get() { return this.ema; }
+    }
+
+    /** Streaming median over two indexed heaps, O(log n) per value.
+     *
+     * Each window position (sequence modulo window size) is a slot. The lower half of the
+     * window sits in a max-heap and the upper half in a min-heap, both holding slots and
+     * tracking where each slot lives so an evicted value is removed without searching. */
+    static final class Median implements WindowAggregator {
+        private double[] values = new double[1]; // Value of each slot.
+        private IndexedHeap lower = new IndexedHeap(1, true, values);
+        private IndexedHeap upper = new IndexedHeap(1, false, values);
+
+        @Override public String getLabel() { return "median"; }
+
+        @Override
+        public void reset(int windowSize) {
+            this.values = new double[windowSize];
+            this.lower = new IndexedHeap(windowSize, true, values);
+            this.upper = new IndexedHeap(windowSize, false, values);
+        }
+
+        @Override
+        public void onEvict(long sequence, double value) {
+            int slot = (int) (sequence % values.length);
+            if (lower.contains(slot)) lower.remove(slot);
+            else if (upper.contains(slot)) upper.remove(slot);
+            rebalance();
+        }
+
+        @Override
+        public void onAdd(long sequence, double value) {
+            int slot = (int) (sequence % values.length);
+            values[slot] = value;
+            if (lower.size() == 0 || value <= values[lower.top()]) lower.push(slot);
+            else upper.push(slot);
+            rebalance();
+        }
+
+        /** Keeps the lower heap equal to or one larger than the upper heap. */
+        private void rebalance() {
+            if (lower.size() > upper.size() + 1) upper.push(lower.pop());
+            else if (upper.size() > lower.size()) lower.push(upper.pop());
+        }
+
+        @Override
+        public double get() {
+            if (lower.size() == 0) return Double.NaN;
+            if (lower.size() > upper.size()) return values[lower.top()];
+            return (values[lower.top()] + values[upper.top()]) / 2.0;
+        }
+    }
+
+    /** A binary heap of slots ordered by their values, supporting removal by slot. */
+    static final class IndexedHeap {
+        private final int[] heap; // Slots in heap order.
+        private final int[] positions; // Heap position of each slot, or -1.
+        private final boolean max;
+        private final double[] values;
+        private int size;
+
+        IndexedHeap(int capacity, boolean max, double[] values) {
+            this.heap = new int[capacity];
+            this.positions = new int[capacity];
+            Arrays.fill(this.positions, -1);
+            this.max = max;
+            this.values = values;
+        }
+
+        int size() { return this.size; }
+        int top() { return this.heap[0]; }
+        boolean contains(int slot) { return this.positions[slot] >= 0; }
+
+        void push(int slot) {
+            heap[size] = slot;
+            positions[slot] = size;
+            siftUp(size++);
+        }
+
+        int pop() {
+            int slot = heap[0];
+            remove(slot);
+            return slot;
+        }
+
+        void remove(int slot) {
+            int position = positions[slot];
+            positions[slot] = -1;
+            if (position == --size) return; // Was the last element.
+            int moved = heap[position] = heap[size];
+            positions[moved] = position;
+            siftUp(position);
+            siftDown(positions[moved]);
+        }
+
+        /** @return True if the slot at position a belongs above the slot at position b. */
+        private boolean above(int a, int b) {
+            double va = values[heap[a]], vb = values[heap[b]];
+            return max ? va > vb : va < vb;
+        }
+
+        private void swap(int a, int b) {
+            int slot = heap[a];
+            heap[a] = heap[b];
+            heap[b] = slot;
+            positions[heap[a]] = a;
+            positions[heap[b]] = b;
+        }
+
+        private void siftUp(int position) {
+            while (position > 0) {
+                int parent = (position - 1) / 2;
+                if (!above(position, parent)) break;
+                swap(position, parent);
+                position = parent;
+            }
+        }
+
+        private void siftDown(int position) {
+            while (true) {
+                int child = 2 * position + 1;
+                if (child >= size) break;
+                if (child + 1 < size && above(child + 1, child)) ++child;
+                if (!above(child, position)) break;
+                swap(position, child);
+                position = child;
+            }
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package reuiot2015.smartwatch.sensors;
+
+import java.util.Arrays;
+
+import reuiot2015.smartwatch.platform.Log;
+
+/** A fixed capacity ring buffer holding the recent values of one sensor dimension.
+ *
+ * Numeric dimensions are stored in a primitive array matching their Types value, so
+ * that adding a value never allocates. Other types (String, Character, Boolean) are
+ * kept as object references. Lanes are not thread safe, the owning Sensor locks them. */
+abstract class WindowLane {
+    private final int capacity;
+    private int next; // Always positioned one after the newest item.
+    private int size;
+
+    /** Constructs a lane with the given capacity.
+     *
+     * @param capacity The number of values to store at any given time.
+     */
+    WindowLane(int capacity) {
+        this.capacity = (capacity <= 1) ? 1 : capacity;
+        this.next = this.size = 0;
+    }
+
+    /** Creates the appropriate lane for a dimension type.
+     *
+     * @param type The type of data in the dimension.
+     * @param capacity The number of values to store.
+     * @return The new lane.
+     */
+    static WindowLane create(Types type, int capacity) {
+        switch (type) {
+            case Float: return new FloatLane(capacity);
+            case Double: return new DoubleLane(capacity);
+            case Integer: return new IntLane(capacity);
+            case Long: return new LongLane(capacity);
+            default: return new ObjectLane(capacity);
+        }
+    }
+
+    /** Claims the slot for a new value, overwriting the oldest value when full.
+     *
+     * @return The array index to write the new value to.
+     */
+    protected final int advance() {
+        int slot = next;
+        next = (next + 1) % capacity;
+        if (size < capacity) ++size;
+        return slot;
+    }
+
+    /** Converts an age to an array index.
+     *
+     * @param age How many values ago the value was added (0 is the newest).
+     * @return The array index of the value.
+     */
+    protected final int indexOf(int age) {
+        return (next - 1 - age + 2 * capacity) % capacity;
+    }
+
+    /** Grabs the number of values currently held.
+     *
+     * @return The number of values in the lane, at most the capacity.
+     */
+    final int size() { return this.size; }
+
+    /** Grabs the maximum number of values held.
+     *
+     * @return The capacity of the lane.
+     */
+    final int capacity() { return this.capacity; }
+
+    /** Removes all values from the lane. */
+    void clear() { this.next = this.size = 0; }
+
+    /** Checks if the lane stores a numeric primitive.
+     *
+     * @return True if getDouble() can be used on this lane.
+     */
+    abstract boolean isNumeric();
+
+    abstract void putFloat(float value);
+    abstract void putDouble(double value);
+    abstract void putLong(long value);
+    abstract void putObject(Object value);
+
+    /** Grabs a numeric value as a double.
+     *
+     * @param age How many values ago the value was added (0 is the newest).
+     * @return The value, or NaN if the lane is not numeric.
+     */
+    abstract double getDouble(int age);
+
+    /** Grabs a value boxed as the Types of the lane.
+     *
+     * @param age How many values ago the value was added (0 is the newest).
+     * @return The value, or null if it doesn't exist.
+     */
+    abstract Object getObject(int age);
+
+    /** Writes the newest value to a frame column without boxing.
+     *
+     * @param frame The frame to write to.
+     * @param column The column of this lane's dimension.
+     */
+    final void writeNewest(SampleFrame frame, int column) { writeAt(frame, column, 0); }
+
+    /** Writes a value to a frame column without boxing.
+     *
+     * @param frame The frame to write to.
+     * @param column The column of this lane's dimension.
+     * @param age How many values ago the value was added (0 is the newest), null if not held.
+     */
+    abstract void writeAt(SampleFrame frame, int column, int age);
+
+    /** Stores Float dimensions. */
+    static final class FloatLane extends WindowLane {
+        private final float[] values;
+
+        FloatLane(int capacity) { super(capacity); this.values = new float[capacity()]; }
+
+        @Override boolean isNumeric() { return true; }
+        @Override void putFloat(float value) { values[advance()] = value; }
+        @Override void putDouble(double value) { values[advance()] = (float) value; }
+        @Override void putLong(long value) { values[advance()] = (float) value; }
+        @Override void putObject(Object value) {
+            if (value instanceof Number) putFloat(((Number) value).floatValue());
+            else { Log.e("WindowLane", "Non-numeric value in Float lane."); putFloat(Float.NaN); }
+        }
+
+        @Override double getDouble(int age) { return values[indexOf(age)]; }
+        @Override Object getObject(int age) { return (age < size()) ? values[indexOf(age)] : null; }
+        @Override void writeAt(SampleFrame frame, int column, int age) {
+            if (age >= size()) frame.setNull(column); else frame.setFloat(column, values[indexOf(age)]);
+        }
+
+        /** Grabs a value without widening.
+         *
+         * @param age How many values ago the value was added (0 is the newest).
+         * @return The value.
+         */
+        float getFloat(int age) { return values[indexOf(age)]; }
+    }
+
+    /** Stores Double dimensions. */
+    static final class DoubleLane extends WindowLane {
+        private final double[] values;
+
+        DoubleLane(int capacity) { super(capacity); this.values = new double[capacity()]; }
+
+        @Override boolean isNumeric() { return true; }
+        @Override void putFloat(float value) { values[advance()] = value; }
+        @Override void putDouble(double value) { values[advance()] = value; }
+        @Override void putLong(long value) { values[advance()] = value; }
+        @Override void putObject(Object value) {
+            if (value instanceof Number) putDouble(((Number) value).doubleValue());
+            else { Log.e("WindowLane", "Non-numeric value in Double lane."); putDouble(Double.NaN); }
+        }
+
+        @Override double getDouble(int age) { return values[indexOf(age)]; }
+        @Override Object getObject(int age) { return (age < size()) ? values[indexOf(age)] : null; }
+        @Override void writeAt(SampleFrame frame, int column, int age) {
+            if (age >= size()) frame.setNull(column); else frame.setDouble(column, values[indexOf(age)]);
+        }
+    }
+
+    /** Stores Integer dimensions. */
+    static final class IntLane extends WindowLane {
+        private final int[] values;
+
+        IntLane(int capacity) { super(capacity); this.values = new int[capacity()]; }
+
+        @Override boolean isNumeric() { return true; }
+        @Override void putFloat(float value) { values[advance()] = (int) value; }
+        @Override void putDouble(double value) { values[advance()] = (int) value; }
+        @Override void putLong(long value) { values[advance()] = (int) value; }
+        @Override void putObject(Object value) {
+            if (value instanceof Number) putLong(((Number) value).intValue());
+            else { Log.e("WindowLane", "Non-numeric value in Integer lane."); putLong(0); }
+        }
+
+        @Override double getDouble(int age) { return values[indexOf(age)]; }
+        @Override Object getObject(int age) { return (age < size()) ? values[indexOf(age)] : null; }
+        @Override void writeAt(SampleFrame frame, int column, int age) {
+            if (age >= size()) frame.setNull(column); else frame.setLong(column, values[indexOf(age)]);
+        }
+    }
+
+    /** Stores Long dimensions. */
+    static final class LongLane extends WindowLane {
+        private final long[] values;
+
+        LongLane(int capacity) { super(capacity); this.values = new long[capacity()]; }
+
+        @Override boolean isNumeric() { return true; }
+        @Override void putFloat(float value) { values[advance()] = (long) value; }
+        @Override void putDouble(double value) { values[advance()] = (long) value; }
+        @Override void putLong(long value) { values[advance()] = value; }
+        @Override void putObject(Object value) {
+            if (value instanceof Number) putLong(((Number) value).longValue());
+            else { Log.e("WindowLane", "Non-numeric value in Long lane."); putLong(0); }
+        }
+
+        @Override double getDouble(int age) { return values[indexOf(age)]; }
+        @Override Object getObject(int age) { return (age < size()) ? values[indexOf(age)] : null; }
+        @Override void writeAt(SampleFrame frame, int column, int age) {
+            if (age >= size()) frame.setNull(column); else frame.setLong(column, values[indexOf(age)]);
+        }
+
+        /** Grabs a value without conversion.
+         *
+         * @param age How many values ago the value was added (0 is the newest).
+         * @return The value.
+         */
+        long getLong(int age) { return values[indexOf(age)]; }
+    }
+
+    /** Stores String, Character and Boolean dimensions as references. */
+    static final class ObjectLane extends WindowLane {
+        private final Object[] values;
+
+        ObjectLane(int capacity) { super(capacity); this.values = new Object[capacity()]; }
+
+        @Override boolean isNumeric() { return false; }
+        @Override void putFloat(float value) { values[advance()] = value; }
+        @Override void putDouble(double value) { values[advance()] = value; }
+        @Override void putLong(long value) { values[advance()] = value; }
+        @Override void putObject(Object value) { values[advance()] = value; }
+
+        @Override double getDouble(int age) { return Double.NaN; }
+        @Override Object getObject(int age) { return (age < size()) ? values[indexOf(age)] : null; }
+        @Override void writeAt(SampleFrame frame, int column, int age) { frame.setObject(column, getObject(age)); }
+
+        @Override void clear() {
+            super.clear();
+            Arrays.fill(values, null); // Don't hold on to stale references.
+        }
+    }
+}
@@ -23,7 +23,7 @@ public class AccelerometerSensor extends MSBandSensor {
     private final BandAccelerometerEventListener listener = new BandAccelerometerEventListener() {
         @Override
         public void onBandAccelerometerChanged(BandAccelerometerEvent evt) {
-            update(evt.getAccelerationX(), evt.getAccelerationY(), evt.getAccelerationZ());
+            updateAt(evt.getTimestamp(), evt.getAccelerationX(), evt.getAccelerationY(), evt.getAccelerationZ());
         }
     };
 
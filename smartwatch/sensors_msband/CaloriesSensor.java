@@ -22,7 +22,7 @@ public class CaloriesSensor extends MSBandSensor {
     private final BandCaloriesEventListener listener = new BandCaloriesEventListener() {
         @Override
         public void onBandCaloriesChanged(BandCaloriesEvent e) {
-            update(e.getCalories());
+            updateAt(e.getTimestamp(), e.getCalories());
         }
     };
 
@@ -22,7 +22,7 @@ public class ContactSensor extends MSBandSensor {
     private final BandContactEventListener listener = new BandContactEventListener() {
         @Override
         public void onBandContactChanged(BandContactEvent e) {
-            update(e.getContactState().toString());
+            updateAt(e.getTimestamp(), e.getContactState().toString());
         }
     };
 
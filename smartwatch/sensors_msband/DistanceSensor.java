@@ -22,7 +22,7 @@ public class DistanceSensor extends MSBandSensor {
     private final BandDistanceEventListener listener = new BandDistanceEventListener() {
         @Override
         public void onBandDistanceChanged(BandDistanceEvent e) {
-            update(e.getPace(), e.getSpeed(), e.getTotalDistance(), e.getMotionType().toString());
+            updateAt(e.getTimestamp(), e.getPace(), e.getSpeed(), e.getTotalDistance(), e.getMotionType().toString());
         }
     };
 
@@ -23,7 +23,7 @@ public class GyroscopeSensor extends MSBandSensor {
     private final BandGyroscopeEventListener listener = new BandGyroscopeEventListener() {
         @Override
         public void onBandGyroscopeChanged(BandGyroscopeEvent e) {
-            update(e.getAccelerationX(), e.getAccelerationY(), e.getAccelerationZ(), e.getAngularVelocityX(), e.getAngularVelocityY(), e.getAngularVelocityZ());
+            updateAt(e.getTimestamp(), e.getAccelerationX(), e.getAccelerationY(), e.getAccelerationZ(), e.getAngularVelocityX(), e.getAngularVelocityY(), e.getAngularVelocityZ());
         }
     };
 
@@ -22,7 +22,7 @@ public class HeartRateSensor extends MSBandSensor {
     private final BandHeartRateEventListener listener = new BandHeartRateEventListener() {
         @Override
         public void onBandHeartRateChanged(BandHeartRateEvent e) {
-            update(e.getHeartRate(), e.getQuality().toString());
+            updateAt(e.getTimestamp(), e.getHeartRate(), e.getQuality().toString());
         }
     };
 
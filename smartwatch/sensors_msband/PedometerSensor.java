@@ -22,7 +22,7 @@ public class PedometerSensor extends MSBandSensor {
     private final BandPedometerEventListener listener = new BandPedometerEventListener() {
         @Override
         public void onBandPedometerChanged(BandPedometerEvent e) {
-            update(e.getTotalSteps());
+            updateAt(e.getTimestamp(), e.getTotalSteps());
         }
     };
 
@@ -22,7 +22,7 @@ public class SkinTemperatureSensor extends MSBandSensor {
     private final BandSkinTemperatureEventListener listener = new BandSkinTemperatureEventListener() {
         @Override
         public void onBandSkinTemperatureChanged(BandSkinTemperatureEvent bandSkinTemperatureEvent) {
-            update(bandSkinTemperatureEvent.getTemperature());
+            updateAt(bandSkinTemperatureEvent.getTimestamp(), bandSkinTemperatureEvent.getTemperature());
         }
     };
 
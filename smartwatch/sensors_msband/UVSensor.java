@@ -22,7 +22,7 @@ public class UVSensor extends MSBandSensor {
     private final BandUVEventListener listener = new BandUVEventListener() {
         @Override
         public void onBandUVChanged(BandUVEvent bandUVEvent) {
-            update(bandUVEvent.getUVIndexLevel().toString());
+            updateAt(bandUVEvent.getTimestamp(), bandUVEvent.getUVIndexLevel().toString());
         }
     };
 
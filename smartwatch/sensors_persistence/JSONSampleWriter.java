@@ -1,36 +1,39 @@
 package reuiot2015.smartwatch.sensors_persistence;
 
-import android.os.Environment;
-import android.util.Log;
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.Writer;
 import java.util.IllegalFormatException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import reuiot2015.smartwatch.platform.Log;
 
 /** Stores samples collected from a Collector into a local file.
+ *
+ * The file is a single JSON object, {"UUID": ..., "samples": [{label: value, ...}, ...]}, in
+ * the same text org.json would produce for it. It is streamed: the opening is written when
+ * the writer is constructed, each batch is written as it is received, and the closing on
+ * release(), so memory use doesn't grow with the length of the session.
  *
  * @author Mario A. Gutierrez (mag262@txstate.edu)
  */
 public class JSONSampleWriter implements SampleAccumulator.SampleAccumulationListener {
     private final String[] header;
 
-    private FileWriter writer;
-    private JSONObject jsonObject;
-    private JSONArray jsonSampleArray;
+    private Writer writer;
+    private boolean firstSample = true;
+    private final LinkedHashMap<String, String> members = new LinkedHashMap<>(); // Reused per sample.
+    private final StringBuilder sb = new StringBuilder();
 
     public JSONSampleWriter(String[] header, String uuid, String filename) {
         this.header = header;
 
-        if (Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState())) {
-            // Get the public directory to store to.
-            File publicDirectory = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOCUMENTS), SmartWatchValues.ALBUM_NAME + "/data");
+        if (SmartWatchValues.isDataDirectoryAvailable()) {
+            // Get the data directory to store to.
+            File publicDirectory = SmartWatchValues.getDataDirectory();
             Log.d("JSONSampleWriter", "Save path is: " + publicDirectory.getAbsolutePath());
 
             if (publicDirectory.mkdirs()) Log.d("JSONSampleWriter", "Created file structure.");
@@ -38,54 +41,100 @@ public class JSONSampleWriter implements SampleAccumulator.SampleAccumulationLis
 
             try {
                 // Open a writer to write to the sample file.
-                writer = new FileWriter(new File(publicDirectory, filename));
+                writer = new BufferedWriter(new FileWriter(new File(publicDirectory, filename)));
             } catch (IOException e) {  Log.e("JSONSampleWriter", e.getMessage()); }
         } else {
             Log.d("JSONSampleWriter", "External media is not mounted.");
         }
 
-        jsonObject = new JSONObject();
-        try { jsonObject.put("UUID", uuid);
-        } catch (JSONException e) {
-            Log.e("JSONSampleWriter", "Could not write UUID to JSON Object. " + e.getMessage());
-        }
-
-        jsonSampleArray = new JSONArray();
+        // Open the object; a null UUID is left out, as JSONObject.put() would.
+        sb.append('{');
+        if (uuid != null) quote(quote(sb, "UUID").append(':'), uuid).append(',');
+        quote(sb, "samples").append(":[");
+        write(sb);
     }
 
     @Override
-    public boolean receiveAccumulatedSamples(String[][] samples) {
+    public synchronized boolean receiveAccumulatedSamples(String[][] samples) {
+        int complete = 0; // Length of the text of the samples fully formatted.
         try {
             synchronized (samples) {
                 for (String[] sample : samples) {
-                    JSONObject jsonSample = new JSONObject();
+                    // Gather the members the way JSONObject.put() does: a repeated label keeps
+                    // its first position and takes the last value, and a null value removes it.
+                    members.clear();
                     for (int j = 0; j < sample.length; ++j) {
-                        try { jsonSample.put(header[j], sample[j]);
-                        } catch (JSONException e) {
-                            Log.e("JSONSampleWriter", e.getMessage());
+                        if (header[j] == null) {
+                            Log.e("JSONSampleWriter", "Names must be non-null");
+                            continue;
                         }
+                        if (sample[j] == null) members.remove(header[j]);
+                        else members.put(header[j], sample[j]);
                     }
-                    jsonSampleArray.put(jsonSample);
-                }
 
+                    sb.append(firstSample ? "{" : ",{");
+                    boolean first = true;
+                    for (Map.Entry<String, String> member : members.entrySet()) {
+                        if (!first) sb.append(',');
+                        quote(sb, member.getKey()).append(':');
+                        quote(sb, member.getValue());
+                        first = false;
+                    }
+                    sb.append('}');
+                    firstSample = false;
+                    complete = sb.length();
+                }
             }
-            return true;
+            return write(sb);
         } catch (IllegalFormatException | NullPointerException e) {
             Log.e("JSONSampleWriter", e.getMessage());
         }
+        sb.setLength(complete); // Keep the samples before the failure, as the JSONArray did.
+        write(sb);
         return false;
     }
 
-    /** Closes the output stream to the file. */
-    public void release() {
+    /** Writes and clears the pending text.
+     *
+     * @return True if the text was written, false otherwise.
+     */
+    private boolean write(StringBuilder text) {
         try {
-            jsonObject.put("samples", jsonSampleArray);
-        } catch (JSONException e) {
-            Log.e("JSONSampleWriter", "Could not build JSON Object. " + e.getMessage());
+            if (writer == null) return false;
+            writer.write(text.toString());
+            writer.flush();
+            return true;
+        } catch (IOException e) {
+            Log.e("JSONSampleWriter", e.getMessage());
+            return false;
+        } finally { text.setLength(0); }
+    }
+
+    /** Appends a string as a JSON string literal, escaped the way JSONStringer does. */
+    private static StringBuilder quote(StringBuilder sb, String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': case '\\': case '/': sb.append('\\').append(c); break;
+                case '\t': sb.append("\\t"); break;
+                case '\b': sb.append("\\b"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\f': sb.append("\\f"); break;
+                default:
+                    if (c <= 0x1F) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+            }
         }
+        return sb.append('"');
+    }
+
+    /** Closes the object and the output stream to the file. */
+    public synchronized void release() {
         if (writer != null) {
             try {
-                writer.write(jsonObject.toString());
+                writer.write("]}");
                 writer.flush();
                 writer.close();
             } catch (IOException e) { /** Nothing to do here. */ }
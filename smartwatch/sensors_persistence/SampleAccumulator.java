@@ -1,32 +1,78 @@
 package reuiot2015.smartwatch.sensors_persistence;
 
-import android.util.Log;
-
 import java.util.HashSet;
-import java.util.concurrent.ConcurrentLinkedDeque;
+
+import reuiot2015.smartwatch.metrics.Histogram;
+import reuiot2015.smartwatch.platform.Log;
 
 /** Accumulates samples and sent to listeners in batches based on a trigger value and type.
+ *
+ * The save thread sleeps until enqueueSample() signals it, and flushes a batch as soon as
+ * either the sample limit is reached or the oldest queued sample has waited for the time
+ * limit, whichever comes first (see StorageConfig). The queue depth is a counter, so
+ * checking the trigger is constant time, and no time is spent polling.
+ *
+ * The queue is a bounded ring. When the listeners fall behind and it fills up, samples are
+ * shed by the SheddingPolicy and counted by cause, and a WatermarkListener is told when the
+ * depth first reaches the high watermark, so the service can react before memory runs out.
+ * With a SampleJournal set, queued samples also survive the process being killed.
  *
  * @author Mario A. Gutierrez (mag262@txstate.edu)
  */
 public class SampleAccumulator extends Thread {
-    private final ConcurrentLinkedDeque<String[]> sampleQueue;
+    /** The default number of samples the queue holds. */
+    public final static int DEFAULT_CAPACITY = 4096;
+
+    private final String[][] sampleQueue; // Ring guarded by queueLock.
+    private final long[] sequences; // The journal sequence of each queued sample.
+    private final long[] origins; // When each queued sample originated, on the nanoTime clock, or 0.
+    private final Object queueLock = new Object();
+    private int head, queued; // The oldest sample, and the depth of the queue.
+    private long oldestEnqueued; // When the oldest queued sample was enqueued, in milliseconds.
     private final StorageConfig config;
+    private final int batchLimit; // The sample limit, at most the capacity.
+
+    private SheddingPolicy sheddingPolicy;
+    private int decimation;
+    private final long[] dropped = new long[SheddingPolicy.values().length]; // Per cause.
+    private int highWatermark;
+    private boolean aboveWatermark;
+    private volatile WatermarkListener watermarkListener;
+    private volatile SampleJournal journal;
 
     private final Object saveLock = new Object();
+    private final Histogram flushDuration = Histogram.latencyNanos(); // Handing a batch to the listeners.
+    private final Histogram sampleLatency = Histogram.latencyNanos(); // From origin to saved, per sample.
 
     private final HashSet<SampleAccumulationListener> sampleAccumulationListeners = new HashSet<>();
 
-    private boolean running = true;
-    private int sampleSize = -1;
+    private volatile boolean running = true;
+    private volatile int sampleSize = -1;
 
-    /** Constructs a new SampleAccumulator instance.
+    /** Constructs a new SampleAccumulator instance, with the default capacity, that drops the
+     * oldest samples when it is full.
      *
      * @param config The base configuration for the writer.
      */
     public SampleAccumulator(StorageConfig config) {
-        this.sampleQueue = new ConcurrentLinkedDeque<>();
+        this(config, DEFAULT_CAPACITY, SheddingPolicy.DROP_OLDEST);
+    }
+
+    /** Constructs a new SampleAccumulator instance.
+     *
+     * @param config The base configuration for the writer.
+     * @param capacity The number of samples the queue holds.
+     * @param sheddingPolicy What to do with a new sample when the queue is full.
+     */
+    public SampleAccumulator(StorageConfig config, int capacity, SheddingPolicy sheddingPolicy) {
+        this.sampleQueue = new String[Math.max(2, capacity)][];
+        this.sequences = new long[this.sampleQueue.length];
+        this.origins = new long[this.sampleQueue.length];
         this.config = config;
+        this.batchLimit = Math.min(config.getMaxSamples(), this.sampleQueue.length);
+        this.sheddingPolicy = sheddingPolicy;
+        this.decimation = 2;
+        this.highWatermark = this.sampleQueue.length * 3 / 4;
     }
 
     /** Adds a new SampleAccumulationListener to this instance.
@@ -45,6 +91,50 @@ public class SampleAccumulator extends Thread {
         this.sampleAccumulationListeners.remove(listener);
     }
 
+    /** Sets what to do with a new sample when the queue is full; may be changed while running.
+     *
+     * @param policy The shedding policy.
+     * @param decimation For DECIMATE, keep one queued sample out of this many (at least 2).
+     */
+    public void setSheddingPolicy(SheddingPolicy policy, int decimation) {
+        synchronized (this.queueLock) {
+            this.sheddingPolicy = policy;
+            this.decimation = Math.max(2, decimation);
+        }
+    }
+
+    /** Sets the listener told when the queue depth reaches the high watermark. It is called
+     * again only once the depth has fallen back to half the watermark, from the thread that
+     * enqueued the sample.
+     *
+     * @param highWatermark The queue depth, at most the capacity.
+     * @param listener The listener, or null for none.
+     */
+    public void setWatermarkListener(int highWatermark, WatermarkListener listener) {
+        synchronized (this.queueLock) {
+            this.highWatermark = Math.max(1, Math.min(highWatermark, this.sampleQueue.length));
+            this.aboveWatermark = false;
+        }
+        this.watermarkListener = listener;
+    }
+
+    /** Sets the journal the queued samples are appended to, and queues the samples it
+     * recovered. Call before start(); the journal is acknowledged as batches are saved, and
+     * is not closed by the accumulator.
+     *
+     * @param journal The journal.
+     */
+    public void setJournal(SampleJournal journal) {
+        String[][] recovered = journal.takeRecovered();
+        synchronized (this.queueLock) {
+            this.journal = journal;
+            for (int i = 0; i < recovered.length; ++i) {
+                if (this.sampleSize == -1) this.sampleSize = recovered[i].length;
+                offer(recovered[i], i + 1, 0); // Recovered samples keep their sequences.
+            }
+        }
+    }
+
     /** Grabs the set sample size in use by this SampleAccumulator instance.
      *
      * @return The set sample size, or -1 if it hasn't been set yet.
@@ -53,59 +143,121 @@ public class SampleAccumulator extends Thread {
         return this.sampleSize;
     }
 
+    /** Grabs the number of samples waiting to be sent to the listeners.
+     *
+     * @return The depth of the queue.
+     */
+    public int getQueueDepth() {
+        synchronized (this.queueLock) { return this.queued; }
+    }
+
+    /** Grabs the number of samples the queue holds.
+     *
+     * @return The capacity of the queue.
+     */
+    public int getCapacity() { return this.sampleQueue.length; }
+
+    /** Grabs the number of samples shed for a cause.
+     *
+     * @param cause The policy that shed the samples.
+     * @return The number of samples dropped.
+     */
+    public long getDropped(SheddingPolicy cause) {
+        synchronized (this.queueLock) { return this.dropped[cause.ordinal()]; }
+    }
+
+    /** Grabs the number of samples shed for any cause.
+     *
+     * @return The number of samples dropped.
+     */
+    public long getDropped() {
+        synchronized (this.queueLock) {
+            long total = 0; for (long d : this.dropped) total += d;
+            return total;
+        }
+    }
+
+    /** Grabs the time spent handing each batch to the listeners, i.e. writing it.
+     *
+     * @return A snapshot of the histogram in nanoseconds.
+     */
+    public Histogram getFlushDuration() { return this.flushDuration.snapshot(); }
+
+    /** Grabs the time from the origin of each sample enqueued with one to its batch being saved.
+     *
+     * @return A snapshot of the histogram in nanoseconds.
+     */
+    public Histogram getSampleLatency() { return this.sampleLatency.snapshot(); }
+
     @Override
     public void run() {
         Log.d("SampleAccumulator", "Save thread starting...");
 
-        while (!Thread.interrupted() && running) {
-            Log.d("SampleAccumulator", "Waiting for trigger...");
+        long maxDelay = this.config.getMaxDelayMillis();
 
-            // Wait for the trigger value, depends on trigger type.
-            switch (this.config.triggerType) {
-                case NUM_SAMPLES:
-                    while (this.sampleQueue.size() < this.config.triggerValue) try { Thread.sleep(1000); } catch (InterruptedException e) { /** Nothing to do here. */ }
-                    break;
-                case NUM_MINUTES:
-                    long totalWait = this.config.triggerValue * 60000; // 60,000 ms in a minute.
-                    long start = System.currentTimeMillis();
-                    long elapsed; while ((elapsed = (System.currentTimeMillis() - start)) < totalWait)
-                        try {  wait(totalWait - elapsed); }
-                        catch (InterruptedException e) { /** Nothing to do here. */ }
-                    break;
-            }
+        while (true) {
+            // Wait for the trigger, the sample limit or the time limit, whichever comes first.
+            String[][] samples;
+            long[] origins;
+            long last = 0; // The journal sequence of the last sample of the batch.
+            synchronized (this.queueLock) {
+                while (this.running && this.queued < this.batchLimit) {
+                    long timeout = 0; // Nothing queued, wait for a sample.
+                    if (this.queued > 0) {
+                        timeout = this.oldestEnqueued + maxDelay - System.currentTimeMillis();
+                        if (timeout <= 0) break;
+                    }
+                    try { this.queueLock.wait(timeout);
+                    } catch (InterruptedException e) { /** Nothing to do here. */ }
+                }
+                if (this.queued == 0 && !this.running) break;
 
-            Log.d("SampleAccumulator", "Separating out samples. Initial queue size: " + this.sampleQueue.size());
-
-            // Separate the samples.
-            String[][] samples = null;
-            switch (this.config.triggerType) {
-                case NUM_SAMPLES:
-                    samples = new String[this.config.triggerValue][this.sampleSize]; // [num_samples][sample_size], [rows][cols].
-                    for (int i = 0; i < this.config.triggerValue; ++i) samples[i] = this.sampleQueue.poll();
-                    break;
-                case NUM_MINUTES:
-                    samples = new String[this.sampleQueue.size()][this.sampleSize];
-                    for (int i = 0; i < samples.length; ++i) samples[i] = this.sampleQueue.poll();
-                    break;
+                // Separate the samples, at most the sample limit per batch.
+                samples = new String[Math.min(this.queued, this.batchLimit)][];
+                origins = new long[samples.length];
+                for (int i = 0; i < samples.length; ++i) {
+                    samples[i] = this.sampleQueue[this.head];
+                    origins[i] = this.origins[this.head];
+                    last = this.sequences[this.head];
+                    this.sampleQueue[this.head] = null;
+                    this.head = (this.head + 1) % this.sampleQueue.length;
+                }
+                this.queued -= samples.length; // The rest keep the deadline, so they're sent early, not late.
+                if (this.queued <= this.highWatermark / 2) this.aboveWatermark = false;
+                if (this.sheddingPolicy == SheddingPolicy.BLOCK) this.queueLock.notifyAll(); // Wake blocked enqueuers.
             }
+            if (samples.length == 0) continue;
 
             Log.d("SampleAccumulator", samples.length + " samples selected.");
-            Log.d("SampleAccumulator", "Resulting queue size: " + this.sampleQueue.size());
 
             // Save samples.
+            boolean saved = true;
+            long start = System.nanoTime();
             synchronized (this.saveLock) {
                 for (SampleAccumulationListener l : sampleAccumulationListeners)
-                l.receiveAccumulatedSamples(samples);
+                saved &= l.receiveAccumulatedSamples(samples);
+            }
+            long done = System.nanoTime();
+            this.flushDuration.record(done - start);
+            if (saved) for (long origin : origins) if (origin != 0) this.sampleLatency.record(done - origin);
+
+            // Acknowledge the batch, and the samples shed before it; a failed batch is recovered.
+            SampleJournal journal = this.journal;
+            if (journal != null && last > 0) {
+                if (saved) journal.acknowledge(last);
+                else journal.skip(last);
             }
         }
 
         Log.d("SampleAccumulator", "Save thread finished.");
     }
 
-    /** Stops sample storage. */
+    /** Stops sample storage once the samples still queued are sent to the listeners. */
     public void stopStorage() {
-        running = false;
-        interrupt();
+        synchronized (this.queueLock) {
+            running = false;
+            this.queueLock.notifyAll();
+        }
     }
 
     /** Adds a sample to be stored, the first sample sent determines the sample size.
@@ -114,8 +266,118 @@ public class SampleAccumulator extends Thread {
      * @return True if sample was successfully queued, false otherwise.
      */
     public boolean enqueueSample(String[] sample) {
+        return enqueueSample(sample, 0);
+    }
+
+    /** Adds a sample to be stored, with the time it originated for tracing; the time from
+     * then until the sample is saved is kept in getSampleLatency().
+     *
+     * @param sample The sample, as a list of string values, to save.
+     * @param originNanos When the sample originated on the System.nanoTime() clock, or 0.
+     * @return True if sample was successfully queued, false otherwise.
+     */
+    public boolean enqueueSample(String[] sample, long originNanos) {
         if (this.sampleSize == -1) this.sampleSize = sample.length;
-        return this.sampleQueue.offer(sample.clone());
+        String[] copy = sample.clone();
+        int depth;
+        synchronized (this.queueLock) {
+            if (!this.running) return false;
+            if (!offer(copy, -1, originNanos)) return false;
+            depth = this.queued;
+            if (depth < this.highWatermark || this.aboveWatermark) return true;
+            this.aboveWatermark = true;
+        }
+
+        WatermarkListener listener = this.watermarkListener;
+        if (listener != null) listener.onHighWatermark(depth, this.sampleQueue.length);
+        return true;
+    }
+
+    /** Queues a sample, shedding by the policy if the queue is full. Called with queueLock held.
+     *
+     * @param sample The sample to queue.
+     * @param sequence The journal sequence of the sample, or -1 to append it to the journal.
+     * @param origin When the sample originated, or 0.
+     * @return False if the sample was shed.
+     */
+    private boolean offer(String[] sample, long sequence, long origin) {
+        if (this.queued == this.sampleQueue.length) {
+            switch (this.sheddingPolicy) {
+                case DROP_NEWEST:
+                    ++this.dropped[SheddingPolicy.DROP_NEWEST.ordinal()];
+                    return false;
+                case DECIMATE:
+                    decimate();
+                    break;
+                case BLOCK:
+                    while (this.queued == this.sampleQueue.length && this.running) {
+                        try { this.queueLock.wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return false;
+                        }
+                    }
+                    if (!this.running) return false;
+                    break;
+                default:
+                    this.sampleQueue[this.head] = null;
+                    this.head = (this.head + 1) % this.sampleQueue.length;
+                    --this.queued;
+                    ++this.dropped[SheddingPolicy.DROP_OLDEST.ordinal()];
+            }
+        }
+
+        if (this.queued == 0) this.oldestEnqueued = System.currentTimeMillis();
+        int tail = (this.head + this.queued) % this.sampleQueue.length;
+        this.sampleQueue[tail] = sample;
+        this.sequences[tail] = (sequence >= 0) ? sequence : (this.journal != null) ? this.journal.append(sample) : 0;
+        this.origins[tail] = origin;
+        // Only wake the save thread when a trigger could fire: the first sample starts the
+        // time limit, and the sample limit is reached.
+        if (++this.queued == 1 || this.queued == this.batchLimit) this.queueLock.notifyAll();
+        return true;
+    }
+
+    /** Thins the full queue in place, keeping the first sample of every group of decimation
+     * samples, so the queued samples still span the same time. Called with queueLock held. */
+    private void decimate() {
+        int capacity = this.sampleQueue.length, kept = 0;
+        for (int i = 0; i < this.queued; ++i) {
+            int from = (this.head + i) % capacity;
+            String[] sample = this.sampleQueue[from];
+            this.sampleQueue[from] = null;
+            if (i % this.decimation == 0) {
+                int to = (this.head + kept++) % capacity;
+                this.sampleQueue[to] = sample;
+                this.sequences[to] = this.sequences[from];
+                this.origins[to] = this.origins[from];
+            }
+        }
+        this.dropped[SheddingPolicy.DECIMATE.ordinal()] += this.queued - kept;
+        this.queued = kept;
+    }
+
+    /** Enumerates what a SampleAccumulator does with a new sample when its queue is full. */
+    public enum SheddingPolicy {
+        /** Discard the oldest queued sample. */
+        DROP_OLDEST,
+        /** Discard the new sample. */
+        DROP_NEWEST,
+        /** Keep one queued sample out of every few, spread over the whole queue. */
+        DECIMATE,
+        /** Wait for the save thread to make room; only for offline runs that must save every
+         * sample, as it stalls the thread enqueueing. */
+        BLOCK
+    }
+
+    /** Used by other classes to react to a filling SampleAccumulator queue. */
+    public interface WatermarkListener {
+        /** Called when the queue depth reaches the high watermark.
+         *
+         * @param depth The number of samples queued.
+         * @param capacity The number of samples the queue holds.
+         */
+        void onHighWatermark(int depth, int capacity);
     }
 
     /** Used by other classes to receive a set of accumulated samples. */
@@ -130,25 +392,44 @@ public class SampleAccumulator extends Thread {
         boolean receiveAccumulatedSamples(String[][] accumulatedSamples);
     }
 
-    /** Encapsulates configuration options for samples written. */
+    /** Encapsulates configuration options for samples written.
+     *
+     * A batch is sent when either the sample limit or the time limit is reached. NUM_SAMPLES
+     * only has a sample limit, NUM_MINUTES only a time limit, and HYBRID has both. */
     public static class StorageConfig {
 
         /** Enumerates the possible interpretations of the trigger value. */
         public enum TriggerType {
-            NUM_MINUTES, NUM_SAMPLES
+            NUM_MINUTES, NUM_SAMPLES, HYBRID
         }
 
         private final TriggerType triggerType;
         private final int triggerValue;
+        private final int maxSamples;
+        private final long maxDelayMillis;
 
         /** Constructs a StorageConfig object for use by a SampleAccumulator.
          *
-         * @param triggerType How the trigger value should be interpreted.
+         * @param triggerType How the trigger value should be interpreted, NUM_MINUTES or NUM_SAMPLES.
          * @param triggerValue The actual trigger value.
          */
         public StorageConfig(TriggerType triggerType, int triggerValue) {
             this.triggerType = triggerType;
-            this.triggerValue = triggerValue;
+            this.triggerValue = Math.max(1, triggerValue);
+            this.maxSamples = (triggerType == TriggerType.NUM_MINUTES) ? Integer.MAX_VALUE : this.triggerValue;
+            this.maxDelayMillis = (triggerType == TriggerType.NUM_MINUTES) ? this.triggerValue * 60000L : Long.MAX_VALUE / 2;
+        }
+
+        /** Constructs a HYBRID StorageConfig object for use by a SampleAccumulator.
+         *
+         * @param maxSamples The number of samples that triggers a batch.
+         * @param maxDelayMillis How long the oldest sample can wait before it triggers a batch, in milliseconds.
+         */
+        public StorageConfig(int maxSamples, long maxDelayMillis) {
+            this.triggerType = TriggerType.HYBRID;
+            this.triggerValue = Math.max(1, maxSamples);
+            this.maxSamples = this.triggerValue;
+            this.maxDelayMillis = Math.max(1, maxDelayMillis);
         }
 
         /** Grabs the trigger type.
@@ -161,10 +442,26 @@ public class SampleAccumulator extends Thread {
 
         /** Grabs the trigger value.
          *
-         * @return The set trigger value.
+         * @return The set trigger value, the sample limit of a HYBRID config.
          */
         public int getTriggerValue() {
             return this.triggerValue;
         }
+
+        /** Grabs the number of samples that triggers a batch.
+         *
+         * @return The sample limit, Integer.MAX_VALUE if there is none.
+         */
+        public int getMaxSamples() {
+            return this.maxSamples;
+        }
+
+        /** Grabs how long the oldest sample can wait before it triggers a batch.
+         *
+         * @return The time limit in milliseconds, very large if there is none.
+         */
+        public long getMaxDelayMillis() {
+            return this.maxDelayMillis;
+        }
     }
 }
@@ -0,0 +1,315 @@
+package reuiot2015.smartwatch.sensors_persistence;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+import reuiot2015.smartwatch.platform.Log;
+
+/** An append only journal of the samples queued in a SampleAccumulator, so they survive the
+ * process being killed.
+ *
+ * Every queued sample is appended with a sequence number, and every batch the listeners
+ * saved is acknowledged by its range of sequence numbers. Records are buffered in memory and
+ * group committed: a commit thread writes them and forces the file to storage once per commit
+ * interval, so at most one interval of samples is lost. Each record is
+ * <pre>
+ *   int payload length, int CRC32 of the rest, byte type, long sequence, payload
+ * </pre>
+ * where the payload of a sample is its values (a short count, then for each a boolean for
+ * non null and the modified UTF-8 value), and the payload of an acknowledgement is the long
+ * last sequence of the range. Reading stops at the first torn or corrupt record.
+ *
+ * Opening a journal recovers the samples that were never acknowledged, and rewrites the
+ * journal with only those; a SampleAccumulator queues them again before any new sample.
+ * Once every sample is acknowledged, the file is truncated. */
+public class SampleJournal {
+    /** The default time between commits, in milliseconds. */
+    public final static long DEFAULT_COMMIT_INTERVAL = 1000;
+
+    private final static byte SAMPLE = 1, ACK = 2;
+    private final static int MAX_PAYLOAD = 1 << 20;
+    private final static long COMPACT_BYTES = 1 << 20; // Truncate when everything is acknowledged past this size.
+
+    private final File file;
+    private final long commitInterval;
+    private final ArrayList<String[]> recovered = new ArrayList<>();
+    private final boolean interrupted; // The last session didn't close the journal.
+
+    private final Object lock = new Object();
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream(); // Guarded by lock.
+    private ByteArrayOutputStream spare = new ByteArrayOutputStream();
+    private final CRC32 crc = new CRC32();
+    private long nextSequence = 1, lastAcked; // Sequences up to lastAcked are acknowledged or failed.
+    private long unacknowledged; // Samples appended but not acknowledged.
+    private boolean closed;
+
+    private final FileChannel channel; // Used by the commit thread only, once opened.
+    private final Thread committer;
+    private volatile long commits, bytesCommitted;
+
+    /** Opens a journal, recovering the samples it holds that were never acknowledged.
+     *
+     * @param file The journal file, created if it doesn't exist.
+     * @param commitIntervalMillis The time between commits, in milliseconds.
+     * @throws IOException If the journal can't be written.
+     */
+    public SampleJournal(File file, long commitIntervalMillis) throws IOException {
+        this.file = file;
+        this.commitInterval = Math.max(1, commitIntervalMillis);
+
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (directory != null && directory.mkdirs()) Log.d("SampleJournal", "Created file structure.");
+        this.interrupted = file.length() > 0; // Closing leaves it empty, unless a batch failed.
+        if (this.interrupted) recover();
+
+        // Move the recovered samples to a fresh journal, atomically replacing the old one.
+        File fresh = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(fresh);
+        try {
+            for (String[] sample : this.recovered) appendRecord(SAMPLE, this.nextSequence++, sample, 0);
+            this.unacknowledged = this.recovered.size();
+            this.pending.writeTo(out);
+            this.pending.reset();
+            out.getFD().sync();
+        } finally { out.close(); }
+        if (!fresh.renameTo(file)) throw new IOException("Could not replace " + file.getName());
+        if (!this.recovered.isEmpty()) Log.d("SampleJournal", "Recovered " + this.recovered.size() + " samples.");
+
+        this.channel = new RandomAccessFile(file, "rw").getChannel();
+        this.channel.position(this.channel.size());
+        this.committer = new Thread(new Runnable() {
+            @Override
+            public void run() { commitLoop(); }
+        }, "Sample journal");
+        this.committer.setDaemon(true);
+        this.committer.start();
+    }
+
+    /** Reads the journal, keeping the samples not covered by an acknowledgement. */
+    private void recover() {
+        ArrayList<String[]> samples = new ArrayList<>();
+        ArrayList<Long> sequences = new ArrayList<>();
+        ArrayList<long[]> acks = new ArrayList<>();
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file)));
+            CRC32 check = new CRC32();
+            while (true) {
+                int length;
+                try { length = in.readInt();
+                } catch (EOFException e) { break; }
+                if (length < 0 || length > MAX_PAYLOAD) break;
+                int expected = in.readInt();
+                byte[] body = new byte[1 + 8 + length];
+                in.readFully(body);
+                check.reset();
+                check.update(body, 0, body.length);
+                if ((int) check.getValue() != expected) break;
+
+                ByteBuffer b = ByteBuffer.wrap(body);
+                byte type = b.get();
+                long sequence = b.getLong();
+                if (type == ACK) acks.add(new long[] {sequence, b.getLong()});
+                else if (type == SAMPLE) {
+                    DataInputStream values = new DataInputStream(new ByteArrayInputStream(body, 9, length));
+                    String[] sample = new String[values.readShort()];
+                    for (int i = 0; i < sample.length; ++i) sample[i] = values.readBoolean() ? values.readUTF() : null;
+                    samples.add(sample);
+                    sequences.add(sequence);
+                }
+            }
+        } catch (IOException e) {
+            Log.d("SampleJournal", "Journal ends with a torn record: " + e.getMessage());
+        } finally {
+            if (in != null) try { in.close(); } catch (IOException e) { /** Nothing to do here. */ }
+        }
+
+        // Keep the samples no acknowledged range covers; both are in sequence order.
+        int r = 0;
+        for (int i = 0; i < samples.size(); ++i) {
+            long sequence = sequences.get(i);
+            while (r < acks.size() && acks.get(r)[1] < sequence) ++r;
+            if (r == acks.size() || sequence < acks.get(r)[0]) this.recovered.add(samples.get(i));
+        }
+    }
+
+    /** Takes the samples recovered when the journal was opened. They are already in the
+     * journal, with the sequence numbers 1 to the number of samples, so they must be queued
+     * before any new sample and not appended again.
+     *
+     * @return The samples, oldest first, empty once taken.
+     */
+    public String[][] takeRecovered() {
+        synchronized (this.lock) {
+            String[][] samples = this.recovered.toArray(new String[this.recovered.size()][]);
+            this.recovered.clear();
+            return samples;
+        }
+    }
+
+    /** Checks if the journal wasn't closed cleanly by the last session, so the files it
+     * was writing should be appended to rather than replaced.
+     *
+     * @return True if the journal held records when it was opened.
+     */
+    public boolean wasInterrupted() { return this.interrupted; }
+
+    /** Appends a sample; it is on storage after the next commit.
+     *
+     * @param sample The sample values.
+     * @return The sequence number of the sample, or 0 if the journal is closed.
+     */
+    public long append(String[] sample) {
+        synchronized (this.lock) {
+            if (this.closed) return 0;
+            long sequence = this.nextSequence++;
+            appendRecord(SAMPLE, sequence, sample, 0);
+            ++this.unacknowledged;
+            return sequence;
+        }
+    }
+
+    /** Acknowledges the samples up to a sequence number: they were saved, or shed on purpose.
+     *
+     * @param last The sequence number of the last sample saved.
+     */
+    public void acknowledge(long last) {
+        synchronized (this.lock) {
+            if (this.closed || last <= this.lastAcked) return;
+            appendRecord(ACK, this.lastAcked + 1, null, last);
+            this.unacknowledged -= last - this.lastAcked;
+            this.lastAcked = last;
+        }
+    }
+
+    /** Skips the samples up to a sequence number without acknowledging them: saving them
+     * failed, so they are recovered next time the journal is opened.
+     *
+     * @param last The sequence number of the last sample that failed.
+     */
+    public void skip(long last) {
+        synchronized (this.lock) {
+            if (last > this.lastAcked) this.lastAcked = last;
+        }
+    }
+
+    /** Encodes a record into the pending buffer. Called with the lock held. */
+    private void appendRecord(byte type, long sequence, String[] sample, long last) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(body);
+        try {
+            out.writeByte(type);
+            out.writeLong(sequence);
+            if (type == ACK) out.writeLong(last);
+            else {
+                out.writeShort(sample.length);
+                for (String value : sample) {
+                    out.writeBoolean(value != null);
+                    if (value != null) out.writeUTF(value);
+                }
+            }
+        } catch (IOException e) { /** Nothing to do here, writing to memory. */ }
+
+        byte[] bytes = body.toByteArray();
+        this.crc.reset();
+        this.crc.update(bytes, 0, bytes.length);
+        DataOutputStream header = new DataOutputStream(this.pending);
+        try {
+            header.writeInt(bytes.length - 9);
+            header.writeInt((int) this.crc.getValue());
+        } catch (IOException e) { /** Nothing to do here, writing to memory. */ }
+        this.pending.write(bytes, 0, bytes.length);
+    }
+
+    private void commitLoop() {
+        while (true) {
+            boolean done;
+            synchronized (this.lock) {
+                if (!this.closed) {
+                    try { this.lock.wait(this.commitInterval);
+                    } catch (InterruptedException e) { /** Nothing to do here. */ }
+                }
+                done = this.closed;
+            }
+            commit();
+            if (done) return;
+        }
+    }
+
+    /** Writes the pending records and forces them to storage. */
+    private void commit() {
+        ByteArrayOutputStream batch;
+        boolean compact;
+        synchronized (this.lock) {
+            batch = this.pending;
+            this.pending = this.spare;
+            this.spare = batch;
+            compact = this.unacknowledged == 0;
+        }
+        if (batch.size() == 0) return;
+
+        try {
+            this.channel.write(ByteBuffer.wrap(batch.toByteArray()));
+            this.channel.force(false);
+            ++this.commits;
+            this.bytesCommitted += batch.size();
+            if (compact && this.channel.size() > COMPACT_BYTES) compact();
+        } catch (IOException e) {
+            Log.e("SampleJournal", "Commit failed: " + e.getMessage());
+        } finally { batch.reset(); }
+    }
+
+    /** Truncates the file if nothing was appended since every sample was acknowledged. */
+    private void compact() throws IOException {
+        synchronized (this.lock) { // Appending waits, so no record is written in between.
+            if (this.unacknowledged != 0 || this.pending.size() != 0) return;
+            this.channel.truncate(0);
+            this.channel.position(0);
+        }
+    }
+
+    /** Grabs the number of commits.
+     *
+     * @return The number of times records were written and forced to storage.
+     */
+    public long getCommits() { return this.commits; }
+
+    /** Grabs the number of bytes committed.
+     *
+     * @return The size of the records written.
+     */
+    public long getBytesCommitted() { return this.bytesCommitted; }
+
+    /** Commits the pending records and closes the journal. If every sample was acknowledged,
+     * the journal is left empty. */
+    public void close() {
+        synchronized (this.lock) {
+            this.closed = true;
+            this.lock.notifyAll();
+        }
+        try { this.committer.join();
+        } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+
+        try {
+            synchronized (this.lock) {
+                if (this.unacknowledged == 0) this.channel.truncate(0);
+            }
+            this.channel.force(false);
+            this.channel.close();
+        } catch (IOException e) { Log.e("SampleJournal", "Could not close: " + e.getMessage()); }
+    }
+}
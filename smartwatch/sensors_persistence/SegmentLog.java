@@ -0,0 +1,239 @@
+package reuiot2015.smartwatch.sensors_persistence;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import reuiot2015.smartwatch.sensors.Sensor;
+import reuiot2015.smartwatch.sensors.Types;
+
+/** The layout of a binary segment log of SampleFrames.
+ *
+ * A log is a sequence of preallocated segment files named "name-000000.seg", "name-000001.seg",
+ * and so on. Each segment starts with a header:
+ * <pre>
+ *   int magic, short version, short reserved,
+ *   int header size, int record size, int record capacity, int record count,
+ *   long creation time,
+ *   short sensor count, then per sensor:
+ *     main label, short dimension, then per dimension: label, byte type ordinal
+ * </pre>
+ * Labels are a short byte length followed by UTF-8. The header is followed by fixed width
+ * records: the frame timestamp as a long, a bitmap of the null columns, then every column
+ * at a width that depends on its type only. Strings are kept in a fixed slot of a byte length
+ * and up to STRING_BYTES - 1 bytes of UTF-8, truncated if longer. All values are big endian.
+ * The record count is updated after each record, so a reader never sees a partial record. */
+public final class SegmentLog {
+    /** The first int of every segment ("SWSG"). */
+    public final static int MAGIC = 0x53575347;
+
+    /** The version of the layout. */
+    public final static short VERSION = 1;
+
+    /** The extension of the segment files. */
+    public final static String EXTENSION = ".seg";
+
+    /** The width of a String column. */
+    public final static int STRING_BYTES = 32;
+
+    final static int RECORD_SIZE_OFFSET = 12, RECORD_CAPACITY_OFFSET = 16, RECORD_COUNT_OFFSET = 20;
+    final static int SCHEMA_OFFSET = 32;
+    private final static int MAX_LABEL_BYTES = 0x7FFF;
+
+    private SegmentLog() { }
+
+    /** Grabs the width of a column in a record.
+     *
+     * @param type The type of the column.
+     * @return The number of bytes.
+     */
+    public static int widthOf(Types type) {
+        switch (type) {
+            case Boolean: return 1;
+            case Character: return 2;
+            case Integer: case Float: return 4;
+            case Long: case Double: return 8;
+            default: return STRING_BYTES;
+        }
+    }
+
+    /** Grabs the name of a segment file.
+     *
+     * @param name The name of the log.
+     * @param index The index of the segment.
+     * @return The file name.
+     */
+    public static String segmentName(String name, int index) {
+        return String.format("%s-%06d%s", name, index, EXTENSION);
+    }
+
+    /** Lists the segments of a log, in order.
+     *
+     * @param directory The directory of the log.
+     * @param name The name of the log.
+     * @return The segment files, possibly empty.
+     */
+    public static File[] listSegments(File directory, final String name) {
+        File[] segments = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                String n = file.getName();
+                return n.startsWith(name + "-") && n.endsWith(EXTENSION)
+                        && n.length() == name.length() + 7 + EXTENSION.length();
+            }
+        });
+        if (segments == null) return new File[0];
+        Arrays.sort(segments); // Zero padded, so sorting by name sorts by index.
+        return segments;
+    }
+
+    /** Computes the size of the header for a schema.
+     *
+     * @param schema The meta data of each sensor, in column order.
+     * @return The number of bytes.
+     */
+    static int headerSize(Sensor.SensorMetaData[] schema) {
+        int size = SCHEMA_OFFSET + 2;
+        for (Sensor.SensorMetaData m : schema) {
+            size += labelSize(m.getMainLabel()) + 2;
+            for (int i = 0; i < m.getDimension(); ++i) size += labelSize(m.getDimensionLabel(i)) + 1;
+        }
+        return size;
+    }
+
+    /** Writes the header of a segment; the record count starts at 0.
+     *
+     * @param buffer The segment, positioned anywhere.
+     * @param schema The meta data of each sensor, in column order.
+     * @param recordSize The width of a record.
+     * @param capacity The number of records the segment can hold.
+     */
+    static void writeHeader(ByteBuffer buffer, Sensor.SensorMetaData[] schema, int recordSize, int capacity) {
+        buffer.position(0);
+        buffer.putInt(MAGIC).putShort(VERSION).putShort((short) 0);
+        buffer.putInt(headerSize(schema)).putInt(recordSize).putInt(capacity).putInt(0);
+        buffer.putLong(System.currentTimeMillis());
+        buffer.putShort((short) schema.length);
+        for (Sensor.SensorMetaData m : schema) {
+            putLabel(buffer, m.getMainLabel());
+            buffer.putShort((short) m.getDimension());
+            for (int i = 0; i < m.getDimension(); ++i) {
+                putLabel(buffer, m.getDimensionLabel(i));
+                buffer.put((byte) m.getDimensionTypes()[i].ordinal());
+            }
+        }
+    }
+
+    /** Reads the schema from the header of a segment.
+     *
+     * @param buffer The segment, positioned anywhere.
+     * @return The meta data of each sensor, in column order.
+     * @throws IllegalArgumentException If the buffer is not a segment.
+     */
+    static Sensor.SensorMetaData[] readSchema(ByteBuffer buffer) {
+        if (buffer.limit() < SCHEMA_OFFSET + 2 || buffer.getInt(0) != MAGIC)
+            throw new IllegalArgumentException("Not a segment.");
+        if (buffer.getShort(4) != VERSION)
+            throw new IllegalArgumentException("Unsupported segment version " + buffer.getShort(4) + ".");
+
+        buffer.position(SCHEMA_OFFSET);
+        Sensor.SensorMetaData[] schema = new Sensor.SensorMetaData[buffer.getShort()];
+        Types[] types = Types.values();
+        for (int s = 0; s < schema.length; ++s) {
+            String mainLabel = getLabel(buffer);
+            int dimension = buffer.getShort();
+            String[] labels = new String[dimension];
+            Types[] dimensionTypes = new Types[dimension];
+            for (int i = 0; i < dimension; ++i) {
+                labels[i] = getLabel(buffer);
+                dimensionTypes[i] = types[buffer.get()];
+            }
+            schema[s] = new Sensor.SensorMetaData(mainLabel, labels, dimensionTypes, dimension);
+        }
+        return schema;
+    }
+
+    /** Encodes a string into a String column slot without allocating.
+     *
+     * @param buffer The segment.
+     * @param offset The offset of the slot.
+     * @param value The string.
+     */
+    static void putString(ByteBuffer buffer, int offset, String value) {
+        buffer.put(offset, (byte) encode(buffer, offset + 1, value, STRING_BYTES - 1));
+    }
+
+    /** Decodes a String column slot.
+     *
+     * @param buffer The segment.
+     * @param offset The offset of the slot.
+     * @return The string.
+     */
+    static String getString(ByteBuffer buffer, int offset) {
+        return decode(buffer, offset + 1, buffer.get(offset) & 0xFF);
+    }
+
+    /** Writes a string as UTF-8 at an absolute offset, up to a number of bytes; characters
+     * that don't fit whole are dropped. Surrogates are kept as is, as modified UTF-8 does.
+     *
+     * @return The number of bytes written.
+     */
+    private static int encode(ByteBuffer buffer, int offset, String value, int max) {
+        int length = 0;
+        for (int i = 0; value != null && i < value.length(); ++i) {
+            char c = value.charAt(i);
+            int width = (c < 0x80) ? 1 : (c < 0x800) ? 2 : 3;
+            if (length + width > max) break;
+            switch (width) {
+                case 1: buffer.put(offset + length, (byte) c); break;
+                case 2:
+                    buffer.put(offset + length, (byte) (0xC0 | (c >> 6)));
+                    buffer.put(offset + length + 1, (byte) (0x80 | (c & 0x3F)));
+                    break;
+                default:
+                    buffer.put(offset + length, (byte) (0xE0 | (c >> 12)));
+                    buffer.put(offset + length + 1, (byte) (0x80 | ((c >> 6) & 0x3F)));
+                    buffer.put(offset + length + 2, (byte) (0x80 | (c & 0x3F)));
+            }
+            length += width;
+        }
+        return length;
+    }
+
+    private static String decode(ByteBuffer buffer, int offset, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = offset, end = offset + length; i < end; ) {
+            int b = buffer.get(i++) & 0xFF;
+            if (b < 0x80) sb.append((char) b);
+            else if (b < 0xE0) sb.append((char) (((b & 0x1F) << 6) | (buffer.get(i++) & 0x3F)));
+            else {
+                int c = ((b & 0x0F) << 12) | ((buffer.get(i++) & 0x3F) << 6);
+                sb.append((char) (c | (buffer.get(i++) & 0x3F)));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static int labelSize(String label) {
+        int length = 0;
+        for (int i = 0; label != null && i < label.length(); ++i) {
+            char c = label.charAt(i);
+            length += (c < 0x80) ? 1 : (c < 0x800) ? 2 : 3;
+        }
+        return 2 + Math.min(length, MAX_LABEL_BYTES);
+    }
+
+    private static void putLabel(ByteBuffer buffer, String label) {
+        int length = encode(buffer, buffer.position() + 2, label, MAX_LABEL_BYTES);
+        buffer.putShort((short) length);
+        buffer.position(buffer.position() + length);
+    }
+
+    private static String getLabel(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        String label = decode(buffer, buffer.position(), length);
+        buffer.position(buffer.position() + length);
+        return label;
+    }
+}
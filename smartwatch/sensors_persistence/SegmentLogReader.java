@@ -0,0 +1,175 @@
+package reuiot2015.smartwatch.sensors_persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import reuiot2015.smartwatch.sensors.Sensor;
+import reuiot2015.smartwatch.sensors.Types;
+
+/** Reads the records of one segment of a binary segment log (see SegmentLog).
+ *
+ * The segment is memory mapped read only and values are read in place, so scanning doesn't
+ * copy the records; only String columns allocate when they are read. Records are addressed
+ * by their index, and columns by the same index as in the SampleFrames that were written. */
+public class SegmentLogReader {
+    private final ByteBuffer segment;
+    private final Sensor.SensorMetaData[] schema;
+    private final Types[] types;
+    private final int[] offsets;
+    private final int headerSize, recordSize, capacity;
+
+    /** Opens a segment.
+     *
+     * @param file The segment file.
+     * @throws IOException If the file can't be read or isn't a segment.
+     */
+    public SegmentLogReader(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try { this.segment = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally { raf.close(); } // The mapping stays valid.
+
+        try { this.schema = SegmentLog.readSchema(this.segment);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IOException(file.getName() + ": " + e.getMessage());
+        }
+
+        this.headerSize = this.segment.getInt(8);
+        this.recordSize = this.segment.getInt(SegmentLog.RECORD_SIZE_OFFSET);
+        this.capacity = this.segment.getInt(SegmentLog.RECORD_CAPACITY_OFFSET);
+
+        int columns = 0; for (Sensor.SensorMetaData m : this.schema) columns += m.getDimension();
+        this.types = new Types[columns];
+        this.offsets = new int[columns];
+        int offset = 8 + (columns + 7) / 8, c = 0;
+        for (Sensor.SensorMetaData m : this.schema) for (Types t : m.getDimensionTypes()) {
+            this.types[c] = t;
+            this.offsets[c++] = offset;
+            offset += SegmentLog.widthOf(t);
+        }
+        if (offset != this.recordSize) throw new IOException(file.getName() + ": record size doesn't match the schema.");
+    }
+
+    /** Grabs the schema of the records.
+     *
+     * @return The meta data of each sensor, in column order.
+     */
+    public Sensor.SensorMetaData[] getSchema() { return this.schema.clone(); }
+
+    /** Grabs the number of columns.
+     *
+     * @return The total dimensionality of all sensors.
+     */
+    public int getColumnCount() { return this.types.length; }
+
+    /** Grabs the type of a column.
+     *
+     * @param column The column index.
+     * @return The type of data in the column.
+     */
+    public Types getType(int column) { return this.types[column]; }
+
+    /** Grabs the width of a record.
+     *
+     * @return The number of bytes per record.
+     */
+    public int getRecordSize() { return this.recordSize; }
+
+    /** Grabs the number of complete records, which grows while the segment is being written.
+     *
+     * @return The number of records.
+     */
+    public int getRecordCount() {
+        return Math.min(this.segment.getInt(SegmentLog.RECORD_COUNT_OFFSET), this.capacity);
+    }
+
+    /** Grabs the time a frame was collected.
+     *
+     * @param record The record index.
+     * @return The timestamp in milliseconds.
+     */
+    public long getTimestamp(int record) { return this.segment.getLong(position(record)); }
+
+    /** Checks if a column of a record has no value.
+     *
+     * @param record The record index.
+     * @param column The column index.
+     * @return True if the column is empty.
+     */
+    public boolean isNull(int record, int column) {
+        return (this.segment.get(position(record) + 8 + (column >> 3)) & (1 << (column & 7))) != 0;
+    }
+
+    /** Grabs a numeric column as a double.
+     *
+     * @param record The record index.
+     * @param column The column index.
+     * @return The value, or NaN if empty or not numeric.
+     */
+    public double getDouble(int record, int column) {
+        if (isNull(record, column)) return Double.NaN;
+        int at = position(record) + this.offsets[column];
+        switch (this.types[column]) {
+            case Float: return this.segment.getFloat(at);
+            case Double: return this.segment.getDouble(at);
+            case Integer: return this.segment.getInt(at);
+            case Long: return this.segment.getLong(at);
+            default: return Double.NaN;
+        }
+    }
+
+    /** Grabs a numeric column as a long.
+     *
+     * @param record The record index.
+     * @param column The column index.
+     * @return The value, or 0 if empty or not numeric.
+     */
+    public long getLong(int record, int column) {
+        if (isNull(record, column)) return 0;
+        int at = position(record) + this.offsets[column];
+        switch (this.types[column]) {
+            case Float: return (long) this.segment.getFloat(at);
+            case Double: return (long) this.segment.getDouble(at);
+            case Integer: return this.segment.getInt(at);
+            case Long: return this.segment.getLong(at);
+            default: return 0;
+        }
+    }
+
+    /** Grabs a column boxed as its Types value.
+     *
+     * @param record The record index.
+     * @param column The column index.
+     * @return The value, or null if empty.
+     */
+    public Object getObject(int record, int column) {
+        if (isNull(record, column)) return null;
+        int at = position(record) + this.offsets[column];
+        switch (this.types[column]) {
+            case Float: return this.segment.getFloat(at);
+            case Double: return this.segment.getDouble(at);
+            case Integer: return this.segment.getInt(at);
+            case Long: return this.segment.getLong(at);
+            case Boolean: return this.segment.get(at) != 0;
+            case Character: return this.segment.getChar(at);
+            default: return SegmentLog.getString(this.segment, at);
+        }
+    }
+
+    /** Formats a column the same way as SampleFrame.asString().
+     *
+     * @param record The record index.
+     * @param column The column index.
+     * @return The value as a string, or "null" if empty.
+     */
+    public String asString(int record, int column) {
+        return this.types[column].asString(getObject(record, column));
+    }
+
+    private int position(int record) {
+        if (record < 0 || record >= this.capacity) throw new IndexOutOfBoundsException("Record " + record);
+        return this.headerSize + record * this.recordSize;
+    }
+}
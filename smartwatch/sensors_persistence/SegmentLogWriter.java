@@ -0,0 +1,190 @@
+package reuiot2015.smartwatch.sensors_persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import reuiot2015.smartwatch.platform.Log;
+import reuiot2015.smartwatch.sensors.Collector;
+import reuiot2015.smartwatch.sensors.SampleFrame;
+import reuiot2015.smartwatch.sensors.Sensor;
+import reuiot2015.smartwatch.sensors.Types;
+
+/** Stores the frames collected from a Collector into a binary segment log (see SegmentLog).
+ *
+ * Each segment is preallocated and memory mapped, and a frame is written as a fixed width
+ * record of raw values, so writing a frame neither formats text nor allocates. The schema is
+ * taken from the first frame; when the sensors of the frames change, or a segment is full,
+ * the log moves on to a new segment. Segments are forced to storage when they are done and
+ * every FORCE_INTERVAL records. Register it with a Collector to record every frame. */
+public class SegmentLogWriter implements Collector.SampleListener {
+    /** The default number of records per segment. */
+    public final static int DEFAULT_SEGMENT_RECORDS = 16384;
+
+    /** The number of records between forcing the segment to storage. */
+    public final static int FORCE_INTERVAL = 256;
+
+    private final File directory;
+    private final String name;
+    private final int segmentRecords;
+
+    private Sensor.SensorMetaData[] schema;
+    private int[] offsets; // Offset of each column within a record.
+    private int nullBytes, recordSize;
+
+    private RandomAccessFile file;
+    private MappedByteBuffer segment;
+    private int segmentIndex, headerSize, count;
+    private long recordsWritten, bytesWritten;
+    private boolean released;
+
+    /** Opens a log in the data directory, replacing the segments of a log of the same name.
+     *
+     * @param name The name of the log, the segments are named after it.
+     */
+    public SegmentLogWriter(String name) {
+        this(SmartWatchValues.getDataDirectory(), name, DEFAULT_SEGMENT_RECORDS);
+    }
+
+    /** Opens a log, replacing the segments of a log of the same name.
+     *
+     * @param directory The directory to store the segments in.
+     * @param name The name of the log, the segments are named after it.
+     * @param segmentRecords The number of records per segment.
+     */
+    public SegmentLogWriter(File directory, String name, int segmentRecords) {
+        this.directory = directory;
+        this.name = name;
+        this.segmentRecords = Math.max(1, segmentRecords);
+
+        Log.d("SegmentLogWriter", "Save path is: " + directory.getAbsolutePath());
+        if (directory.mkdirs()) Log.d("SegmentLogWriter", "Created file structure.");
+        else Log.d("SegmentLogWriter", "Using existing file structure, or failed to create.");
+
+        for (File old : SegmentLog.listSegments(directory, name))
+            if (!old.delete()) Log.e("SegmentLogWriter", "Could not delete " + old.getName());
+    }
+
+    @Override
+    public void onSampleReceived(SampleFrame frame) {
+        write(frame);
+    }
+
+    /** Appends a frame to the log.
+     *
+     * @param frame The frame to write.
+     * @return True if the frame was written, false otherwise.
+     */
+    public synchronized boolean write(SampleFrame frame) {
+        if (this.released) return false;
+        try {
+            if (this.segment == null || this.count == this.segmentRecords || !Arrays.equals(this.schema, frame.getMeta()))
+                openSegment(frame.getMeta());
+        } catch (IOException e) {
+            Log.e("SegmentLogWriter", "Could not open segment: " + e.getMessage());
+            closeSegment();
+            return false;
+        }
+
+        MappedByteBuffer b = this.segment;
+        int record = this.headerSize + this.count * this.recordSize;
+        b.putLong(record, frame.getTimestamp());
+
+        // Clear the null bitmap, then write every column.
+        for (int i = 0; i < this.nullBytes; ++i) b.put(record + 8 + i, (byte) 0);
+        for (int c = 0; c < this.offsets.length; ++c) {
+            int at = record + this.offsets[c];
+            if (frame.isNull(c)) {
+                int bit = record + 8 + (c >> 3);
+                b.put(bit, (byte) (b.get(bit) | (1 << (c & 7))));
+                continue;
+            }
+            switch (frame.getType(c)) {
+                case Float: b.putFloat(at, frame.getFloat(c)); break;
+                case Double: b.putDouble(at, frame.getDouble(c)); break;
+                case Integer: b.putInt(at, (int) frame.getLong(c)); break;
+                case Long: b.putLong(at, frame.getLong(c)); break;
+                case Boolean: b.put(at, (byte) (Boolean.TRUE.equals(frame.getObject(c)) ? 1 : 0)); break;
+                case Character: {
+                    Object o = frame.getObject(c);
+                    b.putChar(at, (o instanceof Character) ? (Character) o : '\0');
+                    break;
+                }
+                default: SegmentLog.putString(b, at, frame.asString(c));
+            }
+        }
+
+        // Publish the record.
+        b.putInt(SegmentLog.RECORD_COUNT_OFFSET, ++this.count);
+        ++this.recordsWritten;
+        this.bytesWritten += this.recordSize;
+        if (this.count % FORCE_INTERVAL == 0) b.force();
+        return true;
+    }
+
+    private void openSegment(Sensor.SensorMetaData[] meta) throws IOException {
+        closeSegment();
+
+        if (!Arrays.equals(this.schema, meta)) {
+            this.schema = meta.clone();
+            int columns = 0; for (Sensor.SensorMetaData m : meta) columns += m.getDimension();
+            this.offsets = new int[columns];
+            this.nullBytes = (columns + 7) / 8;
+
+            int offset = 8 + this.nullBytes, c = 0;
+            for (Sensor.SensorMetaData m : meta) for (Types t : m.getDimensionTypes()) {
+                this.offsets[c++] = offset;
+                offset += SegmentLog.widthOf(t);
+            }
+            this.recordSize = offset;
+        }
+
+        this.headerSize = SegmentLog.headerSize(this.schema);
+        long size = this.headerSize + (long) this.recordSize * this.segmentRecords;
+        File f = new File(this.directory, SegmentLog.segmentName(this.name, this.segmentIndex++));
+        this.file = new RandomAccessFile(f, "rw");
+        this.file.setLength(size); // Preallocate the whole segment.
+        this.segment = this.file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        SegmentLog.writeHeader(this.segment, this.schema, this.recordSize, this.segmentRecords);
+        this.count = 0;
+        this.bytesWritten += this.headerSize;
+        Log.d("SegmentLogWriter", "Opened " + f.getName() + ", " + this.recordSize + " bytes per record.");
+    }
+
+    private void closeSegment() {
+        if (this.segment != null) this.segment.force();
+        this.segment = null;
+        if (this.file != null) {
+            try { this.file.close();
+            } catch (IOException e) { /** Nothing to do here. */ }
+        }
+        this.file = null;
+    }
+
+    /** Grabs the number of frames written.
+     *
+     * @return The number of records written, over all segments.
+     */
+    public synchronized long getRecordsWritten() { return this.recordsWritten; }
+
+    /** Grabs the number of bytes written.
+     *
+     * @return The size of the headers and records written, over all segments.
+     */
+    public synchronized long getBytesWritten() { return this.bytesWritten; }
+
+    /** Grabs the width of a record.
+     *
+     * @return The number of bytes per frame, or 0 if no frame was written yet.
+     */
+    public synchronized int getRecordSize() { return this.recordSize; }
+
+    /** Forces the current segment to storage and closes it; frames written afterwards are dropped. */
+    public synchronized void release() {
+        closeSegment();
+        this.released = true;
+    }
+}
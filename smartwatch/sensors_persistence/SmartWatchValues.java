@@ -2,7 +2,37 @@ package reuiot2015.smartwatch.sensors_persistence;
 
 import java.io.File;
 
+import reuiot2015.smartwatch.platform.Platform;
+
 /** Some default persistence values and methods for use by SmartWatch. */
 public class SmartWatchValues {
     public static final String ALBUM_NAME = "SmartWatch Samples";
+
+    private static volatile File dataDirectory; // Set to store somewhere else than the documents.
+
+    /** Sets the directory the samples are stored in, such as the output directory of an
+     * offline run.
+     *
+     * @param directory The directory, or null for the album in the platform documents.
+     */
+    public static void setDataDirectory(File directory) { dataDirectory = directory; }
+
+    /** Grabs the directory the samples are stored in, by default the data directory of the
+     * album in the platform documents (see Platform.getDocumentsDirectory()).
+     *
+     * @return The directory.
+     */
+    public static File getDataDirectory() {
+        File directory = dataDirectory;
+        return (directory != null) ? directory : new File(Platform.getDocumentsDirectory(), ALBUM_NAME + "/data");
+    }
+
+    /** Checks if the samples can be stored: a set directory always can, the default one only
+     * while the platform storage is mounted.
+     *
+     * @return True if the data directory can be written to.
+     */
+    public static boolean isDataDirectoryAvailable() {
+        return dataDirectory != null || Platform.isStorageMounted();
+    }
 }
@@ -0,0 +1,182 @@
+package reuiot2015.smartwatch.sensors_replay;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import reuiot2015.smartwatch.sensors.Sensor;
+import reuiot2015.smartwatch.sensors.Types;
+
+/** Replays a session recorded as CSV, such as the samples of SensorService.generateSampleString().
+ *
+ * The header names each column "mainLabel_dimensionLabel" (split at the last underscore), as
+ * SensorService.generateSampleHeader() does; consecutive columns of the same main label are
+ * one sensor. An optional "timestamp" column gives the time of each row in milliseconds,
+ * otherwise rows are a fixed period apart. Column types are inferred from the values of every
+ * row, since the first rows of a session are "null" until the sensors report: whole numbers
+ * are Long, other numbers Double (as are the whole numbers of a sensor with any), and anything
+ * else, or a column without any value, String. Every row becomes one event per sensor that
+ * has a value ("null" or empty is no value). */
+public class CsvReplaySource implements ReplaySource {
+    /** The name of the optional time column. */
+    public final static String TIMESTAMP = "timestamp";
+
+    private final File file;
+    private final long periodMillis;
+    private Sensor.SensorMetaData[] schema;
+    private int[] offsets; // Column of the first dimension of each sensor.
+    private int timeColumn = -1;
+
+    private BufferedReader reader;
+    private String[] row;
+    private long rowTime;
+    private int rowIndex, sensor;
+
+    /** Opens a recorded CSV session.
+     *
+     * @param file The CSV file.
+     * @param periodMillis The time between rows without a timestamp column, in milliseconds.
+     * @throws IOException If the file can't be read or has no rows.
+     */
+    public CsvReplaySource(File file, long periodMillis) throws IOException {
+        this.file = file;
+        this.periodMillis = Math.max(0, periodMillis);
+        rewind();
+        readSchema();
+    }
+
+    /** Builds the schema from the header and the values of every row, then starts over. */
+    private void readSchema() throws IOException {
+        String header = this.reader.readLine();
+        if (header == null) throw new IOException(this.file.getName() + " has no rows.");
+        String[] labels = header.split(",", -1);
+
+        // Widen the type of each column over its values: none, then Long, Double and String.
+        Types[] columns = new Types[labels.length];
+        int rows = 0;
+        for (String line; (line = this.reader.readLine()) != null; ++rows) {
+            String[] values = line.split(",", -1);
+            for (int c = 0; c < columns.length && c < values.length; ++c) {
+                String value = values[c].trim();
+                if (value.isEmpty() || value.equals("null") || columns[c] == Types.String) continue;
+                Types type = typeOf(value);
+                if (columns[c] == null || type == Types.String || type == Types.Double) columns[c] = type;
+            }
+        }
+        if (rows == 0) throw new IOException(this.file.getName() + " has no rows.");
+
+        ArrayList<Sensor.SensorMetaData> sensors = new ArrayList<>();
+        ArrayList<Integer> offsets = new ArrayList<>();
+        for (int c = 0; c < labels.length; ) {
+            if (labels[c].trim().equalsIgnoreCase(TIMESTAMP)) { this.timeColumn = c++; continue; }
+
+            String mainLabel = mainLabelOf(labels[c]);
+            int end = c + 1;
+            while (end < labels.length && !labels[end].trim().equalsIgnoreCase(TIMESTAMP) && mainLabelOf(labels[end]).equals(mainLabel)) ++end;
+
+            String[] dimensionLabels = new String[end - c];
+            Types[] types = new Types[end - c];
+            for (int i = c; i < end; ++i) {
+                String label = labels[i].trim();
+                dimensionLabels[i - c] = (label.length() > mainLabel.length()) ? label.substring(mainLabel.length() + 1) : label;
+                types[i - c] = (columns[i] != null) ? columns[i] : Types.String;
+            }
+            // A sensor with any fractional number is a real valued sensor (e.g. "-2" and "0.5").
+            if (Arrays.asList(types).contains(Types.Double))
+                for (int i = 0; i < types.length; ++i) if (types[i] == Types.Long) types[i] = Types.Double;
+            sensors.add(new Sensor.SensorMetaData(mainLabel, dimensionLabels, types, types.length));
+            offsets.add(c);
+            c = end;
+        }
+
+        this.schema = sensors.toArray(new Sensor.SensorMetaData[sensors.size()]);
+        this.offsets = new int[offsets.size()];
+        for (int i = 0; i < this.offsets.length; ++i) this.offsets[i] = offsets.get(i);
+        rewind();
+    }
+
+    private static String mainLabelOf(String label) {
+        label = label.trim();
+        int split = label.lastIndexOf('_');
+        return (split > 0) ? label.substring(0, split) : label;
+    }
+
+    private static Types typeOf(String value) {
+        try { Long.parseLong(value); return Types.Long;
+        } catch (NumberFormatException e) { /** Nothing to do here. */ }
+        try { Double.parseDouble(value); return Types.Double;
+        } catch (NumberFormatException e) { /** Nothing to do here. */ }
+        return Types.String;
+    }
+
+    private static Object parse(String value, Types type) {
+        value = value.trim();
+        if (value.isEmpty() || value.equals("null")) return null;
+        try {
+            switch (type) {
+                case Long: return Long.parseLong(value);
+                case Double: return Double.parseDouble(value);
+                default: return value;
+            }
+        } catch (NumberFormatException e) { return null; }
+    }
+
+    @Override
+    public Sensor.SensorMetaData[] getSchema() { return this.schema.clone(); }
+
+    @Override
+    public boolean next(ReplayEvent event) throws IOException {
+        while (true) {
+            if (this.row == null || this.sensor >= this.schema.length) {
+                String line = this.reader.readLine();
+                if (line == null) return false;
+                this.row = line.split(",", -1);
+                this.rowTime = (this.timeColumn >= 0 && this.timeColumn < this.row.length)
+                        ? parseTime(this.row[this.timeColumn]) : this.rowIndex * this.periodMillis;
+                ++this.rowIndex;
+                this.sensor = 0;
+            }
+
+            for (; this.sensor < this.schema.length; ++this.sensor) {
+                Types[] types = this.schema[this.sensor].getDimensionTypes();
+                boolean empty = true;
+                for (int i = 0; i < types.length; ++i) {
+                    int column = this.offsets[this.sensor] + i;
+                    event.values[i] = (column < this.row.length) ? parse(this.row[column], types[i]) : null;
+                    empty &= event.values[i] == null;
+                }
+                if (empty) continue;
+
+                event.sensor = this.sensor++;
+                event.time = this.rowTime;
+                return true;
+            }
+        }
+    }
+
+    private long parseTime(String value) {
+        try { return (long) Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) { return this.rowIndex * this.periodMillis; }
+    }
+
+    @Override
+    public void rewind() throws IOException {
+        close();
+        this.reader = new BufferedReader(new FileReader(this.file));
+        if (this.schema != null) this.reader.readLine(); // Skip the header.
+        this.row = null;
+        this.rowIndex = 0;
+    }
+
+    @Override
+    public void close() {
+        if (this.reader != null) {
+            try { this.reader.close();
+            } catch (IOException e) { /** Nothing to do here. */ }
+        }
+        this.reader = null;
+    }
+}
@@ -0,0 +1,89 @@
+package reuiot2015.smartwatch.sensors_replay;
+
+import java.io.IOException;
+
+import reuiot2015.smartwatch.sensors.Collector;
+import reuiot2015.smartwatch.sensors.Sensor;
+
+/** Replays a recorded session through a Collector on the clock of the session, on the calling
+ * thread, as fast as the CPU allows.
+ *
+ * Unlike a ReplayLinker, nothing waits for the wall clock: the events keep their recorded
+ * times, and the collector is driven with collectAt() once every period of session time,
+ * after the events up to that time were fed. The frames are therefore the same on every run
+ * and on every machine, whatever the load, which is what offline scoring of many sessions
+ * needs. Register the collector listeners with Collector.OverflowPolicy.BLOCK to see every
+ * frame. */
+public class OfflineReplay {
+    private final ReplaySource source;
+    private final Collector collector;
+    private final double periodMillis;
+    private long eventsReplayed, framesCollected;
+    private long firstTime = Long.MIN_VALUE, lastTime = Long.MIN_VALUE;
+
+    /** Constructs an offline replay.
+     *
+     * @param source The recorded session.
+     * @param collector The collector to feed, not collecting on its own (see Collector.begin()).
+     * @param sampleRate The rate to collect frames at, in Hertz of session time.
+     */
+    public OfflineReplay(ReplaySource source, Collector collector, float sampleRate) {
+        this.source = source;
+        this.collector = collector;
+        this.periodMillis = 1000.0 / sampleRate;
+    }
+
+    /** Replays the whole session, adding its sensors to the collector for the duration, and
+     * waits until the listeners were called with every frame.
+     *
+     * @return The number of frames collected.
+     * @throws IOException If the session can't be read.
+     */
+    public long run() throws IOException {
+        Sensor.SensorMetaData[] schema = this.source.getSchema();
+        ReplaySensor[] sensors = new ReplaySensor[schema.length];
+        int width = 0;
+        for (int i = 0; i < schema.length; ++i) {
+            sensors[i] = new ReplaySensor(schema[i]);
+            width = Math.max(width, schema[i].getDimension());
+            this.collector.addSensor(sensors[i]);
+        }
+
+        try {
+            ReplaySource.ReplayEvent event = new ReplaySource.ReplayEvent(width);
+            long tick = 0, tickTime = 0;
+            while (this.source.next(event)) {
+                if (this.firstTime == Long.MIN_VALUE) tickTime = this.firstTime = event.time;
+
+                // Collect every tick the session passed before this event, then feed it.
+                while (event.time > tickTime) {
+                    this.collector.collectAt(tickTime);
+                    ++this.framesCollected;
+                    tickTime = this.firstTime + (long) (++tick * this.periodMillis);
+                }
+                sensors[event.sensor].replay(event.time, event.values);
+                this.lastTime = event.time;
+                ++this.eventsReplayed;
+            }
+            if (this.eventsReplayed > 0) { // The events of the last tick.
+                this.collector.collectAt(tickTime);
+                ++this.framesCollected;
+            }
+            this.collector.awaitListeners();
+        } finally {
+            for (ReplaySensor s : sensors) this.collector.removeSensor(s);
+        }
+        return this.framesCollected;
+    }
+
+    /** @return The number of events fed to the sensors. */
+    public long getEventsReplayed() { return this.eventsReplayed; }
+
+    /** @return The number of frames collected. */
+    public long getFramesCollected() { return this.framesCollected; }
+
+    /** @return The session time replayed, from the first to the last event, in milliseconds. */
+    public long getDurationMillis() {
+        return (this.eventsReplayed > 0) ? this.lastTime - this.firstTime : 0;
+    }
+}
@@ -0,0 +1,159 @@
+package reuiot2015.smartwatch.sensors_replay;
+
+import java.io.IOException;
+
+import reuiot2015.smartwatch.platform.Log;
+import reuiot2015.smartwatch.sensors.Linker;
+import reuiot2015.smartwatch.sensors.Sensor;
+
+/** Links the sensors of a recorded session with the "sensor" framework, so the pipeline can
+ * run without a band.
+ *
+ * Subscribing starts a thread that feeds the recorded events to the sensors, keeping the
+ * time between them divided by the speed: 1 for real time, N for N times faster, or
+ * AS_FAST_AS_POSSIBLE to not wait at all. Events are given the current time, shifted by
+ * their recorded offset from the start of the session, so the Collector sees them as live.
+ * The linker stays connected until the session ends, unless it loops. */
+public class ReplayLinker extends Linker {
+    /** The speed to replay without waiting between events. */
+    public final static double AS_FAST_AS_POSSIBLE = Double.POSITIVE_INFINITY;
+
+    private final ReplaySource source;
+    private final double speed;
+    private volatile boolean loop;
+
+    private ReplaySensor[] sensors;
+    private int width; // Dimension of the widest sensor.
+    private Thread player;
+    private volatile boolean connected, finished;
+    private volatile long eventsReplayed, lateEvents;
+
+    /** Constructs a ReplayLinker object instance.
+     *
+     * @param source The recorded session.
+     * @param speed How many times faster than recorded to replay, or AS_FAST_AS_POSSIBLE.
+     */
+    public ReplayLinker(ReplaySource source, double speed) {
+        this.source = source;
+        this.speed = (speed > 0) ? speed : 1.0;
+    }
+
+    /** Sets whether the session starts over when it ends, instead of disconnecting.
+     *
+     * @param loop True to replay the session forever.
+     */
+    public void setLoop(boolean loop) { this.loop = loop; }
+
+    @Override
+    public synchronized boolean connect() {
+        if (this.connected) return true;
+        if (this.finished) return false; // The session was played, don't start over.
+
+        clearSensors();
+        Sensor.SensorMetaData[] schema = this.source.getSchema();
+        this.sensors = new ReplaySensor[schema.length];
+        this.width = 0;
+        for (int i = 0; i < schema.length; ++i) {
+            this.sensors[i] = new ReplaySensor(schema[i]);
+            this.width = Math.max(this.width, schema[i].getDimension());
+            addSensor(this.sensors[i]);
+        }
+        this.connected = true;
+        return true;
+    }
+
+    @Override
+    public synchronized void disconnect() {
+        unsubscribe();
+        clearSensors();
+        this.connected = false;
+        this.source.close();
+    }
+
+    @Override
+    public synchronized void subscribe() {
+        if (!this.connected || this.player != null) return;
+        this.player = new Thread(new Runnable() {
+            @Override
+            public void run() { play(); }
+        }, "Replay linker");
+        this.player.setDaemon(true);
+        this.player.start();
+    }
+
+    @Override
+    public void unsubscribe() {
+        Thread player;
+        synchronized (this) {
+            player = this.player;
+            this.player = null;
+        }
+        if (player == null) return;
+        player.interrupt();
+        if (Thread.currentThread() != player) {
+            try { player.join();
+            } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        }
+    }
+
+    @Override
+    public boolean isConnected() { return this.connected; }
+
+    /** Feeds the events to the sensors on the player thread. */
+    private void play() {
+        ReplaySource.ReplayEvent event = new ReplaySource.ReplayEvent(this.width);
+        boolean paced = !Double.isInfinite(this.speed);
+        Log.d("ReplayLinker", "Replay starting at " + (paced ? this.speed + "x" : "full speed") + ".");
+
+        try {
+            do {
+                long firstTime = Long.MIN_VALUE, start = System.currentTimeMillis();
+                while (!Thread.currentThread().isInterrupted() && this.source.next(event)) {
+                    if (firstTime == Long.MIN_VALUE) firstTime = event.time;
+                    long offset = (long) ((event.time - firstTime) / this.speed);
+
+                    long eventTime = start + offset;
+                    if (paced) {
+                        long wait = eventTime - System.currentTimeMillis();
+                        if (wait > 0) Thread.sleep(wait);
+                        else if (wait < -100) ++this.lateEvents; // More than 100 ms behind.
+                    } else eventTime = System.currentTimeMillis();
+
+                    this.sensors[event.sensor].replay(eventTime, event.values);
+                    ++this.eventsReplayed;
+                }
+                if (this.loop && !Thread.currentThread().isInterrupted()) this.source.rewind();
+                else break;
+            } while (true);
+            if (!Thread.currentThread().isInterrupted()) {
+                Log.d("ReplayLinker", "Replay finished, " + this.eventsReplayed + " events.");
+                this.finished = true;
+                this.connected = false; // Let the owner notice the session ended.
+            }
+        } catch (InterruptedException e) {
+            /** Nothing to do here. */
+        } catch (IOException e) {
+            Log.e("ReplayLinker", "Replay failed: " + e.getMessage());
+            this.finished = true;
+            this.connected = false;
+        }
+    }
+
+    /** Grabs the number of events fed to the sensors.
+     *
+     * @return The number of events replayed.
+     */
+    public long getEventsReplayed() { return this.eventsReplayed; }
+
+    /** Grabs the number of events fed more than 100 ms after their time, when pacing.
+     *
+     * @return The number of late events.
+     */
+    public long getLateEvents() { return this.lateEvents; }
+
+    /** Checks if the whole session was replayed.
+     *
+     * @return True once the session ended, without looping.
+     */
+    public boolean isFinished() { return this.finished; }
+}
@@ -0,0 +1,41 @@
+package reuiot2015.smartwatch.sensors_replay;
+
+import reuiot2015.smartwatch.sensors.Sensor;
+import reuiot2015.smartwatch.sensors.Types;
+
+/** A sensor whose data is fed from a recorded session by a ReplayLinker. */
+public class ReplaySensor extends Sensor {
+    private final boolean triple; // Three Float dimensions, updated without boxing.
+    private final Object[] scratch; // The values of one event, exactly one per dimension.
+
+    /** Constructs a replayed sensor with the labels and types of a recorded one.
+     *
+     * @param meta The meta data of the recorded sensor.
+     */
+    public ReplaySensor(Sensor.SensorMetaData meta) {
+        super(meta.getMainLabel(), labelsOf(meta), meta.getDimensionTypes().clone());
+        Types[] types = meta.getDimensionTypes();
+        this.triple = types.length == 3 && types[0] == Types.Float && types[1] == Types.Float && types[2] == Types.Float;
+        this.scratch = new Object[types.length];
+    }
+
+    private static String[] labelsOf(Sensor.SensorMetaData meta) {
+        String[] labels = new String[meta.getDimension()];
+        for (int i = 0; i < labels.length; ++i) labels[i] = meta.getDimensionLabel(i);
+        return labels;
+    }
+
+    /** Feeds a recorded event to the sensor.
+     *
+     * @param eventTime The time to give the event, in milliseconds.
+     * @param values The values of the event, starting with one for each dimension.
+     */
+    void replay(long eventTime, Object[] values) {
+        if (this.triple && values[0] instanceof Float && values[1] instanceof Float && values[2] instanceof Float) {
+            updateAt(eventTime, (Float) values[0], (Float) values[1], (Float) values[2]);
+            return;
+        }
+        System.arraycopy(values, 0, this.scratch, 0, this.scratch.length);
+        updateAt(eventTime, this.scratch);
+    }
+}
@@ -0,0 +1,47 @@
+package reuiot2015.smartwatch.sensors_replay;
+
+import java.io.IOException;
+
+import reuiot2015.smartwatch.sensors.Sensor;
+
+/** A recorded session read event by event, oldest first, for a ReplayLinker. */
+public interface ReplaySource {
+    /** Grabs the recorded sensors.
+     *
+     * @return The meta data of each sensor; events refer to sensors by their index in it.
+     */
+    Sensor.SensorMetaData[] getSchema();
+
+    /** Reads the next event.
+     *
+     * @param event The event to fill; its values array has room for the widest sensor.
+     * @return True if an event was read, false at the end of the session.
+     * @throws IOException If the session can't be read.
+     */
+    boolean next(ReplayEvent event) throws IOException;
+
+    /** Starts the session over from its first event.
+     *
+     * @throws IOException If the session can't be read.
+     */
+    void rewind() throws IOException;
+
+    /** Releases the session. */
+    void close();
+
+    /** One recorded event of one sensor, reused from event to event. */
+    class ReplayEvent {
+        /** The index of the sensor in the schema. */
+        public int sensor;
+        /** The time the event was recorded, in milliseconds. */
+        public long time;
+        /** The values, one per dimension of the sensor, followed by unused slots. */
+        public Object[] values;
+
+        /** Constructs an event.
+         *
+         * @param width The number of values of the widest sensor.
+         */
+        public ReplayEvent(int width) { this.values = new Object[width]; }
+    }
+}
@@ -0,0 +1,112 @@
+package reuiot2015.smartwatch.sensors_replay;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import reuiot2015.smartwatch.sensors.Sensor;
+import reuiot2015.smartwatch.sensors_persistence.SegmentLog;
+import reuiot2015.smartwatch.sensors_persistence.SegmentLogReader;
+
+/** Replays the frames recorded by a SegmentLogWriter.
+ *
+ * Every record becomes one event per sensor that had a value, at the frame timestamp, so the
+ * session is replayed at the rate it was collected, with the values as they were collected
+ * (already averaged, and with any aggregates as extra dimensions). All segments must have
+ * the schema of the first one; segments with another schema are skipped. */
+public class SegmentReplaySource implements ReplaySource {
+    private final File[] segments;
+    private final Sensor.SensorMetaData[] schema;
+    private final int[] offsets; // First column of each sensor.
+
+    private SegmentLogReader reader;
+    private int segment = -1, record, sensor;
+
+    /** Opens a recorded log.
+     *
+     * @param directory The directory of the log.
+     * @param name The name of the log (e.g. "default").
+     * @throws IOException If the log has no readable segment.
+     */
+    public SegmentReplaySource(File directory, String name) throws IOException {
+        this(SegmentLog.listSegments(directory, name));
+    }
+
+    /** Opens recorded segments.
+     *
+     * @param segments The segment files, in order.
+     * @throws IOException If the first segment can't be read.
+     */
+    public SegmentReplaySource(File[] segments) throws IOException {
+        if (segments.length == 0) throw new IOException("No segments to replay.");
+        this.segments = segments.clone();
+        this.schema = new SegmentLogReader(segments[0]).getSchema();
+        this.offsets = new int[this.schema.length];
+        int column = 0; for (int i = 0; i < this.schema.length; ++i) {
+            this.offsets[i] = column;
+            column += this.schema[i].getDimension();
+        }
+    }
+
+    @Override
+    public Sensor.SensorMetaData[] getSchema() { return this.schema.clone(); }
+
+    @Override
+    public boolean next(ReplayEvent event) throws IOException {
+        while (true) {
+            if (this.reader == null || this.record >= this.reader.getRecordCount()) {
+                if (!openNext()) return false;
+                continue;
+            }
+
+            // Find the next sensor of the record with a value.
+            for (; this.sensor < this.schema.length; ++this.sensor) {
+                int first = this.offsets[this.sensor], dimension = this.schema[this.sensor].getDimension();
+                boolean empty = true;
+                for (int i = 0; i < dimension; ++i) {
+                    event.values[i] = this.reader.getObject(this.record, first + i);
+                    empty &= event.values[i] == null;
+                }
+                if (empty) continue;
+
+                event.sensor = this.sensor++;
+                event.time = this.reader.getTimestamp(this.record);
+                return true;
+            }
+            ++this.record;
+            this.sensor = 0;
+        }
+    }
+
+    /** Moves to the next segment with the schema of the first one. */
+    private boolean openNext() throws IOException {
+        this.reader = null;
+        while (++this.segment < this.segments.length) {
+            SegmentLogReader next = new SegmentLogReader(this.segments[this.segment]);
+            if (!sameSchema(next.getSchema())) continue;
+            this.reader = next;
+            this.record = 0;
+            this.sensor = 0;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean sameSchema(Sensor.SensorMetaData[] other) {
+        if (other.length != this.schema.length) return false;
+        for (int i = 0; i < other.length; ++i) {
+            if (!other[i].getMainLabel().equals(this.schema[i].getMainLabel())) return false;
+            if (!Arrays.equals(other[i].getDimensionTypes(), this.schema[i].getDimensionTypes())) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void rewind() {
+        this.reader = null;
+        this.segment = -1;
+    }
+
+    @Override
+    public void close() { this.reader = null; } // Mappings are released by the garbage collector.
+}
@@ -0,0 +1,201 @@
+package reuiot2015.smartwatch.sensors_synthetic;
+
+import reuiot2015.smartwatch.platform.Log;
+import reuiot2015.smartwatch.sensors.Linker;
+
+/** Links the sensors of virtual wearers with the "sensor" framework, so the Collector and the
+ * persistence path can be loaded without bands.
+ *
+ * Each wearer has an accelerometer, a heart rate and a skin temperature sensor, labelled like
+ * the band's for the first wearer and with a "_w" index suffix for the others. Their signals
+ * come from a seeded model of walking, sitting, lying and falling (see WearerProfile), so a
+ * run is the same every time for the same seed. Subscribing starts a thread that steps virtual
+ * time by the accelerometer period, emitting one accelerometer event per wearer each step and
+ * heart rate and skin temperature once a second. Virtual time runs at the given speed, or as
+ * fast as possible, starting from the time the linker connected, and events carry virtual
+ * time. The linker disconnects when the duration is over, if one was set. */
+public class SyntheticLinker extends Linker {
+    /** The speed to generate without waiting between steps. */
+    public final static double AS_FAST_AS_POSSIBLE = Double.POSITIVE_INFINITY;
+
+    /** The accelerometer period at the band's fastest rate, 62.5 Hz, in milliseconds. */
+    public final static long MS16_PERIOD = 16;
+
+    private final static long VITALS_PERIOD = 1000;
+
+    /** What a wearer is doing. */
+    public enum Activity {WALKING, SITTING, LYING, FALLING}
+
+    /** Tells the true activity of the wearers, to check what the pipeline detects against. */
+    public interface ActivityListener {
+        /** Called on the generator thread when a wearer starts an activity.
+         *
+         * @param wearer The index of the wearer.
+         * @param activity The new activity.
+         * @param time The time of the change, in the same clock as the events.
+         */
+        void onActivityChanged(int wearer, Activity activity, long time);
+    }
+
+    private final int wearerCount;
+    private final long seed;
+    private final WearerProfile profile;
+    private final long period;
+    private final double speed;
+    private volatile long duration; // Virtual milliseconds, 0 for no end.
+    private volatile ActivityListener activityListener;
+
+    private SyntheticWearer[] wearers;
+    private long origin; // Time of the start of the run, virtual time counts from it.
+    private Thread generator;
+    private volatile boolean connected, finished;
+    private volatile long eventsGenerated, fallsGenerated;
+
+    /** Constructs a SyntheticLinker object instance.
+     *
+     * @param wearers The number of virtual wearers.
+     * @param seed The seed of the signals.
+     * @param profile The parameters shared by the wearers.
+     * @param period The time between accelerometer events, in milliseconds.
+     * @param speed How many times faster than real time to generate, or AS_FAST_AS_POSSIBLE.
+     */
+    public SyntheticLinker(int wearers, long seed, WearerProfile profile, long period, double speed) {
+        this.wearerCount = Math.max(1, wearers);
+        this.seed = seed;
+        this.profile = profile;
+        this.period = Math.max(1, period);
+        this.speed = (speed > 0) ? speed : 1.0;
+    }
+
+    /** Sets how long to generate before disconnecting.
+     *
+     * @param virtualMillis The virtual time to generate, in milliseconds, or 0 to never stop.
+     */
+    public void setDuration(long virtualMillis) { this.duration = Math.max(0, virtualMillis); }
+
+    /** Sets the listener told of every activity change.
+     *
+     * @param listener The listener, or null to remove it.
+     */
+    public void setActivityListener(ActivityListener listener) { this.activityListener = listener; }
+
+    @Override
+    public synchronized boolean connect() {
+        if (this.connected) return true;
+        if (this.finished) return false; // The run is over, don't start over.
+
+        clearSensors();
+        this.wearers = new SyntheticWearer[this.wearerCount];
+        this.origin = System.currentTimeMillis();
+        for (int i = 0; i < this.wearerCount; ++i) {
+            SyntheticWearer w = new SyntheticWearer(i, this.profile, this.seed + i * 0x9E3779B97F4A7C15L, this.origin);
+            this.wearers[i] = w;
+            addSensor(w.accelerometer);
+            addSensor(w.heartRate);
+            addSensor(w.skinTemperature);
+        }
+        this.connected = true;
+        return true;
+    }
+
+    @Override
+    public synchronized void disconnect() {
+        unsubscribe();
+        clearSensors();
+        this.connected = false;
+    }
+
+    @Override
+    public synchronized void subscribe() {
+        if (!this.connected || this.generator != null) return;
+        this.generator = new Thread(new Runnable() {
+            @Override
+            public void run() { generate(); }
+        }, "Synthetic linker");
+        this.generator.setDaemon(true);
+        this.generator.start();
+    }
+
+    @Override
+    public void unsubscribe() {
+        Thread generator;
+        synchronized (this) {
+            generator = this.generator;
+            this.generator = null;
+        }
+        if (generator == null) return;
+        generator.interrupt();
+        if (Thread.currentThread() != generator) {
+            try { generator.join();
+            } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        }
+    }
+
+    @Override
+    public boolean isConnected() { return this.connected; }
+
+    /** Steps virtual time on the generator thread. */
+    private void generate() {
+        SyntheticWearer[] wearers = this.wearers;
+        boolean paced = !Double.isInfinite(this.speed);
+        Log.d("SyntheticLinker", wearers.length + " wearers starting at " + (paced ? this.speed + "x" : "full speed") + ".");
+
+        long start = this.origin, nextVitals = 0;
+        try {
+            for (long elapsed = 0; !Thread.currentThread().isInterrupted(); elapsed += this.period) {
+                long duration = this.duration;
+                if (duration > 0 && elapsed >= duration) {
+                    Log.d("SyntheticLinker", "Run finished, " + this.eventsGenerated + " events, " + this.fallsGenerated + " falls.");
+                    this.finished = true;
+                    this.connected = false; // Let the owner notice the run ended.
+                    return;
+                }
+                if (paced) {
+                    long wait = start + (long) (elapsed / this.speed) - System.currentTimeMillis();
+                    if (wait > 0) Thread.sleep(wait);
+                }
+
+                long time = start + elapsed;
+                boolean vitals = elapsed >= nextVitals;
+                if (vitals) nextVitals += VITALS_PERIOD;
+                ActivityListener listener = this.activityListener;
+                long events = 0, falls = 0;
+                for (SyntheticWearer w : wearers) {
+                    Activity changed = w.advance(time);
+                    if (changed != null) {
+                        if (changed == Activity.FALLING) ++falls;
+                        if (listener != null) listener.onActivityChanged(w.index, changed, time);
+                    }
+                    w.emitAccelerometer(time);
+                    ++events;
+                    if (vitals) {
+                        w.emitVitals(time);
+                        events += 2;
+                    }
+                }
+                this.eventsGenerated += events;
+                this.fallsGenerated += falls;
+            }
+        } catch (InterruptedException e) {
+            /** Nothing to do here. */
+        }
+    }
+
+    /** Grabs the number of events fed to the sensors.
+     *
+     * @return The number of events generated, over all wearers.
+     */
+    public long getEventsGenerated() { return this.eventsGenerated; }
+
+    /** Grabs the number of falls, the ground truth for the fall detector.
+     *
+     * @return The number of falls generated, over all wearers.
+     */
+    public long getFallsGenerated() { return this.fallsGenerated; }
+
+    /** Checks if the whole duration was generated.
+     *
+     * @return True once the run ended.
+     */
+    public boolean isFinished() { return this.finished; }
+}
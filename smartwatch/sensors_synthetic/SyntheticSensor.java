@@ -0,0 +1,26 @@
+package reuiot2015.smartwatch.sensors_synthetic;
+
+import reuiot2015.smartwatch.sensors.Sensor;
+import reuiot2015.smartwatch.sensors.Types;
+
+/** A sensor whose data is generated by a SyntheticLinker. */
+public class SyntheticSensor extends Sensor {
+    /** Constructs a generated sensor.
+     *
+     * @param mainLabel The main label of the sensor.
+     * @param dimensionLabels The labels for each dimension.
+     * @param dimensionTypes The types of data in each dimension.
+     */
+    public SyntheticSensor(String mainLabel, String[] dimensionLabels, Types[] dimensionTypes) {
+        super(mainLabel, dimensionLabels, dimensionTypes);
+    }
+
+    /** Feeds a three dimensional event without allocating. */
+    void emit(long eventTime, float x, float y, float z) { updateAt(eventTime, x, y, z); }
+
+    /** Feeds a one dimensional event without allocating. */
+    void emit(long eventTime, float value) { updateAt(eventTime, value); }
+
+    /** Feeds an event of any dimensions. */
+    void emit(long eventTime, Object... values) { updateAt(eventTime, values); }
+}
@@ -0,0 +1,154 @@
+package reuiot2015.smartwatch.sensors_synthetic;
+
+import java.util.Random;
+
+import reuiot2015.smartwatch.sensors.Types;
+
+/** The state and signals of one virtual wearer of a SyntheticLinker.
+ *
+ * The wearer moves between walking, sitting and lying, each for an exponentially distributed
+ * time, and falls at random at the rate of its profile. A fall is a short free fall, an impact
+ * of the profile strength in a random direction, and a damped settle into lying. Accelerations
+ * are in g with the band resting flat reading about 1 g on z. Heart rate follows the activity
+ * with a lag, and skin temperature drifts slowly. Everything is drawn from one seeded Random,
+ * so a wearer always produces the same signals for the same seed and rates. */
+class SyntheticWearer {
+    private final static long FREE_FALL = 300, IMPACT = 100, SETTLE = 1100; // Fall phases, in milliseconds.
+
+    final int index;
+    final SyntheticSensor accelerometer, heartRate, skinTemperature;
+
+    private final WearerProfile profile;
+    private final Random random;
+
+    private SyntheticLinker.Activity activity;
+    private final long startTime;
+    private long activityStart, activityEnd;
+    private double impactX, impactY, impactZ; // Direction of the impact of the current fall.
+    private double beatsPerMinute;
+
+    /** Constructs a wearer.
+     *
+     * @param index The index of the wearer, used to label its sensors after the first.
+     * @param profile The parameters of the wearer.
+     * @param seed The seed of the signals.
+     * @param startTime The time the wearer starts, in milliseconds.
+     */
+    SyntheticWearer(int index, WearerProfile profile, long seed, long startTime) {
+        this.index = index;
+        this.profile = profile;
+        this.random = new Random(seed);
+        this.startTime = startTime;
+
+        this.accelerometer = new SyntheticSensor(label("ms_accelerometer"), new String[] {"x", "y", "z"},
+                new Types[] {Types.Float, Types.Float, Types.Float});
+        this.heartRate = new SyntheticSensor(label("ms_heart_rate"), new String[] {"bpm", "quality"},
+                new Types[] {Types.Integer, Types.String});
+        this.skinTemperature = new SyntheticSensor(label("ms_skin_temperature"), new String[] {"celsius"},
+                new Types[] {Types.Float});
+
+        this.beatsPerMinute = profile.getRestingHeartRate();
+        begin(SyntheticLinker.Activity.SITTING, startTime);
+    }
+
+    /** The first wearer has the labels of the band sensors, so the fall pipeline uses it. */
+    private String label(String base) {
+        return (this.index == 0) ? base : base + "_w" + this.index;
+    }
+
+    /** Moves to the next activity if the current one is over.
+     *
+     * @return The new activity, or null if it didn't change.
+     */
+    SyntheticLinker.Activity advance(long time) {
+        if (time < this.activityEnd) return null;
+
+        SyntheticLinker.Activity next;
+        if (this.activity == SyntheticLinker.Activity.FALLING) next = SyntheticLinker.Activity.LYING; // Stay down.
+        else {
+            // The chance of a fall is the fall rate over the mean time of an activity.
+            double fallChance = this.profile.getFallsPerHour() * this.profile.getMeanActivitySeconds() / 3600.0;
+            double draw = this.random.nextDouble();
+            if (draw < Math.min(1.0, fallChance)) next = SyntheticLinker.Activity.FALLING;
+            else {
+                draw = this.random.nextDouble();
+                next = (draw < 0.5) ? SyntheticLinker.Activity.WALKING : (draw < 0.85) ? SyntheticLinker.Activity.SITTING : SyntheticLinker.Activity.LYING;
+            }
+        }
+        begin(next, time);
+        return next;
+    }
+
+    private void begin(SyntheticLinker.Activity activity, long time) {
+        this.activity = activity;
+        this.activityStart = time;
+        if (activity == SyntheticLinker.Activity.FALLING) {
+            this.activityEnd = time + FREE_FALL + IMPACT + SETTLE;
+            double theta = this.random.nextDouble() * 2 * Math.PI, z = this.random.nextDouble() * 2 - 1;
+            double r = Math.sqrt(1 - z * z);
+            this.impactX = r * Math.cos(theta); this.impactY = r * Math.sin(theta); this.impactZ = z;
+        } else {
+            double seconds = -Math.log(1 - this.random.nextDouble()) * this.profile.getMeanActivitySeconds();
+            this.activityEnd = time + (long) (Math.max(5, seconds) * 1000);
+        }
+    }
+
+    /** Generates an accelerometer event. */
+    void emitAccelerometer(long time) {
+        double x, y, z, noise;
+        switch (this.activity) {
+            case WALKING: {
+                double a = this.profile.getWalkingAmplitude();
+                double phase = 2 * Math.PI * this.profile.getStepFrequency() * (time - this.activityStart) / 1000.0;
+                x = 0.5 * a * Math.sin(phase / 2); // Sway, once per stride.
+                y = -0.2 + 0.1 * a * Math.cos(phase);
+                z = 0.98 + a * Math.sin(phase) + 0.3 * a * Math.sin(2 * phase);
+                noise = 0.03;
+                break;
+            }
+            case SITTING:
+                x = 0.3; y = -0.25; z = 0.9;
+                noise = 0.015;
+                break;
+            case FALLING: {
+                long t = time - this.activityStart;
+                if (t < FREE_FALL) { // Close to weightless.
+                    x = 0.0; y = -0.03; z = 0.15;
+                    noise = 0.05;
+                } else if (t < FREE_FALL + IMPACT) { // A decaying spike on top of gravity.
+                    double peak = this.profile.getFallImpact() * Math.exp(-(t - FREE_FALL) / 30.0);
+                    x = peak * this.impactX; y = peak * this.impactY; z = 1.0 + peak * this.impactZ;
+                    noise = 0.1;
+                } else { // Damped bounces while settling on the side.
+                    double bounce = 0.3 * Math.exp(-(t - FREE_FALL - IMPACT) / 200.0) * Math.sin(2 * Math.PI * 5 * t / 1000.0);
+                    x = 0.98 + bounce; y = 0.1; z = 0.05 + bounce;
+                    noise = 0.02;
+                }
+                break;
+            }
+            default: // LYING, on the side.
+                x = 0.98; y = 0.1; z = 0.05;
+                noise = 0.01;
+        }
+        this.accelerometer.emit(time,
+                (float) (x + this.random.nextGaussian() * noise),
+                (float) (y + this.random.nextGaussian() * noise),
+                (float) (z + this.random.nextGaussian() * noise));
+    }
+
+    /** Generates the heart rate and skin temperature events, once a second. */
+    void emitVitals(long time) {
+        double target = this.profile.getRestingHeartRate();
+        switch (this.activity) {
+            case WALKING: target += 30; break;
+            case SITTING: target += 5; break;
+            case FALLING: target += 40; break;
+            default: target -= 5;
+        }
+        this.beatsPerMinute += (target - this.beatsPerMinute) * 0.1 + this.random.nextGaussian();
+        this.heartRate.emit(time, (int) Math.round(this.beatsPerMinute), "LOCKED");
+
+        double drift = 0.5 * Math.sin(2 * Math.PI * (time - this.startTime) / 3600000.0); // Hourly.
+        this.skinTemperature.emit(time, (float) (this.profile.getSkinTemperature() + drift + this.random.nextGaussian() * 0.05));
+    }
+}
@@ -0,0 +1,103 @@
+package reuiot2015.smartwatch.sensors_synthetic;
+
+/** The parameters of a virtual wearer generated by a SyntheticLinker. Build with a Builder. */
+public class WearerProfile {
+    private final double stepFrequency, walkingAmplitude;
+    private final double restingHeartRate, skinTemperature;
+    private final double fallImpact, fallsPerHour, meanActivitySeconds;
+
+    private WearerProfile(Builder b) {
+        this.stepFrequency = b.stepFrequency;
+        this.walkingAmplitude = b.walkingAmplitude;
+        this.restingHeartRate = b.restingHeartRate;
+        this.skinTemperature = b.skinTemperature;
+        this.fallImpact = b.fallImpact;
+        this.fallsPerHour = b.fallsPerHour;
+        this.meanActivitySeconds = b.meanActivitySeconds;
+    }
+
+    /** @return The steps per second while walking. */
+    public double getStepFrequency() { return this.stepFrequency; }
+
+    /** @return The vertical acceleration of a step, in g. */
+    public double getWalkingAmplitude() { return this.walkingAmplitude; }
+
+    /** @return The heart rate at rest, in beats per minute. */
+    public double getRestingHeartRate() { return this.restingHeartRate; }
+
+    /** @return The mean skin temperature, in degrees Celsius. */
+    public double getSkinTemperature() { return this.skinTemperature; }
+
+    /** @return The peak acceleration of a fall impact, in g. */
+    public double getFallImpact() { return this.fallImpact; }
+
+    /** @return The mean number of falls per hour of wear. */
+    public double getFallsPerHour() { return this.fallsPerHour; }
+
+    /** @return The mean time spent in an activity before changing, in seconds. */
+    public double getMeanActivitySeconds() { return this.meanActivitySeconds; }
+
+    public static class Builder {
+        private double stepFrequency = 1.8, walkingAmplitude = 0.35;
+        private double restingHeartRate = 68, skinTemperature = 33.0;
+        private double fallImpact = 4.0, fallsPerHour = 1.0, meanActivitySeconds = 60;
+
+        /** Sets the walking cadence.
+         *
+         * @param stepFrequency The steps per second.
+         *
+         * @return This builder.
+         */
+        public Builder setStepFrequency(double stepFrequency) { this.stepFrequency = stepFrequency; return this; }
+
+        /** Sets the strength of the steps.
+         *
+         * @param walkingAmplitude The vertical acceleration of a step, in g.
+         *
+         * @return This builder.
+         */
+        public Builder setWalkingAmplitude(double walkingAmplitude) { this.walkingAmplitude = walkingAmplitude; return this; }
+
+        /** Sets the heart rate at rest.
+         *
+         * @param restingHeartRate The heart rate, in beats per minute.
+         *
+         * @return This builder.
+         */
+        public Builder setRestingHeartRate(double restingHeartRate) { this.restingHeartRate = restingHeartRate; return this; }
+
+        /** Sets the mean skin temperature.
+         *
+         * @param skinTemperature The temperature, in degrees Celsius.
+         *
+         * @return This builder.
+         */
+        public Builder setSkinTemperature(double skinTemperature) { this.skinTemperature = skinTemperature; return this; }
+
+        /** Sets the strength of the falls.
+         *
+         * @param fallImpact The peak acceleration of the impact, in g.
+         *
+         * @return This builder.
+         */
+        public Builder setFallImpact(double fallImpact) { this.fallImpact = fallImpact; return this; }
+
+        /** Sets how often the wearer falls.
+         *
+         * @param fallsPerHour The mean number of falls per hour, 0 for none.
+         *
+         * @return This builder.
+         */
+        public Builder setFallsPerHour(double fallsPerHour) { this.fallsPerHour = Math.max(0, fallsPerHour); return this; }
+
+        /** Sets how long the wearer keeps walking, sitting or lying.
+         *
+         * @param meanActivitySeconds The mean time before changing activity, in seconds.
+         *
+         * @return This builder.
+         */
+        public Builder setMeanActivitySeconds(double meanActivitySeconds) { this.meanActivitySeconds = Math.max(1, meanActivitySeconds); return this; }
+
+        public WearerProfile build() { return new WearerProfile(this); }
+    }
+}
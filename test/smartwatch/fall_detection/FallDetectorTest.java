@@ -0,0 +1,213 @@
+package reuiot2015.smartwatch.fall_detection;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import reuiot2015.smartwatch.platform.Log;
+import reuiot2015.smartwatch.prediction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Checks FallDetector against the rule it replaced: the inarow counter of the original
+ * prediction class, which calls 2 to 5 fall predictions in a row a fall. */
+public class FallDetectorTest {
+    private final static long PERIOD = 250; // Milliseconds between windows, at 4 Hz.
+
+    private Log.Sink sink;
+
+    @Before
+    public void silenceLog() {
+        this.sink = Log.getSink();
+        Log.setSink(Log.ERRORS);
+    }
+
+    @After
+    public void restoreLog() { Log.setSink(this.sink); }
+
+    /** The original rule of the prediction class, before the FallDetector. */
+    private static class Baseline {
+        int inarow = 0;
+        boolean fall = false;
+
+        boolean update(boolean predictedFall) {
+            if (predictedFall) ++inarow;
+            else inarow = 0;
+
+            if (inarow >= 2 && inarow <= 5) fall = true;
+            if (inarow > 5) fall = false;
+            return fall;
+        }
+    }
+
+    /** Records what a detector reports. */
+    private static class Recorder implements FallDetector.FallListener {
+        final ArrayList<FallEvent> detected = new ArrayList<>(), cancelled = new ArrayList<>();
+        boolean fall; // Set by the last detection, cleared by a cancellation, as in prediction.
+
+        @Override
+        public void onFallDetected(FallEvent event) {
+            this.detected.add(event);
+            this.fall = true;
+        }
+
+        @Override
+        public void onFallCancelled(FallEvent event) {
+            this.cancelled.add(event);
+            this.fall = false;
+        }
+    }
+
+    @Test
+    public void predictionMatchesBaselineOnRandomSequences() {
+        Random random = new Random(42);
+        for (int sequence = 0; sequence < 2000; ++sequence) {
+            double p = random.nextDouble(); // From mostly quiet to long runs that get cancelled.
+            int length = 1 + random.nextInt(80);
+            Baseline baseline = new Baseline();
+            prediction prediction = new prediction();
+            for (int i = 0; i < length; ++i) {
+                boolean fall = random.nextDouble() < p;
+                assertEquals("sequence " + sequence + ", window " + i, baseline.update(fall), prediction.update(fall));
+            }
+        }
+    }
+
+    @Test
+    public void detectorMatchesBaselineWithoutRefractoryPeriod() {
+        Random random = new Random(7);
+        for (int sequence = 0; sequence < 2000; ++sequence) {
+            double p = random.nextDouble();
+            Baseline baseline = new Baseline();
+            FallDetector detector = new FallDetector(FallDetector.DEFAULT_MIN_RUN, FallDetector.DEFAULT_MAX_RUN, 0);
+            Recorder recorder = new Recorder();
+            detector.addListener(recorder);
+
+            for (int i = 0; i < 80; ++i) {
+                boolean fall = random.nextDouble() < p;
+                detector.update(fall, i * PERIOD, i * PERIOD);
+                assertEquals("sequence " + sequence + ", window " + i, baseline.update(fall), recorder.fall);
+            }
+        }
+    }
+
+    @Test
+    public void detectsAtMinimumRunWithCallerTimes() {
+        FallDetector detector = new FallDetector(2, 5, 0);
+        Recorder recorder = new Recorder();
+        detector.addListener(recorder);
+
+        detector.update(false, 1000, 1010);
+        detector.update(true, 1250, 1260);
+        assertTrue(recorder.detected.isEmpty());
+        detector.update(true, 1500, 1560);
+
+        assertEquals(1, recorder.detected.size());
+        FallEvent event = recorder.detected.get(0);
+        assertEquals(1250, event.getImpactTime());
+        assertEquals(1560, event.getDetectionTime());
+        assertEquals(310, event.getLatencyMillis());
+        assertEquals(2, event.getRunLength());
+    }
+
+    @Test
+    public void cancelsRunLongerThanMaximum() {
+        FallDetector detector = new FallDetector(2, 5, 10000);
+        Recorder recorder = new Recorder();
+        detector.addListener(recorder);
+
+        long t = 0;
+        for (int i = 0; i < 5; ++i, t += PERIOD) detector.update(true, t, t);
+        assertEquals(1, recorder.detected.size());
+        assertTrue(recorder.cancelled.isEmpty());
+
+        detector.update(true, t, t); // The sixth in a row.
+        t += PERIOD;
+        assertEquals(1, recorder.cancelled.size());
+        assertTrue(recorder.detected.get(0) == recorder.cancelled.get(0));
+
+        // Still the same run: nothing more, however long it grows.
+        for (int i = 0; i < 10; ++i, t += PERIOD) detector.update(true, t, t);
+        assertEquals(1, recorder.detected.size());
+        assertEquals(1, recorder.cancelled.size());
+
+        // A cancelled fall doesn't start the refractory period.
+        detector.update(false, t, t);
+        t += PERIOD;
+        detector.update(true, t, t);
+        t += PERIOD;
+        detector.update(true, t, t);
+        assertEquals(2, recorder.detected.size());
+    }
+
+    @Test
+    public void detectedFallStandsWhenRunEnds() {
+        FallDetector detector = new FallDetector(2, 5, 0);
+        Recorder recorder = new Recorder();
+        detector.addListener(recorder);
+
+        detector.update(true, 0, 0);
+        detector.update(true, 250, 250);
+        detector.update(true, 500, 500);
+        detector.update(false, 750, 750);
+        for (int i = 0; i < 6; ++i) detector.update(false, 1000 + i * PERIOD, 1000 + i * PERIOD);
+        assertEquals(1, recorder.detected.size());
+        assertTrue(recorder.cancelled.isEmpty());
+    }
+
+    @Test
+    public void ignoresRunsDuringRefractoryPeriod() {
+        FallDetector detector = new FallDetector(2, 5, 1000);
+        Recorder recorder = new Recorder();
+        detector.addListener(recorder);
+
+        detector.update(true, 0, 0);
+        detector.update(true, 250, 250); // Detected, refractory until 1250.
+        detector.update(false, 500, 500);
+        detector.update(true, 750, 750);
+        detector.update(true, 1000, 1000); // Within the period, ignored.
+        detector.update(true, 1250, 1250); // Reaches the period, but the run is past minRun.
+        assertEquals(1, recorder.detected.size());
+
+        detector.update(false, 1500, 1500);
+        detector.update(true, 1750, 1750);
+        detector.update(true, 2000, 2000);
+        assertEquals(2, recorder.detected.size());
+        assertEquals(1750, recorder.detected.get(1).getImpactTime());
+    }
+
+    @Test
+    public void ignoredRunIsNotCancelled() {
+        FallDetector detector = new FallDetector(2, 5, 100000);
+        Recorder recorder = new Recorder();
+        detector.addListener(recorder);
+
+        detector.update(true, 0, 0);
+        detector.update(true, 250, 250);
+        detector.update(false, 500, 500);
+        for (int i = 0; i < 8; ++i) detector.update(true, 750 + i * PERIOD, 750 + i * PERIOD);
+        assertEquals(1, recorder.detected.size());
+        assertTrue(recorder.cancelled.isEmpty());
+    }
+
+    @Test
+    public void resetClearsRunAndRefractoryPeriod() {
+        FallDetector detector = new FallDetector(2, 5, 100000);
+        Recorder recorder = new Recorder();
+        detector.addListener(recorder);
+
+        detector.update(true, 0, 0);
+        detector.update(true, 250, 250);
+        detector.reset();
+        detector.update(true, 500, 500);
+        assertEquals(1, recorder.detected.size());
+        detector.update(true, 750, 750);
+        assertEquals(2, recorder.detected.size());
+        assertFalse(recorder.detected.get(0) == recorder.detected.get(1));
+    }
+}
@@ -0,0 +1,102 @@
+package reuiot2015.smartwatch.fall_detection;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import reuiot2015.smartwatch.platform.Log;
+
+import weka.classifiers.functions.LibSVM;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Checks that a FlatSvmModel exported from Weka's LibSVM agrees with Weka bit for bit on the
+ * fixture of feature vectors next to this test, for the model settings it supports. */
+public class FlatSvmModelTest {
+    private final static String FIXTURE = "fallfeatures.csv"; // 243 rows, 36 of them falls.
+
+    private double[][] rows;
+    private Instances training;
+
+    @Before
+    public void readFixture() throws Exception {
+        Log.setSink(Log.ERRORS);
+        this.rows = FallClassifier.readFeatureRows(new InputStreamReader(openFixture(), "UTF-8"), FallClassifier.FIXTURE_LIMIT);
+
+        ArrayList<Attribute> attributes = new ArrayList<>();
+        for (String label : FallFeatureExtractor.FEATURE_LABELS) attributes.add(new Attribute(label));
+        attributes.add(new Attribute("outcome", Arrays.asList(FallClassifier.NOT_FALL, FallClassifier.FALL)));
+        this.training = new Instances("fall_features", attributes, this.rows.length);
+        this.training.setClassIndex(attributes.size() - 1);
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(openFixture(), "UTF-8"));
+        try {
+            reader.readLine(); // Skip the header.
+            for (String line; (line = reader.readLine()) != null; ) {
+                String[] values = line.split(",");
+                double[] instance = new double[attributes.size()];
+                for (int i = 0; i < FallFeatureExtractor.FEATURE_LABELS.length; ++i) instance[i] = Double.parseDouble(values[i]);
+                instance[instance.length - 1] = values[values.length - 1].equals(FallClassifier.FALL) ? 1 : 0;
+                this.training.add(new DenseInstance(1.0, instance));
+            }
+        } finally { reader.close(); }
+    }
+
+    private static InputStream openFixture() {
+        InputStream is = FlatSvmModelTest.class.getResourceAsStream(FIXTURE);
+        assertTrue("Missing fixture " + FIXTURE, is != null);
+        return is;
+    }
+
+    /** Trains LibSVM on the fixture and checks the exported model against it. */
+    private void checkAgreement(String options) throws Exception {
+        LibSVM svm = new LibSVM();
+        svm.setOptions(Utils.splitOptions(options));
+        svm.buildClassifier(this.training);
+
+        FallClassifier classifier = new FallClassifier(svm);
+        FlatSvmModel flat = SvmModelExporter.export(svm, FallFeatureExtractor.FEATURE_LABELS.length);
+        assertEquals(options, 0, classifier.verifyFlat(flat, this.rows));
+        for (double[] row : this.rows)
+            assertEquals(options, classifier.classify(row), flat.predict(row)); // Weka, the flat model isn't enabled yet.
+
+        assertTrue(options, classifier.enableFlatModel(this.rows));
+    }
+
+    @Test
+    public void readsEveryFixtureRow() {
+        assertEquals(243, this.rows.length);
+        assertEquals(243, this.training.numInstances());
+    }
+
+    @Test
+    public void agreesWithRbfKernel() throws Exception { checkAgreement("-S 0 -K 2 -G 0.25 -C 1.0"); }
+
+    @Test
+    public void agreesWithLinearKernel() throws Exception { checkAgreement("-S 0 -K 0 -C 1.0"); }
+
+    @Test
+    public void agreesWithPolynomialKernel() throws Exception { checkAgreement("-S 0 -K 1 -D 3 -G 0.5 -R 1.0 -C 1.0"); }
+
+    @Test
+    public void agreesWithSigmoidKernel() throws Exception { checkAgreement("-S 0 -K 3 -G 0.1 -R 0.0 -C 1.0"); }
+
+    @Test
+    public void agreesWithNuSvc() throws Exception { checkAgreement("-S 1 -K 2 -G 0.25 -N 0.2"); } // Feasible below 2 * 36 / 243.
+
+    @Test
+    public void agreesWithNormalizedFeatures() throws Exception { checkAgreement("-S 0 -K 2 -G 0.25 -C 1.0 -Z"); }
+
+    @Test
+    public void agreesWithProbabilityEstimates() throws Exception { checkAgreement("-S 0 -K 2 -G 0.25 -C 1.0 -B"); }
+}
@@ -0,0 +1,136 @@
+package reuiot2015.smartwatch.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+    @Test
+    public void emptyHistogramReportsZeros() {
+        Histogram h = Histogram.latencyNanos();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getMin());
+        assertEquals(0, h.getMax());
+        assertEquals(0.0, h.getMean(), 0.0);
+        assertEquals(0, h.getPercentile(50));
+    }
+
+    @Test
+    public void percentilesAreBucketUpperBounds() {
+        Histogram h = new Histogram(new long[] { 10, 20, 30, 40 });
+        for (long v = 1; v <= 40; ++v) h.record(v); // Ten values per bucket.
+
+        assertEquals(40, h.getCount());
+        assertEquals(1, h.getMin());
+        assertEquals(40, h.getMax());
+        assertEquals(20.5, h.getMean(), 1e-9);
+        assertEquals(10, h.getPercentile(0)); // The first value.
+        assertEquals(10, h.getPercentile(25));
+        assertEquals(20, h.getPercentile(25.1));
+        assertEquals(20, h.getPercentile(50));
+        assertEquals(30, h.getPercentile(75));
+        assertEquals(40, h.getPercentile(99));
+        assertEquals(40, h.getPercentile(100));
+    }
+
+    @Test
+    public void percentilesAreCappedAtMaximum() {
+        Histogram h = new Histogram(new long[] { 100, 1000 });
+        h.record(5);
+        h.record(7);
+        assertEquals(7, h.getPercentile(50)); // Not the bucket bound of 100.
+        assertEquals(7, h.getPercentile(100));
+    }
+
+    @Test
+    public void valuesAboveLastBoundGoToOverflowBucket() {
+        Histogram h = new Histogram(new long[] { 10 });
+        h.record(5);
+        h.record(5000);
+        h.record(9000);
+        assertEquals(10, h.getPercentile(33));
+        assertEquals(9000, h.getPercentile(34));
+        assertEquals(9000, h.getPercentile(100));
+    }
+
+    @Test
+    public void boundsAreInclusive() {
+        Histogram h = new Histogram(new long[] { 10, 20 });
+        h.record(10);
+        h.record(11);
+        assertEquals(10, h.getPercentile(50));
+        assertEquals(11, h.getPercentile(100)); // Capped at the maximum, in bucket 20.
+    }
+
+    @Test
+    public void exponentialBoundsGrowAndStayDistinct() {
+        Histogram h = Histogram.exponential(1, 1.1, 20); // The first bounds would round to equal values.
+        for (long v = 1; v <= 30; ++v) h.record(v);
+        assertEquals(30, h.getCount());
+        long last = 0;
+        for (int p = 1; p <= 100; ++p) {
+            long value = h.getPercentile(p);
+            assertTrue("p" + p + " is monotonic", value >= last);
+            last = value;
+        }
+        assertEquals(30, last);
+    }
+
+    @Test
+    public void latencyPercentileIsWithinBucketPrecision() {
+        Histogram h = Histogram.latencyNanos();
+        for (long us = 1; us <= 1000; ++us) h.record(us * 1000L);
+        long p50 = h.getPercentile(50), p99 = h.getPercentile(99);
+        assertEquals(500000.0, p50, 500000.0 * 0.19);
+        assertEquals(990000.0, p99, 990000.0 * 0.19);
+        assertTrue(p50 >= 500000L && p99 >= 990000L); // Upper bounds, never below.
+    }
+
+    @Test
+    public void snapshotIsIndependentCopy() {
+        Histogram h = new Histogram(new long[] { 10, 20 });
+        h.record(3);
+        h.record(15);
+        Histogram s = h.snapshot();
+        h.record(100);
+        h.reset();
+
+        assertEquals(2, s.getCount());
+        assertEquals(3, s.getMin());
+        assertEquals(15, s.getMax());
+        assertEquals(9.0, s.getMean(), 1e-9);
+        assertEquals(15, s.getPercentile(100));
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getMax());
+    }
+
+    @Test
+    public void concurrentRecordsAreAllCounted() throws Exception {
+        final Histogram h = Histogram.latencyNanos();
+        final int threads = 4, perThread = 100000;
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; ++t) {
+            final long offset = t;
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 1; i <= perThread; ++i) h.record(i * 10L + offset);
+                }
+            });
+            workers[t].start();
+        }
+        for (int t = 0; t < threads; ++t) {
+            Histogram s = h.snapshot(); // Readers don't block the writers.
+            assertTrue(s.getCount() <= (long) threads * perThread);
+        }
+        for (Thread w : workers) w.join();
+
+        assertEquals((long) threads * perThread, h.getCount());
+        assertEquals(10, h.getMin());
+        assertEquals(perThread * 10L + threads - 1, h.getMax());
+        long sum = 0;
+        for (int t = 0; t < threads; ++t) for (int i = 1; i <= perThread; ++i) sum += i * 10L + t;
+        assertEquals((double) sum / (threads * perThread), h.getMean(), 1e-6);
+    }
+}
@@ -0,0 +1,119 @@
+package reuiot2015.smartwatch.sensors;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CaptureRingTest {
+    /** Publishes one record of two dimensions, derived from its sequence. */
+    private static boolean publish(CaptureRing ring, long sequence) {
+        int slot = ring.claim();
+        if (slot < 0) return false;
+        ring.put(slot, 0, sequence);
+        ring.put(slot, 1, -sequence);
+        ring.publish(slot, 1000 + sequence);
+        return true;
+    }
+
+    /** Checks that the batch holds the records of consecutive sequences from the first. */
+    private static void assertRecords(CaptureBatch batch, long first, int count) {
+        assertEquals(count, batch.size());
+        for (int i = 0; i < count; ++i) {
+            assertEquals(1000 + first + i, batch.getEventTime(i));
+            assertEquals((float) (first + i), batch.getFloat(i, 0), 0f);
+            assertEquals((float) -(first + i), batch.getFloat(i, 1), 0f);
+        }
+    }
+
+    @Test
+    public void capacityRoundsUpToPowerOfTwo() {
+        CaptureRing ring = new CaptureRing(2, 5);
+        for (int i = 0; i < 8; ++i) assertTrue(publish(ring, i));
+        assertFalse(publish(ring, 8));
+        assertEquals(1, ring.getDrops());
+        assertEquals(2, ring.getStride());
+    }
+
+    @Test
+    public void drainsAcrossTheWrap() {
+        CaptureRing ring = new CaptureRing(2, 8);
+        CaptureBatch batch = new CaptureBatch(null, 2, 8);
+
+        for (int i = 0; i < 6; ++i) publish(ring, i);
+        assertEquals(6, ring.drainTo(batch));
+        assertRecords(batch, 0, 6);
+
+        // The next 8 records start at slot 6 and wrap to slots 0 to 5.
+        for (int i = 6; i < 14; ++i) assertTrue(publish(ring, i));
+        assertEquals(8, ring.drainTo(batch));
+        assertRecords(batch, 6, 8);
+        assertTrue(ring.isEmpty());
+        assertEquals(0, ring.getDrops());
+    }
+
+    @Test
+    public void smallBatchesDrainInOrder() {
+        CaptureRing ring = new CaptureRing(2, 8);
+        CaptureBatch batch = new CaptureBatch(null, 2, 3);
+        long next = 0, expected = 0;
+        for (int round = 0; round < 50; ++round) {
+            for (int i = 0; i < 5; ++i) assertTrue(publish(ring, next++));
+            while (!ring.isEmpty()) {
+                int n = ring.drainTo(batch);
+                assertTrue(n <= 3);
+                assertRecords(batch, expected, n);
+                expected += n;
+            }
+        }
+        assertEquals(next, expected);
+    }
+
+    @Test
+    public void fullRingDropsNewEventsUntilDrained() {
+        CaptureRing ring = new CaptureRing(2, 4);
+        CaptureBatch batch = new CaptureBatch(null, 2, 4);
+        for (int i = 0; i < 4; ++i) assertTrue(publish(ring, i));
+        for (int i = 4; i < 7; ++i) assertFalse(publish(ring, i));
+        assertEquals(3, ring.getDrops());
+
+        assertEquals(4, ring.drainTo(batch));
+        assertRecords(batch, 0, 4); // The oldest events are kept.
+        assertTrue(publish(ring, 7));
+        assertEquals(1, ring.drainTo(batch));
+        assertRecords(batch, 7, 1);
+        assertEquals(0, ring.drainTo(batch));
+    }
+
+    @Test
+    public void producerAndConsumerThreadsKeepOrder() throws Exception {
+        final CaptureRing ring = new CaptureRing(2, 64);
+        final int events = 200000;
+        final long[] dropped = new long[1];
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (long i = 0; i < events; ++i) if (!publish(ring, i)) ++dropped[0];
+            }
+        });
+        producer.start();
+
+        CaptureBatch batch = new CaptureBatch(null, 2, 16);
+        long received = 0, last = -1;
+        while (producer.isAlive() || !ring.isEmpty()) {
+            int n = ring.drainTo(batch);
+            for (int i = 0; i < n; ++i) {
+                long sequence = batch.getEventTime(i) - 1000;
+                assertTrue(sequence > last); // Dropped events leave gaps, never reorder.
+                assertEquals((float) sequence, batch.getFloat(i, 0), 0f);
+                assertEquals((float) -sequence, batch.getFloat(i, 1), 0f);
+                last = sequence;
+            }
+            received += n;
+        }
+        producer.join();
+        assertEquals(events, received + dropped[0]);
+        assertEquals(dropped[0], ring.getDrops());
+    }
+}
@@ -0,0 +1,135 @@
+package reuiot2015.smartwatch.sensors;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Checks the running sums of RunningAverage against averages recomputed from the window. */
+public class RunningAverageTest {
+    /** Feeds a lane and its running average as a Sensor does. */
+    private static void put(WindowLane lane, RunningAverage average, double value) {
+        average.evict(lane);
+        lane.putDouble(value);
+        average.add(lane);
+    }
+
+    /** The weighted average of the full window, computed from scratch. */
+    private static double expected(WindowLane lane, int windowSize, Sensor.AverageWeighting weighting) {
+        double sum = 0, weights = 0;
+        for (int age = 0; age < windowSize; ++age) {
+            double weight = (weighting == Sensor.AverageWeighting.LINEAR) ? windowSize - age : 1;
+            sum += weight * lane.getDouble(age);
+            weights += weight;
+        }
+        return sum / weights;
+    }
+
+    @Test
+    public void equalAndLinearMatchWindowOnRandomValues() {
+        Random random = new Random(3);
+        for (Sensor.AverageWeighting weighting : new Sensor.AverageWeighting[] {
+                Sensor.AverageWeighting.EQUAL, Sensor.AverageWeighting.LINEAR }) {
+            for (int windowSize : new int[] { 1, 2, 5, 16 }) {
+                WindowLane lane = WindowLane.create(Types.Double, windowSize);
+                RunningAverage average = new RunningAverage(windowSize, weighting);
+                for (int i = 0; i < 500; ++i) {
+                    put(lane, average, random.nextGaussian() * 10);
+                    assertEquals(i + 1 >= windowSize, average.isReady());
+                    if (average.isReady())
+                        assertEquals(weighting + " n=" + windowSize + " i=" + i,
+                                expected(lane, windowSize, weighting), average.get(), 1e-9);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void linearWeighsNewestMost() {
+        WindowLane lane = WindowLane.create(Types.Double, 3);
+        RunningAverage average = new RunningAverage(3, Sensor.AverageWeighting.LINEAR);
+        put(lane, average, 1);
+        put(lane, average, 2);
+        put(lane, average, 3);
+        assertEquals((1 * 1 + 2 * 2 + 3 * 3) / 6.0, average.get(), 1e-12);
+        put(lane, average, 4); // 1 leaves, every rank drops by one.
+        assertEquals((2 * 1 + 3 * 2 + 4 * 3) / 6.0, average.get(), 1e-12);
+    }
+
+    @Test
+    public void exponentialIsSeededWithFirstValue() {
+        WindowLane lane = WindowLane.create(Types.Double, 3);
+        RunningAverage average = new RunningAverage(3, Sensor.AverageWeighting.EXPONENTIAL);
+        put(lane, average, 8);
+        assertEquals(8, average.get(), 0);
+        put(lane, average, 0);
+        assertEquals(4, average.get(), 1e-12); // alpha = 2 / (3 + 1).
+        put(lane, average, 0);
+        assertEquals(2, average.get(), 1e-12);
+        put(lane, average, 0); // Not limited to the window.
+        assertEquals(1, average.get(), 1e-12);
+    }
+
+    @Test
+    public void exponentialSkipsNaN() {
+        WindowLane lane = WindowLane.create(Types.Double, 3);
+        RunningAverage average = new RunningAverage(3, Sensor.AverageWeighting.EXPONENTIAL);
+        put(lane, average, Double.NaN);
+        assertTrue(Double.isNaN(average.get())); // Nothing to seed with yet.
+        put(lane, average, 8);
+        assertEquals(8, average.get(), 0);
+        put(lane, average, Double.NaN);
+        assertEquals(8, average.get(), 0);
+        put(lane, average, 0);
+        assertEquals(4, average.get(), 1e-12);
+    }
+
+    @Test
+    public void equalAndLinearRecoverOnceNaNLeavesTheWindow() {
+        for (Sensor.AverageWeighting weighting : new Sensor.AverageWeighting[] {
+                Sensor.AverageWeighting.EQUAL, Sensor.AverageWeighting.LINEAR }) {
+            WindowLane lane = WindowLane.create(Types.Double, 3);
+            RunningAverage average = new RunningAverage(3, weighting);
+            put(lane, average, 1);
+            put(lane, average, Double.NaN);
+            put(lane, average, 2);
+            assertTrue(Double.isNaN(average.get()));
+            put(lane, average, 3);
+            assertTrue(Double.isNaN(average.get()));
+            put(lane, average, 4); // The NaN leaves.
+            assertEquals(weighting.toString(), expected(lane, 3, weighting), average.get(), 1e-12);
+        }
+    }
+
+    @Test
+    public void resyncKeepsLongSessionsExact() {
+        // Large offsets with small variations lose precision in a running sum that is never resynced.
+        int windowSize = 8;
+        WindowLane lane = WindowLane.create(Types.Double, windowSize);
+        RunningAverage equal = new RunningAverage(windowSize, Sensor.AverageWeighting.EQUAL);
+        WindowLane linearLane = WindowLane.create(Types.Double, windowSize);
+        RunningAverage linear = new RunningAverage(windowSize, Sensor.AverageWeighting.LINEAR);
+        Random random = new Random(11);
+        for (int i = 0; i < 100000; ++i) {
+            double value = ((i % 997 == 0) ? 1e12 : 0) + random.nextDouble();
+            put(lane, equal, value);
+            put(linearLane, linear, value);
+        }
+        assertEquals(expected(lane, windowSize, Sensor.AverageWeighting.EQUAL), equal.get(), 1e-3);
+        assertEquals(expected(linearLane, windowSize, Sensor.AverageWeighting.LINEAR), linear.get(), 1e-3);
+    }
+
+    @Test
+    public void floatLanesAverageTheStoredValues() {
+        WindowLane lane = WindowLane.create(Types.Float, 4);
+        RunningAverage average = new RunningAverage(4, Sensor.AverageWeighting.EQUAL);
+        for (int i = 0; i < 3; ++i) put(lane, average, 0.1 * i);
+        assertFalse(average.isReady());
+        put(lane, average, 0.3);
+        assertTrue(average.isReady());
+        assertEquals(expected(lane, 4, Sensor.AverageWeighting.EQUAL), average.get(), 1e-7);
+    }
+}
@@ -0,0 +1,141 @@
+package reuiot2015.smartwatch.sensors;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Checks the incremental WindowAggregators against statistics recomputed from the window. */
+public class WindowAggregatorsTest {
+    /** Slides a window over the values, checking the aggregator after every value. */
+    private static void check(WindowAggregator aggregator, double[] values, int windowSize, double tolerance) {
+        aggregator.reset(windowSize);
+        for (int i = 0; i < values.length; ++i) {
+            if (i >= windowSize) aggregator.onEvict(i - windowSize, values[i - windowSize]);
+            aggregator.onAdd(i, values[i]);
+            double[] window = Arrays.copyOfRange(values, Math.max(0, i - windowSize + 1), i + 1);
+            assertEquals(aggregator.getLabel() + " n=" + windowSize + " i=" + i,
+                    expected(aggregator.getLabel(), window), aggregator.get(), tolerance);
+        }
+    }
+
+    private static double expected(String label, double[] window) {
+        double[] sorted = window.clone();
+        Arrays.sort(sorted);
+        int n = sorted.length;
+        switch (label) {
+            case "min": return sorted[0];
+            case "max": return sorted[n - 1];
+            case "median": return (n % 2 == 1) ? sorted[n / 2] : (sorted[n / 2 - 1] + sorted[n / 2]) / 2.0;
+            default: // "var" and "std", two pass sample variance.
+                double mean = 0, m2 = 0;
+                for (double v : window) mean += v / n;
+                for (double v : window) m2 += (v - mean) * (v - mean);
+                double variance = (n > 1) ? m2 / (n - 1) : 0.0;
+                return label.equals("std") ? Math.sqrt(variance) : variance;
+        }
+    }
+
+    private static double[] randomValues(long seed, int count, int distinct) {
+        Random random = new Random(seed);
+        double[] values = new double[count];
+        for (int i = 0; i < count; ++i)
+            values[i] = (distinct > 0) ? random.nextInt(distinct) : random.nextGaussian() * 100;
+        return values;
+    }
+
+    @Test
+    public void extremesMatchWindow() {
+        for (int windowSize : new int[] { 1, 2, 3, 7, 32 }) {
+            check(WindowAggregators.min(), randomValues(1, 400, 0), windowSize, 0);
+            check(WindowAggregators.max(), randomValues(2, 400, 0), windowSize, 0);
+            check(WindowAggregators.min(), randomValues(3, 400, 4), windowSize, 0); // Many ties.
+            check(WindowAggregators.max(), randomValues(4, 400, 4), windowSize, 0);
+        }
+    }
+
+    @Test
+    public void extremesOfMonotonicRuns() {
+        double[] rising = new double[100], falling = new double[100];
+        for (int i = 0; i < 100; ++i) { rising[i] = i; falling[i] = -i; }
+        check(WindowAggregators.min(), rising, 10, 0);
+        check(WindowAggregators.max(), rising, 10, 0);
+        check(WindowAggregators.min(), falling, 10, 0);
+        check(WindowAggregators.max(), falling, 10, 0);
+    }
+
+    @Test
+    public void medianHeapsMatchSortedWindow() {
+        for (int windowSize : new int[] { 1, 2, 3, 4, 9, 16, 33 }) {
+            check(WindowAggregators.median(), randomValues(5, 600, 0), windowSize, 0);
+            check(WindowAggregators.median(), randomValues(6, 600, 3), windowSize, 0); // Ties across the heaps.
+        }
+    }
+
+    @Test
+    public void medianOfSortedAndReversedInput() {
+        double[] values = new double[64];
+        for (int i = 0; i < 32; ++i) values[i] = i;
+        for (int i = 32; i < 64; ++i) values[i] = 64 - i;
+        check(WindowAggregators.median(), values, 8, 0);
+    }
+
+    @Test
+    public void welfordWithRemovalMatchesTwoPass() {
+        for (int windowSize : new int[] { 1, 2, 5, 20 }) {
+            check(WindowAggregators.variance(), randomValues(7, 1000, 0), windowSize, 1e-6);
+            check(WindowAggregators.standardDeviation(), randomValues(8, 1000, 0), windowSize, 1e-8);
+        }
+    }
+
+    @Test
+    public void welfordStaysAccurateAroundLargeMean() {
+        double[] values = randomValues(9, 5000, 0);
+        for (int i = 0; i < values.length; ++i) values[i] = 1e6 + values[i] / 100;
+        check(WindowAggregators.variance(), values, 10, 1e-4);
+    }
+
+    @Test
+    public void welfordNeverGoesNegative() {
+        WindowAggregator variance = WindowAggregators.variance();
+        variance.reset(2);
+        for (int i = 0; i < 1000; ++i) {
+            if (i >= 2) variance.onEvict(i - 2, 0.1 * (i - 2) % 1);
+            variance.onAdd(i, 0.1 * i % 1);
+            assertTrue(variance.get() >= 0);
+        }
+        WindowAggregator constant = WindowAggregators.variance();
+        check(constant, new double[] { 3.3, 3.3, 3.3, 3.3, 3.3, 3.3 }, 3, 1e-12);
+    }
+
+    @Test
+    public void emptyWindowIsNaN() {
+        for (WindowAggregator a : new WindowAggregator[] { WindowAggregators.min(), WindowAggregators.max(),
+                WindowAggregators.median(), WindowAggregators.variance(), WindowAggregators.ema(0.5) }) {
+            a.reset(4);
+            assertTrue(a.getLabel(), Double.isNaN(a.get()));
+        }
+    }
+
+    @Test
+    public void resetClearsWindow() {
+        WindowAggregator median = WindowAggregators.median();
+        check(median, randomValues(10, 50, 0), 5, 0);
+        check(median, randomValues(11, 50, 0), 3, 0); // check() resets to the new size.
+    }
+
+    @Test
+    public void emaIgnoresEvictions() {
+        WindowAggregator ema = WindowAggregators.ema(0.5);
+        ema.reset(2);
+        ema.onAdd(0, 4);
+        ema.onAdd(1, 0);
+        ema.onEvict(0, 4);
+        ema.onAdd(2, 0);
+        assertEquals(1, ema.get(), 1e-12);
+        assertEquals("ema", ema.getLabel());
+    }
+}
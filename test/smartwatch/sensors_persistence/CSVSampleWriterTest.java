@@ -0,0 +1,43 @@
+package reuiot2015.smartwatch.sensors_persistence;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CSVSampleWriterTest {
+    @Test
+    public void savesRows() {
+        StringWriter out = new StringWriter();
+        CSVSampleWriter writer = new CSVSampleWriter(new String[] { "a", "b" }, out);
+        assertTrue(writer.receiveAccumulatedSamples(new String[][] { { "1", "2" }, { "3", null } }));
+        assertEquals("a,b\n1,2\n3,null\n", out.toString());
+        assertEquals(out.toString().length(), writer.getBytesWritten());
+    }
+
+    @Test
+    public void reportsFailedWrites() {
+        final boolean[] failing = new boolean[1];
+        Writer out = new Writer() {
+            @Override
+            public void write(char[] buffer, int offset, int length) throws IOException {
+                if (failing[0]) throw new IOException("No space left on device");
+            }
+
+            @Override
+            public void flush() { /** Nothing to do here. */ }
+
+            @Override
+            public void close() { /** Nothing to do here. */ }
+        };
+        CSVSampleWriter writer = new CSVSampleWriter(null, out);
+        assertTrue(writer.receiveAccumulatedSamples(new String[][] { { "1", "2" } }));
+        failing[0] = true;
+        assertFalse(writer.receiveAccumulatedSamples(new String[][] { { "3", "4" } })); // Skipped, so recovered from the journal.
+    }
+}
@@ -0,0 +1,111 @@
+package reuiot2015.smartwatch.sensors_persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Compares the streamed output with the text org.json used to produce for the same samples,
+ * before the writer was streamed: the members of each sample in the order of their first
+ * label, and JSONStringer's escapes. The expected documents are written out by hand. */
+public class JSONSampleWriterTest {
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        this.directory = File.createTempFile("jsonwriter", "");
+        assertTrue(this.directory.delete() && this.directory.mkdir());
+        SmartWatchValues.setDataDirectory(this.directory);
+    }
+
+    @After
+    public void tearDown() {
+        SmartWatchValues.setDataDirectory(null);
+        File[] files = this.directory.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        this.directory.delete();
+    }
+
+    /** Streams the batches through a writer and reads back the file. */
+    private byte[] written(String[] header, String uuid, String[][]... batches) throws IOException {
+        JSONSampleWriter writer = new JSONSampleWriter(header, uuid, "samples.json");
+        for (String[][] batch : batches) assertTrue(writer.receiveAccumulatedSamples(batch));
+        writer.release();
+
+        RandomAccessFile file = new RandomAccessFile(new File(this.directory, "samples.json"), "r");
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            file.readFully(bytes);
+            return bytes;
+        } finally { file.close(); }
+    }
+
+    /** Checks the output, given with single quotes for double quotes when it has no escapes. */
+    private void assertOutput(String expected, String[] header, String uuid, String[][]... batches) throws IOException {
+        assertArrayEquals(expected.getBytes(), written(header, uuid, batches));
+    }
+
+    private static String quoted(String json) { return json.replace('\'', '"'); }
+
+    @Test
+    public void writesSamplesOverSeveralBatches() throws IOException {
+        String[] header = { "Time", "Accelerometer x", "Accelerometer y", "Accelerometer z" };
+        String[][] first = { { "1000", "0.1", "9.8", "-0.2" }, { "1250", "0.0", "9.7", "-0.1" } };
+        String[][] second = { { "1500", "1.5", "3.0", "12.25" } };
+        assertOutput(quoted("{'UUID':'0f8fad5b-d9cb-469f-a165-70867728950e','samples':["
+                + "{'Time':'1000','Accelerometer x':'0.1','Accelerometer y':'9.8','Accelerometer z':'-0.2'},"
+                + "{'Time':'1250','Accelerometer x':'0.0','Accelerometer y':'9.7','Accelerometer z':'-0.1'},"
+                + "{'Time':'1500','Accelerometer x':'1.5','Accelerometer y':'3.0','Accelerometer z':'12.25'}]}"),
+                header, "0f8fad5b-d9cb-469f-a165-70867728950e", first, second);
+    }
+
+    @Test
+    public void writesWithoutSamples() throws IOException {
+        assertOutput(quoted("{'UUID':'uuid','samples':[]}"), new String[] { "Time" }, "uuid");
+    }
+
+    @Test
+    public void leavesOutANullUuid() throws IOException {
+        assertOutput(quoted("{'samples':[{'Time':'1'},{'Time':'2'}]}"),
+                new String[] { "Time" }, null, new String[][] { { "1" }, { "2" } });
+    }
+
+    @Test
+    public void escapesText() throws IOException {
+        String[] header = { "Quote \"label\"", "Path/to\\it", "Controls" };
+        String[][] samples = {
+                { "say \"hi\"", "a/b\\c", "\t\b\n\r\f" },
+                { "\u0000\u0001\u001f", "\u007f\u00e9", "</script>" }
+        };
+        assertOutput("{\"UUID\":\"id\\/\\\"1\\\"\",\"samples\":["
+                + "{\"Quote \\\"label\\\"\":\"say \\\"hi\\\"\",\"Path\\/to\\\\it\":\"a\\/b\\\\c\",\"Controls\":\"\\t\\b\\n\\r\\f\"},"
+                + "{\"Quote \\\"label\\\"\":\"\\u0000\\u0001\\u001f\",\"Path\\/to\\\\it\":\"\u007f\u00e9\",\"Controls\":\"<\\/script>\"}]}",
+                header, "id/\"1\"", samples);
+    }
+
+    @Test
+    public void dropsNullValuesAndMergesRepeatedLabels() throws IOException {
+        String[] header = { "a", "b", "a", "c", "b" };
+        String[][] samples = {
+                { "1", "2", "3", "4", "5" }, // The repeated labels keep their first position and last value.
+                { null, "2", "3", null, null }, // A null value leaves the label out, or removes it.
+                { "1", null, null, null, "5" },
+                { null, null, null, null, null }
+        };
+        assertOutput(quoted("{'UUID':'uuid','samples':[{'a':'3','b':'5','c':'4'},{'a':'3'},{'b':'5'},{}]}"),
+                header, "uuid", samples);
+    }
+
+    @Test
+    public void skipsNullLabels() throws IOException {
+        String[] header = { "a", null, "b" };
+        assertOutput(quoted("{'UUID':'uuid','samples':[{'a':'1','b':'3'},{'a':'1','b':'3'}]}"),
+                header, "uuid", new String[][] { { "1", "2", "3" }, { "1", null, "3" } });
+    }
+}
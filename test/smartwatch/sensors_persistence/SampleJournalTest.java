@@ -0,0 +1,173 @@
+package reuiot2015.smartwatch.sensors_persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SampleJournalTest {
+    private File directory, file;
+
+    @Before
+    public void setUp() throws IOException {
+        this.directory = File.createTempFile("journal", "");
+        assertTrue(this.directory.delete() && this.directory.mkdir());
+        this.file = new File(this.directory, "samples.journal");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = this.directory.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        this.directory.delete();
+    }
+
+    private SampleJournal open() throws IOException { return new SampleJournal(this.file, 10); }
+
+    private static String[] sample(int i) { return new String[] { "t" + i, (i % 2 == 0) ? null : "v" + i, "" }; }
+
+    /** Appends the samples with the given numbers, checking their sequence numbers. */
+    private static void append(SampleJournal journal, int first, int last) {
+        for (int i = first; i <= last; ++i) assertEquals(i, journal.append(sample(i)));
+    }
+
+    private static void assertRecovered(SampleJournal journal, int... expected) {
+        String[][] recovered = journal.takeRecovered();
+        assertEquals(expected.length, recovered.length);
+        for (int i = 0; i < expected.length; ++i) assertArrayEquals(sample(expected[i]), recovered[i]);
+        assertEquals(0, journal.takeRecovered().length);
+    }
+
+    @Test
+    public void leavesNothingOnceEverySampleIsAcknowledged() throws IOException {
+        SampleJournal journal = open();
+        assertFalse(journal.wasInterrupted());
+        append(journal, 1, 3);
+        journal.acknowledge(3);
+        journal.close();
+        assertEquals(0, this.file.length());
+
+        journal = open();
+        assertFalse(journal.wasInterrupted());
+        assertRecovered(journal);
+        journal.close();
+    }
+
+    @Test
+    public void recoversSamplesNotAcknowledged() throws IOException {
+        SampleJournal journal = open();
+        append(journal, 1, 5);
+        journal.acknowledge(2);
+        journal.close(); // Leaves the records, as a killed process would.
+        assertTrue(this.file.length() > 0);
+
+        journal = open();
+        assertTrue(journal.wasInterrupted());
+        assertRecovered(journal, 3, 4, 5);
+        journal.close();
+    }
+
+    @Test
+    public void recoversSkippedRangesBetweenAcknowledgements() throws IOException {
+        SampleJournal journal = open();
+        append(journal, 1, 8);
+        journal.acknowledge(2);
+        journal.skip(4); // Saving 3 and 4 failed.
+        journal.acknowledge(6);
+        journal.acknowledge(5); // Already covered, ignored.
+        journal.close();
+
+        journal = open();
+        assertRecovered(journal, 3, 4, 7, 8);
+        journal.close();
+    }
+
+    @Test
+    public void renumbersRecoveredSamplesBeforeNewOnes() throws IOException {
+        SampleJournal journal = open();
+        append(journal, 1, 4);
+        journal.acknowledge(1);
+        journal.close();
+
+        journal = open();
+        assertRecovered(journal, 2, 3, 4); // Now the sequences 1 to 3.
+        assertEquals(4, journal.append(sample(9)));
+        journal.acknowledge(2);
+        journal.close();
+
+        journal = open();
+        String[][] recovered = journal.takeRecovered();
+        assertEquals(2, recovered.length);
+        assertArrayEquals(sample(4), recovered[0]);
+        assertArrayEquals(sample(9), recovered[1]);
+        journal.acknowledge(2);
+        journal.close();
+        assertEquals(0, this.file.length());
+    }
+
+    @Test
+    public void stopsAtATornRecord() throws IOException {
+        SampleJournal journal = open();
+        append(journal, 1, 3);
+        journal.close();
+
+        RandomAccessFile raf = new RandomAccessFile(this.file, "rw");
+        try { raf.setLength(raf.length() - 1); // The last record was only partly written.
+        } finally { raf.close(); }
+
+        journal = open();
+        assertRecovered(journal, 1, 2);
+        journal.close();
+    }
+
+    @Test
+    public void stopsAtACorruptRecord() throws IOException {
+        SampleJournal journal = open();
+        append(journal, 1, 3);
+        journal.close();
+
+        long length = this.file.length();
+        RandomAccessFile raf = new RandomAccessFile(this.file, "rw");
+        try {
+            long middle = length / 2; // Inside the second record, as the three are about the same size.
+            raf.seek(middle);
+            int b = raf.read();
+            raf.seek(middle);
+            raf.write(b ^ 0x40);
+        } finally { raf.close(); }
+
+        journal = open();
+        assertRecovered(journal, 1);
+        journal.close();
+    }
+
+    @Test
+    public void keepsNullAndNonAsciiValues() throws IOException {
+        String[] values = { null, "\u00e9\u20ac\u0000", "", "plain" };
+        SampleJournal journal = open();
+        assertEquals(1, journal.append(values));
+        journal.close();
+
+        journal = open();
+        String[][] recovered = journal.takeRecovered();
+        assertEquals(1, recovered.length);
+        assertArrayEquals(values, recovered[0]);
+        journal.close();
+    }
+
+    @Test
+    public void ignoresAppendsAfterClose() throws IOException {
+        SampleJournal journal = open();
+        journal.close();
+        assertEquals(0, journal.append(sample(1)));
+        assertEquals(0, this.file.length());
+    }
+}
@@ -0,0 +1,208 @@
+package reuiot2015.smartwatch.sensors_persistence;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import reuiot2015.smartwatch.sensors.Collector;
+import reuiot2015.smartwatch.sensors.Sensor;
+import reuiot2015.smartwatch.sensors.Types;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentLogTest {
+    private File directory;
+
+    /** A sensor fed by the test. */
+    private static class TestSensor extends Sensor {
+        TestSensor(String mainLabel, String[] dimensionLabels, Types[] dimensionTypes) {
+            super(mainLabel, dimensionLabels, dimensionTypes);
+        }
+
+        void set(long eventTime, Object... values) { updateAt(eventTime, values); }
+    }
+
+    /** Collects frames into a log and waits until they are written. */
+    private static class Session {
+        final Collector collector = new Collector(4f);
+        final SegmentLogWriter writer;
+
+        Session(File directory, int segmentRecords, Sensor... sensors) {
+            this.writer = new SegmentLogWriter(directory, "log", segmentRecords);
+            for (Sensor s : sensors) this.collector.addSensor(s);
+            this.collector.addListener(this.writer, 16, Collector.OverflowPolicy.BLOCK);
+        }
+
+        void collectAt(long timestamp) {
+            this.collector.collectAt(timestamp);
+            this.collector.awaitListeners();
+        }
+
+        void close() {
+            this.collector.removeListener(this.writer);
+            this.writer.release();
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        this.directory = File.createTempFile("segmentlog", "");
+        assertTrue(this.directory.delete() && this.directory.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = this.directory.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        this.directory.delete();
+    }
+
+    private File[] segments() { return SegmentLog.listSegments(this.directory, "log"); }
+
+    @Test
+    public void roundTripsEveryType() throws IOException {
+        Types[] types = { Types.String, Types.Integer, Types.Long, Types.Float, Types.Double, Types.Character, Types.Boolean };
+        TestSensor sensor = new TestSensor("All", new String[] { "s", "i", "l", "f", "d", "c", "b" }, types);
+        Session session = new Session(this.directory, 16, sensor);
+        for (int i = 0; i < 3; ++i) {
+            sensor.set(100 + i, "v" + i, -i, 1L << (40 + i), 0.5f * i, Math.PI * i, (char) ('a' + i), i % 2 == 0);
+            session.collectAt(1000 + i);
+        }
+        session.close();
+
+        File[] files = segments();
+        assertEquals(1, files.length);
+        SegmentLogReader reader = new SegmentLogReader(files[0]);
+        Sensor.SensorMetaData[] schema = reader.getSchema();
+        assertEquals(1, schema.length);
+        assertEquals("All", schema[0].getMainLabel());
+        assertEquals("d", schema[0].getDimensionLabel(4));
+        assertEquals(types.length, reader.getColumnCount());
+        for (int c = 0; c < types.length; ++c) assertEquals(types[c], reader.getType(c));
+
+        assertEquals(3, reader.getRecordCount());
+        for (int i = 0; i < 3; ++i) {
+            assertEquals(1000 + i, reader.getTimestamp(i));
+            for (int c = 0; c < types.length; ++c) assertFalse(reader.isNull(i, c));
+            assertEquals("v" + i, reader.getObject(i, 0));
+            assertEquals(-i, reader.getObject(i, 1));
+            assertEquals(1L << (40 + i), reader.getObject(i, 2));
+            assertEquals(0.5f * i, (Float) reader.getObject(i, 3), 0f);
+            assertEquals(Math.PI * i, reader.getDouble(i, 4), 0.0);
+            assertEquals((char) ('a' + i), reader.getObject(i, 5));
+            assertEquals(i % 2 == 0, reader.getObject(i, 6));
+            assertEquals(1L << (40 + i), reader.getLong(i, 2));
+            assertEquals(Types.Double.asString(Math.PI * i), reader.asString(i, 4));
+        }
+    }
+
+    @Test
+    public void truncatesStringsToWholeCharacters() throws IOException {
+        String ascii = "abcdefghijklmnopqrstuvwxyz01234"; // 31 bytes, as many as fit.
+        String[] values = {
+                ascii,
+                ascii + "5",
+                ascii.substring(0, 30) + "\u00e9", // 32 bytes, the two byte character is dropped whole.
+                "\u20ac\u20ac\u20ac\u20ac\u20ac\u20ac\u20ac\u20ac\u20ac\u20ac\u20ac", // 33 bytes, 30 fit.
+                ""
+        };
+        String[] expected = { ascii, ascii, ascii.substring(0, 30), values[3].substring(0, 10), "" };
+
+        TestSensor sensor = new TestSensor("Text", new String[] { "value" }, new Types[] { Types.String });
+        Session session = new Session(this.directory, 16, sensor);
+        for (int i = 0; i < values.length; ++i) {
+            sensor.set(i, (Object) values[i]);
+            session.collectAt(i);
+        }
+        session.close();
+
+        SegmentLogReader reader = new SegmentLogReader(segments()[0]);
+        assertEquals(values.length, reader.getRecordCount());
+        for (int i = 0; i < values.length; ++i) assertEquals(expected[i], reader.getObject(i, 0));
+    }
+
+    @Test
+    public void keepsNullsPastTheFirstBitmapByte() throws IOException {
+        String[] labels = new String[10];
+        Types[] types = new Types[10];
+        for (int i = 0; i < labels.length; ++i) { labels[i] = "x" + i; types[i] = Types.Float; }
+        TestSensor wide = new TestSensor("Wide", labels, types);
+        TestSensor late = new TestSensor("Late", new String[] { "a", "b", "c" }, new Types[] { Types.Integer, Types.String, Types.Double });
+
+        Session session = new Session(this.directory, 16, wide, late);
+        Object[] values = new Object[10];
+        for (int i = 0; i < values.length; ++i) values[i] = (float) i;
+        wide.set(1, values);
+        session.collectAt(1); // The late sensor has no data yet.
+        late.set(2, 7, "seven", 7.5);
+        session.collectAt(2);
+        session.close();
+
+        SegmentLogReader reader = new SegmentLogReader(segments()[0]);
+        assertEquals(13, reader.getColumnCount());
+        assertEquals(2, reader.getRecordCount());
+        for (int c = 0; c < 10; ++c) {
+            assertFalse(reader.isNull(0, c));
+            assertEquals(c, reader.getDouble(0, c), 0.0);
+        }
+        for (int c = 10; c < 13; ++c) {
+            assertTrue(reader.isNull(0, c));
+            assertNull(reader.getObject(0, c));
+            assertEquals("null", reader.asString(0, c));
+        }
+        assertTrue(Double.isNaN(reader.getDouble(0, 12)));
+        assertEquals(0, reader.getLong(0, 10));
+
+        for (int c = 0; c < 13; ++c) assertFalse(reader.isNull(1, c)); // The bitmap is cleared per record.
+        assertEquals(7, reader.getObject(1, 10));
+        assertEquals("seven", reader.getObject(1, 11));
+        assertEquals(7.5, reader.getDouble(1, 12), 0.0);
+    }
+
+    @Test
+    public void rollsOverFullSegments() throws IOException {
+        TestSensor sensor = new TestSensor("Count", new String[] { "n" }, new Types[] { Types.Long });
+        Session session = new Session(this.directory, 2, sensor);
+        for (int i = 0; i < 5; ++i) {
+            sensor.set(i, (long) i);
+            session.collectAt(i);
+        }
+        session.close();
+        assertEquals(5, session.writer.getRecordsWritten());
+
+        File[] files = segments();
+        assertEquals(3, files.length);
+        assertEquals(SegmentLog.segmentName("log", 0), files[0].getName());
+        int[] counts = { 2, 2, 1 };
+        long n = 0;
+        for (int s = 0; s < files.length; ++s) {
+            SegmentLogReader reader = new SegmentLogReader(files[s]);
+            assertEquals(counts[s], reader.getRecordCount());
+            for (int i = 0; i < reader.getRecordCount(); ++i, ++n) {
+                assertEquals(n, reader.getTimestamp(i));
+                assertEquals(n, reader.getLong(i, 0));
+            }
+        }
+        assertEquals(5, n);
+    }
+
+    @Test
+    public void dropsFramesAfterRelease() throws IOException {
+        TestSensor sensor = new TestSensor("Count", new String[] { "n" }, new Types[] { Types.Long });
+        Session session = new Session(this.directory, 16, sensor);
+        sensor.set(0, 0L);
+        session.collectAt(0);
+        session.writer.release();
+        session.collectAt(1);
+        session.close();
+
+        assertEquals(1, session.writer.getRecordsWritten());
+        assertEquals(1, new SegmentLogReader(segments()[0]).getRecordCount());
+    }
+}
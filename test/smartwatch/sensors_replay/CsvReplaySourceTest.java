@@ -0,0 +1,90 @@
+package reuiot2015.smartwatch.sensors_replay;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import reuiot2015.smartwatch.sensors.Sensor;
+import reuiot2015.smartwatch.sensors.Types;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CsvReplaySourceTest {
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        this.file = File.createTempFile("session", ".csv");
+    }
+
+    @After
+    public void tearDown() {
+        this.file.delete();
+    }
+
+    private CsvReplaySource open(String... lines) throws IOException {
+        Writer out = new FileWriter(this.file);
+        try { for (String line : lines) out.write(line + "\n");
+        } finally { out.close(); }
+        return new CsvReplaySource(this.file, 250);
+    }
+
+    @Test
+    public void infersTypesPastLeadingNulls() throws IOException {
+        CsvReplaySource source = open(
+                "ms_accelerometer_x,ms_accelerometer_y,ms_accelerometer_z,ms_pedometer_steps",
+                "null,null,null,null", // The first tick, before any sensor reported.
+                "0.5,-1,9.75,null",
+                "1,2,3,120");
+        Sensor.SensorMetaData[] schema = source.getSchema();
+        assertEquals(2, schema.length);
+        assertArrayEquals(new Types[] { Types.Double, Types.Double, Types.Double }, schema[0].getDimensionTypes());
+        assertArrayEquals(new Types[] { Types.Long }, schema[1].getDimensionTypes());
+
+        ReplaySource.ReplayEvent event = new ReplaySource.ReplayEvent(3);
+        assertTrue(source.next(event)); // The row of nulls has no events.
+        assertEquals(0, event.sensor);
+        assertEquals(250, event.time);
+        assertEquals(-1.0, event.values[1]);
+        assertTrue(source.next(event));
+        assertEquals(0, event.sensor);
+        assertEquals(3.0, event.values[2]);
+        assertTrue(source.next(event));
+        assertEquals(1, event.sensor);
+        assertEquals(120L, event.values[0]);
+        assertFalse(source.next(event));
+        source.close();
+    }
+
+    @Test
+    public void widensToStringAndKeepsColumnsWithoutValues() throws IOException {
+        CsvReplaySource source = open(
+                "timestamp,band_contact,band_unused",
+                "1000,12,",
+                "1250,WORN,null");
+        Sensor.SensorMetaData[] schema = source.getSchema();
+        assertEquals(1, schema.length);
+        assertArrayEquals(new Types[] { Types.String, Types.String }, schema[0].getDimensionTypes());
+
+        ReplaySource.ReplayEvent event = new ReplaySource.ReplayEvent(2);
+        assertTrue(source.next(event));
+        assertEquals(1000, event.time);
+        assertEquals("12", event.values[0]);
+        assertTrue(source.next(event));
+        assertEquals("WORN", event.values[0]);
+        source.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsSessionsWithoutRows() throws IOException {
+        open("ms_accelerometer_x");
+    }
+}